@@ -0,0 +1,73 @@
+package ru.xfneo.departmentsmanagement.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+import ru.xfneo.departmentsmanagement.DepartmentsManagementApplication;
+import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.repository.DepartmentRepository;
+import ru.xfneo.departmentsmanagement.service.DepartmentService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Application started with in-memory H2 database filled with departments, shared by all threads of a benchmark.
+ */
+@State(Scope.Benchmark)
+public class ApplicationState {
+    private static final int SEED_BATCH_SIZE = 1000;
+
+    @Param({"10000"})
+    public int departmentCount;
+    @Param({"caffeine", "none"})
+    public String cacheType;
+
+    ConfigurableApplicationContext context;
+    DepartmentService departmentService;
+    MockMvc mockMvc;
+    private long[] ids;
+
+    @Setup(Level.Trial)
+    public void startApplication() {
+        context = new SpringApplicationBuilder(DepartmentsManagementApplication.class)
+                .run(
+                    "--spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+                    "--spring.cache.type=" + cacheType,
+                    "--server.port=0",
+                    "--spring.main.banner-mode=off",
+                    "--logging.level.root=WARN");
+        departmentService = context.getBean(DepartmentService.class);
+        mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+        DepartmentRepository departmentRepository = context.getBean(DepartmentRepository.class);
+        ids = new long[departmentCount];
+        for (int from = 0; from < departmentCount; from += SEED_BATCH_SIZE) {
+            List<Department> departments = new ArrayList<>();
+            for (int i = from; i < Math.min(from + SEED_BATCH_SIZE, departmentCount); i++) {
+                departments.add(new Department(0, "Department " + i));
+            }
+            List<Department> savedDepartments = departmentRepository.saveAll(departments);
+            for (int i = 0; i < savedDepartments.size(); i++) {
+                ids[from + i] = savedDepartments.get(i).getId();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        context.close();
+    }
+
+    long randomId() {
+        return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+}
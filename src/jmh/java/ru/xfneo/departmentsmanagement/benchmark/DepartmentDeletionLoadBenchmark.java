@@ -0,0 +1,96 @@
+package ru.xfneo.departmentsmanagement.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.StreamUtils;
+import ru.xfneo.departmentsmanagement.DepartmentsManagementApplication;
+import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.repository.DepartmentRepository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of DELETE /api/departments/{id} over HTTP: many concurrent clients, few Tomcat threads
+ * and a slow employee service stub. In blocking execution mode throughput is capped by
+ * tomcatThreads / employeeServiceDelay, in async mode by the executor of the employee client.
+ * "reactive" runs async execution mode with the non-blocking employee client of the "reactive" profile.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(64)
+public class DepartmentDeletionLoadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class LoadState {
+        @Param({"blocking", "async", "reactive"})
+        public String executionMode;
+        @Param({"8"})
+        public int tomcatThreads;
+        @Param({"100"})
+        public int employeeServiceDelayMillis;
+
+        private EmployeeServiceStub employeeService;
+        private ConfigurableApplicationContext context;
+        DepartmentRepository departmentRepository;
+        String departmentsUrl;
+        long replacementDepartmentId;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException {
+            employeeService = new EmployeeServiceStub(employeeServiceDelayMillis, 0);
+            context = new SpringApplicationBuilder(DepartmentsManagementApplication.class)
+                    .run(
+                        "--spring.datasource.url=jdbc:h2:mem:load;DB_CLOSE_DELAY=-1",
+                        "--server.port=0",
+                        "--server.tomcat.max-threads=" + tomcatThreads,
+                        "reactive".equals(executionMode)
+                                ? "--spring.profiles.active=reactive" : "--departments.execution-mode=" + executionMode,
+                        "--employees.service.url=" + employeeService.getUrl(),
+                        "--employees.service.async.pool-size=64",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN");
+            departmentRepository = context.getBean(DepartmentRepository.class);
+            departmentsUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/api/departments/";
+            replacementDepartmentId = departmentRepository.save(new Department(0, "Replacement Department")).getId();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            context.close();
+            employeeService.close();
+        }
+    }
+
+    @Benchmark
+    public int deleteDepartment(LoadState state) throws IOException {
+        long id = state.departmentRepository.save(new Department(0, "Load Test Department")).getId();
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                state.departmentsUrl + id + "?departmentForReplacement=" + state.replacementDepartmentId).openConnection();
+        connection.setRequestMethod("DELETE");
+        int status = connection.getResponseCode();
+        try (InputStream responseBody = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (responseBody != null) {
+                StreamUtils.drain(responseBody);
+            }
+        }
+        if (status != 200) {
+            throw new IllegalStateException("Delete of department " + id + " responded with code " + status);
+        }
+        return status;
+    }
+}
@@ -0,0 +1,96 @@
+package ru.xfneo.departmentsmanagement.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import ru.xfneo.departmentsmanagement.domain.Department;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Size on the wire and CPU time of department lists in JSON, Smile and CBOR, identity and gzip-compressed,
+ * with ObjectMapper configured as in Spring MVC. The size of the response is printed after each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DepartmentFormatBenchmark {
+    private static final TypeReference<List<Department>> DEPARTMENT_LIST = new TypeReference<List<Department>>() {
+    };
+
+    @Param({"json", "smile", "cbor"})
+    public String format;
+    @Param({"1000", "10000", "100000"})
+    public int size;
+    @Param({"identity", "gzip"})
+    public String compression;
+
+    private ObjectMapper objectMapper;
+    private List<Department> departments;
+    private byte[] response;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        switch (format) {
+            case "smile":
+                objectMapper = Jackson2ObjectMapperBuilder.smile().build();
+                break;
+            case "cbor":
+                objectMapper = Jackson2ObjectMapperBuilder.cbor().build();
+                break;
+            default:
+                objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        }
+        departments = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            departments.add(new Department(i + 1, "Department " + i));
+        }
+        response = serializeList();
+    }
+
+    @TearDown(Level.Trial)
+    public void printSize() {
+        System.out.printf("%n%s %s, %d departments: %d bytes (%.1f bytes per department)%n",
+                format, compression, size, response.length, (double) response.length / size);
+    }
+
+    @Benchmark
+    public byte[] serializeList() throws IOException {
+        byte[] serialized = objectMapper.writeValueAsBytes(departments);
+        if (!"gzip".equals(compression)) {
+            return serialized;
+        }
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream(Math.max(serialized.length / 4, 64));
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(gzip, 8192)) {
+            gzipOutputStream.write(serialized);
+        }
+        return gzip.toByteArray();
+    }
+
+    @Benchmark
+    public List<Department> deserializeList() throws IOException {
+        InputStream body = new ByteArrayInputStream(response);
+        if ("gzip".equals(compression)) {
+            body = new GZIPInputStream(body, 8192);
+        }
+        return objectMapper.readValue(body, DEPARTMENT_LIST);
+    }
+}
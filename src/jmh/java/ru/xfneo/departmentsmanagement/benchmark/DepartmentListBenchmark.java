@@ -0,0 +1,88 @@
+package ru.xfneo.departmentsmanagement.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+import ru.xfneo.departmentsmanagement.DepartmentsManagementApplication;
+import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.repository.DepartmentRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * GET /api/departments (whole list as JSON array) through MockMvc, with the serialized list cache disabled
+ * (listCacheMaxSize=0: departments are loaded and serialized on every request) and enabled.
+ * Allocation per request is reported by the GC profiler (gc.alloc.rate.norm):
+ * `-Djmh.args="-prof gc DepartmentListBenchmark"`.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DepartmentListBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class ListState {
+        @Param({"0", "16777216"})
+        public long listCacheMaxSize;
+        @Param({"identity", "gzip"})
+        public String acceptEncoding;
+        @Param({"1000"})
+        public int departmentCount;
+
+        private ConfigurableApplicationContext context;
+        MockMvc mockMvc;
+
+        @Setup(Level.Trial)
+        public void start() {
+            context = new SpringApplicationBuilder(DepartmentsManagementApplication.class)
+                    .run(
+                        "--spring.datasource.url=jdbc:h2:mem:list;DB_CLOSE_DELAY=-1",
+                        "--departments.list-cache.max-size=" + listCacheMaxSize,
+                        "--server.port=0",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN");
+            DepartmentRepository departmentRepository = context.getBean(DepartmentRepository.class);
+            List<Department> departments = new ArrayList<>();
+            for (int i = 0; i < departmentCount; i++) {
+                departments.add(new Department(0, "Department " + i));
+            }
+            departmentRepository.saveAll(departments);
+            mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            context.close();
+        }
+    }
+
+    @Benchmark
+    public MvcResult getListOfDepartments(ListState state) throws Exception {
+        MvcResult asyncResult = state.mockMvc.perform(get("/api/departments")
+                .header(HttpHeaders.ACCEPT_ENCODING, state.acceptEncoding))
+                .andReturn();
+        MvcResult result = state.mockMvc.perform(asyncDispatch(asyncResult)).andReturn();
+        if (result.getResponse().getStatus() != 200) {
+            throw new IllegalStateException("List responded with code " + result.getResponse().getStatus());
+        }
+        return result;
+    }
+}
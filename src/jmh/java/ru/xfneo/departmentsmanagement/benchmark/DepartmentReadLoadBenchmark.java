@@ -0,0 +1,99 @@
+package ru.xfneo.departmentsmanagement.benchmark;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.StreamUtils;
+import ru.xfneo.departmentsmanagement.DepartmentsManagementApplication;
+import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.repository.DepartmentRepository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of GET /api/departments with random "after" and limit 20 over HTTP, with more client threads than
+ * database connections. Every request borrows a connection, so throughput and latency depend on the pool size.
+ * At the end of each trial a report of the connection pool (wait time for a connection, active, idle and pending connections) is printed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(64)
+public class DepartmentReadLoadBenchmark {
+    private static final String POOL_NAME = "departments";
+
+    @State(Scope.Benchmark)
+    public static class LoadState {
+        @Param({"2", "10"})
+        public int poolSize;
+        @Param({"1000"})
+        public int departmentCount;
+
+        private ConfigurableApplicationContext context;
+        private PoolMetricsReport poolMetricsReport;
+        String departmentsUrl;
+        long minId;
+
+        @Setup(Level.Trial)
+        public void start() {
+            context = new SpringApplicationBuilder(DepartmentsManagementApplication.class)
+                    .run(
+                        "--spring.datasource.url=jdbc:h2:mem:readload;DB_CLOSE_DELAY=-1",
+                        "--server.port=0",
+                        "--spring.datasource.hikari.pool-name=" + POOL_NAME,
+                        "--spring.datasource.hikari.maximum-pool-size=" + poolSize,
+                        "--spring.datasource.hikari.minimum-idle=" + poolSize,
+                        "--management.metrics.distribution.percentiles.hikaricp.connections.acquire=0.5,0.99",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN");
+            DepartmentRepository departmentRepository = context.getBean(DepartmentRepository.class);
+            List<Department> departments = new ArrayList<>();
+            for (int i = 0; i < departmentCount; i++) {
+                departments.add(new Department(0, "Department " + i));
+            }
+            minId = departmentRepository.saveAll(departments).get(0).getId();
+            departmentsUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/api/departments";
+            poolMetricsReport = new PoolMetricsReport(context.getBean(MeterRegistry.class), POOL_NAME);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            poolMetricsReport.close();
+            context.close();
+        }
+    }
+
+    @Benchmark
+    public int findPage(LoadState state) throws IOException {
+        long after = state.minId + ThreadLocalRandom.current().nextInt(state.departmentCount);
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                state.departmentsUrl + "?limit=20&after=" + after).openConnection();
+        int status = connection.getResponseCode();
+        try (InputStream responseBody = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (responseBody != null) {
+                StreamUtils.drain(responseBody);
+            }
+        }
+        if (status != 200) {
+            throw new IllegalStateException("Page after " + after + " responded with code " + status);
+        }
+        return status;
+    }
+}
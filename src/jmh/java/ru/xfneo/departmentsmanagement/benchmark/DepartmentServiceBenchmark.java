@@ -0,0 +1,52 @@
+package ru.xfneo.departmentsmanagement.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.ResponseEntity;
+import ru.xfneo.departmentsmanagement.domain.Department;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DepartmentService calls against in-memory H2, with and without departments cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DepartmentServiceBenchmark {
+
+    @Benchmark
+    public ResponseEntity<?> find(ApplicationState state) {
+        return state.departmentService.find(state.randomId());
+    }
+
+    @Benchmark
+    public ResponseEntity<?> create(ApplicationState state) {
+        return state.departmentService.create(new Department(0, "Benchmark Department"));
+    }
+
+    /**
+     * Client flow of optimistic locking: the ETag of the department is taken from find, then sent in "If-Match".
+     */
+    @Benchmark
+    public ResponseEntity<?> update(ApplicationState state) {
+        long id = state.randomId();
+        String eTag = state.departmentService.find(id).getHeaders().getETag();
+        return state.departmentService.update(id, new Department(0, "Updated Department"), eTag);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Department> findAll(ApplicationState state) {
+        return state.departmentService.findAll();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void forEach(ApplicationState state, Blackhole blackhole) {
+        state.departmentService.forEach(blackhole::consume);
+    }
+}
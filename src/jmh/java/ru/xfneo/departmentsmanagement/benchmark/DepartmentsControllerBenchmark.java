@@ -0,0 +1,40 @@
+package ru.xfneo.departmentsmanagement.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Full MockMvc dispatch through DepartmentsController: request mapping, service, repository and JSON conversion.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DepartmentsControllerBenchmark {
+    private static final String CREATE_DEPARTMENT_JSON = "{\"name\":\"Benchmark Department\"}";
+
+    @Benchmark
+    public MvcResult getDepartment(ApplicationState state) throws Exception {
+        return state.mockMvc.perform(get("/api/departments/{id}", state.randomId())).andReturn();
+    }
+
+    @Benchmark
+    public MvcResult getPageOfDepartments(ApplicationState state) throws Exception {
+        return state.mockMvc.perform(get("/api/departments").param("limit", "100")).andReturn();
+    }
+
+    @Benchmark
+    public MvcResult createDepartment(ApplicationState state) throws Exception {
+        return state.mockMvc.perform(post("/api/departments")
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .content(CREATE_DEPARTMENT_JSON))
+                .andReturn();
+    }
+}
@@ -0,0 +1,63 @@
+package ru.xfneo.departmentsmanagement.benchmark;
+
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process stub of employee-management-ws: POST /api/employees/replaceDepartment responds after the delay,
+ * with code 500 for the given fraction of requests (chosen at random), with 200 for the others.
+ */
+class EmployeeServiceStub implements AutoCloseable {
+    static final String REPLACE_DEPARTMENT_PATH = "/api/employees/replaceDepartment";
+    private static final byte[] OK_RESPONSE = "0 employees are affected".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ERROR_RESPONSE = "Employee Service Error".getBytes(StandardCharsets.UTF_8);
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /**
+     * Start the stub on a free local port.
+     *
+     * @param delayMillis  time before the response of every request
+     * @param errorRate  fraction of requests responded with code 500, from 0 to 1
+     */
+    EmployeeServiceStub(long delayMillis, double errorRate) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(executor);
+        server.createContext(REPLACE_DEPARTMENT_PATH, exchange -> {
+            try (InputStream requestBody = exchange.getRequestBody(); OutputStream responseBody = exchange.getResponseBody()) {
+                StreamUtils.drain(requestBody);
+                TimeUnit.MILLISECONDS.sleep(delayMillis);
+                boolean failed = ThreadLocalRandom.current().nextDouble() < errorRate;
+                byte[] response = failed ? ERROR_RESPONSE : OK_RESPONSE;
+                exchange.sendResponseHeaders(failed ? 500 : 200, response.length);
+                responseBody.write(response);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return value of "employees.service.url" of the application
+     */
+    String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
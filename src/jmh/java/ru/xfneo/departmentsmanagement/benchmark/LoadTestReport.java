@@ -0,0 +1,127 @@
+package ru.xfneo.departmentsmanagement.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Report of JMH results (JSON) of load tests: throughput in ops/s and latency percentiles in ms per benchmark,
+ * parameters and operation of a group. With a baseline result, e.g. of the previous commit, every value is followed
+ * by its change against the baseline.
+ * <p>
+ * Usage: {@code LoadTestReport <result.json> [<baseline.json>]}
+ */
+public class LoadTestReport {
+    private static final String[] PERCENTILES = {"50.0", "90.0", "99.0", "99.9"};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: LoadTestReport <result.json> [<baseline.json>]");
+            System.exit(2);
+        }
+        Map<String, Map<String, Double>> results = read(new File(args[0]));
+        Map<String, Map<String, Double>> baseline = args.length > 1 && !args[1].isEmpty() ? read(new File(args[1])) : null;
+        System.out.println();
+        System.out.println(baseline == null ? "Load test report of " + args[0]
+                : "Load test report of " + args[0] + " against baseline " + args[1]);
+        String keyFormat = "%-" + results.keySet().stream().mapToInt(String::length).max().orElse(10) + "s";
+        System.out.printf(keyFormat + " %16s %16s %16s %16s %16s%n", "benchmark", "ops/s", "p50, ms", "p90, ms", "p99, ms", "p99.9, ms");
+        results.forEach((key, values) -> {
+            Map<String, Double> baselineValues = baseline != null ? baseline.get(key) : null;
+            StringBuilder line = new StringBuilder(String.format(Locale.ROOT, keyFormat, key));
+            for (String column : new String[]{"thrpt", "p50.0", "p90.0", "p99.0", "p99.9"}) {
+                line.append(' ').append(format(values.get(column), baselineValues != null ? baselineValues.get(column) : null));
+            }
+            System.out.println(line);
+        });
+    }
+
+    /**
+     * @return values by column ("thrpt", "p50.0", ...) by "benchmark{params} operation", in the order of the file
+     */
+    static Map<String, Map<String, Double>> read(File file) throws IOException {
+        Map<String, Map<String, Double>> results = new LinkedHashMap<>();
+        for (JsonNode run : new ObjectMapper().readTree(file)) {
+            String method = run.get("benchmark").asText();
+            String benchmark = method.substring(method.lastIndexOf('.', method.lastIndexOf('.') - 1) + 1);
+            Map<String, String> params = new TreeMap<>();
+            JsonNode paramsNode = run.path("params");
+            for (Iterator<Map.Entry<String, JsonNode>> fields = paramsNode.fields(); fields.hasNext(); ) {
+                Map.Entry<String, JsonNode> param = fields.next();
+                params.put(param.getKey(), param.getValue().asText());
+            }
+            String mode = run.get("mode").asText();
+            Map<String, JsonNode> metrics = new LinkedHashMap<>();
+            // operations of a group are secondary metrics, a plain benchmark has only the primary one
+            run.path("secondaryMetrics").fields().forEachRemaining(metric -> {
+                if (metric.getKey().indexOf('\u00b7') < 0) {
+                    metrics.put(metric.getKey(), metric.getValue());
+                }
+            });
+            if (metrics.isEmpty()) {
+                metrics.put("", run.get("primaryMetric"));
+            }
+            metrics.forEach((operation, metric) -> {
+                Map<String, Double> values = results.computeIfAbsent(
+                        (benchmark + (params.isEmpty() ? "" : params.toString()) + " " + operation).trim(), key -> new LinkedHashMap<>());
+                String unit = metric.get("scoreUnit").asText();
+                if (mode.equals("thrpt")) {
+                    values.put("thrpt", metric.get("score").asDouble() * perSecond(unit));
+                } else if (mode.equals("sample")) {
+                    for (String percentile : PERCENTILES) {
+                        JsonNode value = metric.path("scorePercentiles").get(percentile);
+                        if (value != null) {
+                            values.put("p" + percentile, value.asDouble() * millis(unit));
+                        }
+                    }
+                }
+            });
+        }
+        return results;
+    }
+
+    /**
+     * @return factor of the throughput unit, e.g. "ops/ms", to ops/s
+     */
+    private static double perSecond(String unit) {
+        return 1 / millis(unit.substring(unit.indexOf('/') + 1) + "/op") * 1000;
+    }
+
+    /**
+     * @return factor of the time unit, e.g. "us/op", to milliseconds
+     */
+    private static double millis(String unit) {
+        switch (unit.substring(0, unit.indexOf('/'))) {
+            case "ns":
+                return 1e-6;
+            case "us":
+                return 1e-3;
+            case "ms":
+                return 1;
+            case "s":
+                return 1e3;
+            case "min":
+                return 60e3;
+            default:
+                throw new IllegalArgumentException("Unknown unit " + unit);
+        }
+    }
+
+    private static String format(Double value, Double baselineValue) {
+        if (value == null) {
+            return String.format("%16s", "-");
+        }
+        String formatted = String.format(Locale.ROOT, value >= 100 ? "%.0f" : "%.2f", value);
+        if (baselineValue != null && baselineValue != 0) {
+            formatted += String.format(Locale.ROOT, " (%+.0f%%)", (value - baselineValue) / baselineValue * 100);
+        }
+        return String.format("%16s", formatted);
+    }
+}
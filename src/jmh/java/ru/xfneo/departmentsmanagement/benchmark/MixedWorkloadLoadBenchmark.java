@@ -0,0 +1,185 @@
+package ru.xfneo.departmentsmanagement.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.util.StreamUtils;
+import ru.xfneo.departmentsmanagement.DepartmentsManagementApplication;
+import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.domain.DepartmentChangeHead;
+import ru.xfneo.departmentsmanagement.repository.DepartmentChangeHeadRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentRepository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load test of a mixed workload over HTTP against the application with in-memory H2 and the employee service stub
+ * responding after employeeServiceDelayMillis, with code 500 for employeeServiceErrorRate of requests.
+ * Threads of the group: 48 read departments by id, 12 create departments, 4 delete the created departments
+ * (override with "-tg read,write,delete"). Throughput and latency percentiles are reported per operation;
+ * responses are counted by code and printed after each trial, errors (e.g. 503 of a failed employee service
+ * or admission control) don't stop the test.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MixedWorkloadLoadBenchmark {
+    private static final byte[] CREATE_DEPARTMENT_JSON = "{\"name\":\"Load Test Department\"}".getBytes(StandardCharsets.UTF_8);
+
+    @State(Scope.Benchmark)
+    public static class LoadState {
+        private static final int SEED_BATCH_SIZE = 1000;
+
+        @Param({"10000"})
+        public int departmentCount;
+        @Param({"50"})
+        public int employeeServiceDelayMillis;
+        @Param({"0", "0.05"})
+        public double employeeServiceErrorRate;
+
+        private EmployeeServiceStub employeeService;
+        private ConfigurableApplicationContext context;
+        private final Map<String, LongAdder> responseCodes = new ConcurrentHashMap<>();
+        private final ObjectMapper objectMapper = new ObjectMapper();
+        private final Queue<Long> createdIds = new ConcurrentLinkedQueue<>();
+        private long[] ids;
+        DepartmentRepository departmentRepository;
+        String departmentsUrl;
+        long replacementDepartmentId;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException {
+            employeeService = new EmployeeServiceStub(employeeServiceDelayMillis, employeeServiceErrorRate);
+            context = new SpringApplicationBuilder(DepartmentsManagementApplication.class)
+                    .run(
+                        "--spring.datasource.url=jdbc:h2:mem:mixedload;DB_CLOSE_DELAY=-1",
+                        "--server.port=0",
+                        "--employees.service.url=" + employeeService.getUrl(),
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN");
+            // created by migration in the database of the application
+            context.getBean(DepartmentChangeHeadRepository.class).save(new DepartmentChangeHead(DepartmentChangeHead.ID, 0, 0));
+            departmentRepository = context.getBean(DepartmentRepository.class);
+            departmentsUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/api/departments/";
+            replacementDepartmentId = departmentRepository.save(new Department(0, "Replacement Department")).getId();
+            ids = new long[departmentCount];
+            for (int from = 0; from < departmentCount; from += SEED_BATCH_SIZE) {
+                List<Department> departments = new ArrayList<>();
+                for (int i = from; i < Math.min(from + SEED_BATCH_SIZE, departmentCount); i++) {
+                    departments.add(new Department(0, "Department " + i));
+                }
+                List<Department> savedDepartments = departmentRepository.saveAll(departments);
+                for (int i = 0; i < savedDepartments.size(); i++) {
+                    ids[from + i] = savedDepartments.get(i).getId();
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            System.out.println();
+            System.out.println("Responses by code: " + new TreeMap<>(responseCodes));
+            context.close();
+            employeeService.close();
+        }
+
+        void count(String operation, int status) {
+            responseCodes.computeIfAbsent(operation + " " + status, key -> new LongAdder()).increment();
+        }
+
+        /**
+         * @return id of a seeded department, which is never deleted
+         */
+        long randomId() {
+            return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(48)
+    public int read(LoadState state) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(state.departmentsUrl + state.randomId()).openConnection();
+        int status = connection.getResponseCode();
+        drain(connection, status);
+        state.count("read", status);
+        return status;
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(12)
+    public int write(LoadState state) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(state.departmentsUrl).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_UTF8_VALUE);
+        try (OutputStream requestBody = connection.getOutputStream()) {
+            requestBody.write(CREATE_DEPARTMENT_JSON);
+        }
+        int status = connection.getResponseCode();
+        if (status == 201) {
+            try (InputStream responseBody = connection.getInputStream()) {
+                state.createdIds.add(state.objectMapper.readValue(responseBody, Department.class).getId());
+            }
+        } else {
+            drain(connection, status);
+        }
+        state.count("write", status);
+        return status;
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public int delete(LoadState state) throws IOException {
+        Long id = state.createdIds.poll();
+        if (id == null) {
+            // writes haven't created a department yet
+            id = state.departmentRepository.save(new Department(0, "Load Test Department")).getId();
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                state.departmentsUrl + id + "?departmentForReplacement=" + state.replacementDepartmentId).openConnection();
+        connection.setRequestMethod("DELETE");
+        int status = connection.getResponseCode();
+        drain(connection, status);
+        state.count("delete", status);
+        return status;
+    }
+
+    private static void drain(HttpURLConnection connection, int status) throws IOException {
+        try (InputStream responseBody = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (responseBody != null) {
+                StreamUtils.drain(responseBody);
+            }
+        }
+    }
+}
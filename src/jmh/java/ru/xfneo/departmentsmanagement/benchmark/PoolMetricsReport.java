@@ -0,0 +1,92 @@
+package ru.xfneo.departmentsmanagement.benchmark;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Report of the database connection pool under load, from the hikaricp.connections.* meters of the application:
+ * time waiting for a connection, time a connection is held, timeouts, and active, idle and pending connections
+ * sampled every 10 ms (gauges show only the current value).
+ */
+class PoolMetricsReport implements AutoCloseable {
+    private final MeterRegistry meterRegistry;
+    private final String poolName;
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+    private final double acquireCountBefore;
+    private final double timeoutCountBefore;
+    private long samples;
+    private double activeSum;
+    private double maxActive;
+    private double minIdle = Double.MAX_VALUE;
+    private double pendingSum;
+    private double maxPending;
+
+    /**
+     * Start sampling of the pool gauges, counts of the report start from now.
+     */
+    PoolMetricsReport(MeterRegistry meterRegistry, String poolName) {
+        this.meterRegistry = meterRegistry;
+        this.poolName = poolName;
+        this.acquireCountBefore = timer("hikaricp.connections.acquire").count();
+        this.timeoutCountBefore = counter("hikaricp.connections.timeout").count();
+        sampler.scheduleAtFixedRate(this::sample, 0, 10, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void sample() {
+        double active = gauge("hikaricp.connections.active").value();
+        double idle = gauge("hikaricp.connections.idle").value();
+        double pending = gauge("hikaricp.connections.pending").value();
+        samples++;
+        activeSum += active;
+        maxActive = Math.max(maxActive, active);
+        minIdle = Math.min(minIdle, idle);
+        pendingSum += pending;
+        maxPending = Math.max(maxPending, pending);
+    }
+
+    /**
+     * Stop sampling and print the report.
+     */
+    @Override
+    public synchronized void close() {
+        sampler.shutdownNow();
+        Timer acquire = timer("hikaricp.connections.acquire");
+        Timer usage = timer("hikaricp.connections.usage");
+        StringBuilder report = new StringBuilder(String.format(Locale.ROOT,
+                "%nConnection pool \"%s\" (max %.0f connections)%n", poolName, gauge("hikaricp.connections.max").value()));
+        report.append(String.format(Locale.ROOT, "  acquire: %.0f connections, mean %.3f ms, max %.3f ms",
+                acquire.count() - acquireCountBefore, acquire.mean(TimeUnit.MILLISECONDS), acquire.max(TimeUnit.MILLISECONDS)));
+        for (ValueAtPercentile percentile : acquire.takeSnapshot().percentileValues()) {
+            report.append(String.format(Locale.ROOT, ", p%s %.3f ms",
+                    percentile.percentile() * 100, percentile.value(TimeUnit.MILLISECONDS)));
+        }
+        report.append(String.format(Locale.ROOT, "%n  usage: mean %.3f ms, max %.3f ms%n",
+                usage.mean(TimeUnit.MILLISECONDS), usage.max(TimeUnit.MILLISECONDS)));
+        report.append(String.format(Locale.ROOT, "  timeouts: %.0f%n", counter("hikaricp.connections.timeout").count() - timeoutCountBefore));
+        if (samples > 0) {
+            report.append(String.format(Locale.ROOT, "  active: mean %.1f, max %.0f; idle: min %.0f; pending: mean %.1f, max %.0f (%d samples)%n",
+                    activeSum / samples, maxActive, minIdle, pendingSum / samples, maxPending, samples));
+        }
+        System.out.println(report);
+    }
+
+    private Timer timer(String name) {
+        return meterRegistry.get(name).tag("pool", poolName).timer();
+    }
+
+    private Counter counter(String name) {
+        return meterRegistry.get(name).tag("pool", poolName).counter();
+    }
+
+    private Gauge gauge(String name) {
+        return meterRegistry.get(name).tag("pool", poolName).gauge();
+    }
+}
@@ -0,0 +1,121 @@
+package ru.xfneo.departmentsmanagement.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.StreamUtils;
+import ru.xfneo.departmentsmanagement.DepartmentsManagementApplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to first request: starts the application in a new JVM against in-memory H2 and measures the time until
+ * GET /api/departments responds with code 200, with the default and the "fast-startup" profile.
+ * sharedArchiveFile is a class data sharing archive built by the "cds" build profile
+ * (e.g. -p sharedArchiveFile=,target/departments-management.jsa), empty for the default archive of the JDK.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StartupBenchmark {
+    private static final long STARTUP_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(3);
+
+    @State(Scope.Benchmark)
+    public static class StartupState {
+        @Param({"default", "fast-startup"})
+        public String profile;
+        @Param({""})
+        public String sharedArchiveFile;
+    }
+
+    @Benchmark
+    public int timeToFirstRequest(StartupState state) throws IOException, InterruptedException {
+        int port = findFreePort();
+        Process application = new ProcessBuilder(command(state, port))
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(Paths.get("target", "startup-benchmark.log").toFile()))
+                .start();
+        try {
+            return awaitFirstResponse(application, new URL("http://localhost:" + port + "/api/departments"));
+        } finally {
+            application.destroy();
+            if (!application.waitFor(30, TimeUnit.SECONDS)) {
+                application.destroyForcibly();
+            }
+        }
+    }
+
+    private static List<String> command(StartupState state, int port) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (!state.sharedArchiveFile.isEmpty()) {
+            command.add("-XX:+UnlockDiagnosticVMOptions");
+            command.add("-XX:SharedArchiveFile=" + new File(state.sharedArchiveFile).getAbsolutePath());
+        }
+        command.add("-Dspring.devtools.restart.enabled=false");
+        command.add("-classpath");
+        command.add(System.getProperty("java.class.path"));
+        command.add(DepartmentsManagementApplication.class.getName());
+        if (!"default".equals(state.profile)) {
+            command.add("--spring.profiles.active=" + state.profile);
+        }
+        // The schema is created by Hibernate: Flyway migrations are written for PostgreSQL
+        command.add("--spring.jpa.hibernate.ddl-auto=create-drop");
+        command.add("--spring.datasource.url=jdbc:h2:mem:startup");
+        command.add("--server.port=" + port);
+        command.add("--spring.main.banner-mode=off");
+        command.add("--logging.level.root=WARN");
+        return command;
+    }
+
+    private static int awaitFirstResponse(Process application, URL url) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            if (!application.isAlive()) {
+                throw new IllegalStateException("Application exited with code " + application.exitValue()
+                        + " before the first response, see target/startup-benchmark.log");
+            }
+            try {
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                int status = connection.getResponseCode();
+                try (InputStream responseBody = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                    if (responseBody != null) {
+                        StreamUtils.drain(responseBody);
+                    }
+                }
+                if (status != 200) {
+                    throw new IllegalStateException("First request responded with code " + status);
+                }
+                return status;
+            } catch (ConnectException e) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+        }
+        throw new IllegalStateException("Application didn't respond in " + STARTUP_TIMEOUT_MILLIS + " ms");
+    }
+
+    private static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package ru.xfneo.departmentsmanagement.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limit of concurrent requests which adapts to their latency (gradient of latency, as in TCP Vegas):
+ * while the latency of a request stays within tolerance of the long-term average latency and the limit is used,
+ * the limit grows by about its square root; when the latency rises above it, the limit shrinks in proportion,
+ * so requests stop piling up in front of a slowed down database or employee-management-ws.
+ * A request which fails with a server error shrinks the limit by 10%. The limit stays between min and max.
+ * <p>
+ * A request over the limit waits for a permit up to max-wait in a queue of up to queue-size requests, then it is rejected.
+ */
+public class AdaptiveConcurrencyLimiter {
+    /**
+     * Weight of a request in the long-term average latency, about the last 20 requests
+     */
+    private static final double LONG_LATENCY_SMOOTHING = 0.05;
+    /**
+     * Weight of the limit computed from a request in the limit
+     */
+    private static final double LIMIT_SMOOTHING = 0.2;
+    private static final double MIN_GRADIENT = 0.5;
+    private static final double FAILURE_DECREASE = 0.9;
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final int queueSize;
+    private final long maxWaitNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+    private double limit;
+    private double longLatency;
+    private int inFlight;
+    private int queued;
+
+    /**
+     * @param name  name of the endpoint group, tag of metrics
+     * @param initialLimit  limit until latencies are measured
+     * @param tolerance  ratio of latency to the long-term average latency which doesn't shrink the limit
+     * @param queueSize  maximum number of requests waiting for a permit
+     * @param maxWaitMillis  maximum time a request waits for a permit
+     */
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, double tolerance,
+                                      int queueSize, long maxWaitMillis) {
+        if (minLimit < 1 || minLimit > maxLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Limits of " + name + " must satisfy 1 <= min <= initial <= max");
+        }
+        this.name = name;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.queueSize = queueSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    /**
+     * Take a permit, waiting for it if the limit is reached and the queue is not full.
+     *
+     * @return true if the permit is taken and must be released by {@link #release(long, boolean)},
+     * false if the request is rejected.
+     */
+    public boolean acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return true;
+            }
+            if (queued >= queueSize || maxWaitNanos <= 0) {
+                return false;
+            }
+            queued++;
+            try {
+                long remainingNanos = maxWaitNanos;
+                while (inFlight >= (int) limit) {
+                    if (remainingNanos <= 0) {
+                        return false;
+                    }
+                    remainingNanos = permitReleased.awaitNanos(remainingNanos);
+                }
+            } finally {
+                queued--;
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release the permit of a completed request and adapt the limit to its latency.
+     *
+     * @param latencyNanos  time from taking the permit to the end of the request
+     * @param failed  true if the request failed with a server error
+     */
+    public void release(long latencyNanos, boolean failed) {
+        lock.lock();
+        try {
+            // the limit is used if the request was at least the half of the limit when it completed
+            boolean limitUsed = inFlight * 2 >= limit;
+            inFlight--;
+            if (failed) {
+                limit = Math.max(minLimit, limit * FAILURE_DECREASE);
+            } else if (latencyNanos > 0) {
+                longLatency = longLatency == 0 ? latencyNanos : longLatency + (latencyNanos - longLatency) * LONG_LATENCY_SMOOTHING;
+                double gradient = Math.max(MIN_GRADIENT, tolerance * longLatency / latencyNanos);
+                // an unused limit is not raised: its requests don't show whether a higher one is safe
+                double newLimit = gradient < 1 ? limit * gradient : limitUsed ? limit + Math.sqrt(limit) : limit;
+                limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - LIMIT_SMOOTHING) + newLimit * LIMIT_SMOOTHING));
+            }
+            permitReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package ru.xfneo.departmentsmanagement.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Admission control of the departments API: reads, writes and deletes (which call employee-management-ws) have separate
+ * adaptive concurrency limits, so a slow dependency of one group doesn't take all request threads. A request over
+ * the limit of its group is rejected with code 503 and Retry-After header instead of waiting for a thread.
+ * The change feed (long polls and event streams) is not limited: its requests wait for changes by design.
+ */
+@Log4j2
+public class AdmissionControlFilter extends OncePerRequestFilter {
+    public static final String REJECTED_METRIC = "departments.admission.rejected";
+    private static final String API_PATH = "/api/departments";
+    private static final String CHANGES_PATH = API_PATH + "/changes";
+    private static final byte[] REJECTED_BODY = "Service Overloaded, Retry Later".getBytes(StandardCharsets.UTF_8);
+    private final Group reads;
+    private final Group writes;
+    private final Group deletes;
+    private final long retryAfterSeconds;
+
+    /**
+     * @param retryAfterSeconds  value of Retry-After header of rejected requests
+     */
+    public AdmissionControlFilter(AdaptiveConcurrencyLimiter reads, AdaptiveConcurrencyLimiter writes,
+                                  AdaptiveConcurrencyLimiter deletes, long retryAfterSeconds, MeterRegistry meterRegistry) {
+        this.reads = new Group(reads, meterRegistry);
+        this.writes = new Group(writes, meterRegistry);
+        this.deletes = new Group(deletes, meterRegistry);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return !(path.equals(API_PATH) || path.startsWith(API_PATH + "/")) || path.equals(CHANGES_PATH);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Group group = group(request.getMethod());
+        long queuedAt = System.nanoTime();
+        boolean admitted;
+        try {
+            admitted = group.limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        }
+        long admittedAt = System.nanoTime();
+        group.queueWait.record(admittedAt - queuedAt, TimeUnit.NANOSECONDS);
+        if (!admitted) {
+            group.rejected.increment();
+            log.debug("{} {} rejected: {} requests in flight", request.getMethod(), request.getRequestURI(), group.limiter.getInFlight());
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.setContentLength(REJECTED_BODY.length);
+            response.getOutputStream().write(REJECTED_BODY);
+            return;
+        }
+        Permit permit = new Permit(group.limiter, admittedAt);
+        try {
+            filterChain.doFilter(request, response);
+        } catch (IOException | ServletException | RuntimeException e) {
+            permit.release(true);
+            throw e;
+        }
+        if (request.isAsyncStarted()) {
+            // async handlers (deferred results, streamed bodies) hold the permit until the response is completed
+            request.getAsyncContext().addListener(permit);
+        } else {
+            permit.release(response.getStatus() >= 500);
+        }
+    }
+
+    private Group group(String method) {
+        switch (method) {
+            case "GET":
+            case "HEAD":
+            case "OPTIONS":
+                return reads;
+            case "DELETE":
+                return deletes;
+            default:
+                return writes;
+        }
+    }
+
+    private static final class Group {
+        private final AdaptiveConcurrencyLimiter limiter;
+        private final Counter rejected;
+        private final Timer queueWait;
+
+        Group(AdaptiveConcurrencyLimiter limiter, MeterRegistry meterRegistry) {
+            this.limiter = limiter;
+            String name = limiter.getName();
+            rejected = Counter.builder(REJECTED_METRIC).tag("group", name)
+                    .description("Requests rejected with code 503 over the concurrency limit").register(meterRegistry);
+            queueWait = Timer.builder("departments.admission.queue.wait").tag("group", name)
+                    .description("Time requests waited for a permit").register(meterRegistry);
+            Gauge.builder("departments.admission.limit", limiter, AdaptiveConcurrencyLimiter::getLimit).tag("group", name)
+                    .description("Current concurrency limit").register(meterRegistry);
+            Gauge.builder("departments.admission.in.flight", limiter, AdaptiveConcurrencyLimiter::getInFlight).tag("group", name)
+                    .description("Requests holding a permit").register(meterRegistry);
+            Gauge.builder("departments.admission.queued", limiter, AdaptiveConcurrencyLimiter::getQueued).tag("group", name)
+                    .description("Requests waiting for a permit").register(meterRegistry);
+        }
+    }
+
+    /**
+     * Permit of one request, released once: after the filter chain, or on completion of the async request.
+     */
+    private static final class Permit implements AsyncListener {
+        private final AdaptiveConcurrencyLimiter limiter;
+        private final long admittedAt;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(AdaptiveConcurrencyLimiter limiter, long admittedAt) {
+            this.limiter = limiter;
+            this.admittedAt = admittedAt;
+        }
+
+        void release(boolean failed) {
+            if (released.compareAndSet(false, true)) {
+                limiter.release(System.nanoTime() - admittedAt, failed);
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            HttpServletResponse response = (HttpServletResponse) event.getSuppliedResponse();
+            release(response.getStatus() >= 500);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release(true);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release(true);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
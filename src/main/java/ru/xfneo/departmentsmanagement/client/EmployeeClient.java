@@ -6,9 +6,18 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface EmployeeClient {
 
     @PostMapping(value = "/api/employees/replaceDepartment", produces = MediaType.APPLICATION_JSON_UTF8_VALUE, consumes = MediaType.APPLICATION_JSON_UTF8_VALUE)
     Response replaceDepartmentId(@RequestBody Map<String, Long> oldAndNewDepartmentIds);
-}
\ No newline at end of file
+
+    /**
+     * Non-blocking variant of {@link #replaceDepartmentId(Map)}.
+     * Default implementation calls the blocking method in the caller thread.
+     */
+    default CompletableFuture<Response> replaceDepartmentIdAsync(Map<String, Long> oldAndNewDepartmentIds) {
+        return CompletableFuture.completedFuture(replaceDepartmentId(oldAndNewDepartmentIds));
+    }
+}
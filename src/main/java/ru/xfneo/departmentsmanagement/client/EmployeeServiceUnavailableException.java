@@ -0,0 +1,12 @@
+package ru.xfneo.departmentsmanagement.client;
+
+/**
+ * Thrown when employee-management-ws can't be called: it is not reachable after all retries,
+ * the circuit breaker is open, or there are too many calls in progress.
+ */
+public class EmployeeServiceUnavailableException extends RuntimeException {
+
+    public EmployeeServiceUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
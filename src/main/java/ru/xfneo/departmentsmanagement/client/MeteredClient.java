@@ -0,0 +1,67 @@
+package ru.xfneo.departmentsmanagement.client;
+
+import feign.Client;
+import feign.Request;
+import feign.Response;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feign client decorator which records metrics of every HTTP call instead of logging it:
+ * "employee.client.requests" timer tagged by method, uri and status (or "IO_ERROR"),
+ * "employee.client.request.size" and "employee.client.response.size" distributions in bytes.
+ */
+public class MeteredClient implements Client {
+    public static final String REQUESTS_METRIC = "employee.client.requests";
+    public static final String REQUEST_SIZE_METRIC = "employee.client.request.size";
+    public static final String RESPONSE_SIZE_METRIC = "employee.client.response.size";
+    private final Client delegate;
+    private final MeterRegistry meterRegistry;
+
+    public MeteredClient(Client delegate, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Response execute(Request request, Request.Options options) throws IOException {
+        String method = request.httpMethod().name();
+        String uri = URI.create(request.url()).getPath();
+        if (request.body() != null) {
+            payloadSize(REQUEST_SIZE_METRIC, method, uri).record(request.body().length);
+        }
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = delegate.execute(request, options);
+        } catch (IOException e) {
+            requestTimer(method, uri, "IO_ERROR").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+        requestTimer(method, uri, String.valueOf(response.status())).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (response.body() != null && response.body().length() != null) {
+            payloadSize(RESPONSE_SIZE_METRIC, method, uri).record(response.body().length());
+        }
+        return response;
+    }
+
+    private Timer requestTimer(String method, String uri, String status) {
+        return Timer.builder(REQUESTS_METRIC)
+                .description("Calls of employee-management-ws")
+                .tags("method", method, "uri", uri, "status", status)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private DistributionSummary payloadSize(String name, String method, String uri) {
+        return DistributionSummary.builder(name)
+                .baseUnit("bytes")
+                .tags("method", method, "uri", uri)
+                .register(meterRegistry);
+    }
+}
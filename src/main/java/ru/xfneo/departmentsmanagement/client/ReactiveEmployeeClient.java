@@ -0,0 +1,144 @@
+package ru.xfneo.departmentsmanagement.client;
+
+import feign.Request;
+import feign.Response;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.retry.Retry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Non-blocking EmployeeClient on WebClient: no thread waits for employee-management-ws while a call is in progress.
+ * Calls are retried with backoff and stopped while the circuit breaker is open, as {@link ResilientEmployeeClient} does.
+ */
+@Log4j2
+public class ReactiveEmployeeClient implements EmployeeClient, AutoCloseable {
+    static final String REPLACE_DEPARTMENT_URI = "/api/employees/replaceDepartment";
+    private final WebClient webClient;
+    private final Duration readTimeout;
+    private final CircuitBreaker circuitBreaker;
+    private final Retry retry;
+    private final ScheduledExecutorService retryScheduler;
+    private final ExecutorService callbackExecutor;
+
+    /**
+     * @param webClient  client with base URL of employee-management-ws
+     * @param readTimeout  maximum time to wait for the response of one attempt
+     * @param circuitBreaker  circuit breaker for the calls
+     * @param retry  retry policy, should retry {@link ResilientEmployeeClient.ServerErrorResponseException},
+     * {@link java.io.IOException} and {@link java.util.concurrent.TimeoutException}
+     * @param retryScheduler  scheduler of retries after backoff, shut down on {@link #close()}
+     * @param callbackExecutor  executor completing the returned futures, so blocking callbacks (e.g. database updates)
+     * don't run on the event loop, shut down on {@link #close()}
+     */
+    public ReactiveEmployeeClient(WebClient webClient, Duration readTimeout, CircuitBreaker circuitBreaker, Retry retry,
+                                  ScheduledExecutorService retryScheduler, ExecutorService callbackExecutor) {
+        this.webClient = webClient;
+        this.readTimeout = readTimeout;
+        this.circuitBreaker = circuitBreaker;
+        this.retry = retry;
+        this.retryScheduler = retryScheduler;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Blocks the caller until {@link #replaceDepartmentIdAsync(Map)} completes.
+     *
+     * @throws EmployeeServiceUnavailableException if employee-management-ws is not reachable or the circuit breaker is open
+     */
+    @Override
+    public Response replaceDepartmentId(Map<String, Long> oldAndNewDepartmentIds) {
+        try {
+            return replaceDepartmentIdAsync(oldAndNewDepartmentIds).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof EmployeeServiceUnavailableException) {
+                throw (EmployeeServiceUnavailableException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The future fails with {@link EmployeeServiceUnavailableException} if employee-management-ws is not reachable
+     * or the circuit breaker is open.
+     */
+    @Override
+    public CompletableFuture<Response> replaceDepartmentIdAsync(Map<String, Long> oldAndNewDepartmentIds) {
+        Supplier<CompletionStage<Response>> call = Retry.decorateCompletionStage(retry, retryScheduler,
+                CircuitBreaker.decorateCompletionStage(circuitBreaker, () -> callEmployeeService(oldAndNewDepartmentIds)));
+        return call.get().toCompletableFuture().handleAsync((response, throwable) -> {
+            if (throwable == null) {
+                return response;
+            }
+            Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+            if (cause instanceof ResilientEmployeeClient.ServerErrorResponseException) {
+                return ((ResilientEmployeeClient.ServerErrorResponseException) cause).getResponse();
+            }
+            if (cause instanceof CallNotPermittedException) {
+                throw new EmployeeServiceUnavailableException("Circuit breaker of employee service client is open", cause);
+            }
+            log.error("Call of employee service failed after {} attempt(s)", retry.getRetryConfig().getMaxAttempts(), cause);
+            throw new EmployeeServiceUnavailableException("Employee service is not reachable", cause);
+        }, callbackExecutor);
+    }
+
+    @Override
+    public void close() {
+        retryScheduler.shutdown();
+        callbackExecutor.shutdown();
+    }
+
+    private CompletableFuture<Response> callEmployeeService(Map<String, Long> oldAndNewDepartmentIds) {
+        return webClient.post()
+                .uri(REPLACE_DEPARTMENT_URI)
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .accept(MediaType.APPLICATION_JSON_UTF8, MediaType.TEXT_PLAIN)
+                .syncBody(oldAndNewDepartmentIds)
+                .exchange()
+                .flatMap(clientResponse -> clientResponse.bodyToMono(byte[].class)
+                        .defaultIfEmpty(new byte[0])
+                        .map(body -> toResponse(clientResponse, body)))
+                .timeout(readTimeout)
+                .toFuture()
+                .thenApply(response -> {
+                    if (response.status() >= 500) {
+                        throw new ResilientEmployeeClient.ServerErrorResponseException(response);
+                    }
+                    return response;
+                });
+    }
+
+    /**
+     * Adapt the response to the type of the EmployeeClient contract, the body is already read.
+     */
+    private static Response toResponse(ClientResponse clientResponse, byte[] body) {
+        Map<String, Collection<String>> headers = clientResponse.headers().asHttpHeaders().entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        return Response.builder()
+                .status(clientResponse.rawStatusCode())
+                .reason(HttpStatus.resolve(clientResponse.rawStatusCode()) == null
+                        ? null : HttpStatus.resolve(clientResponse.rawStatusCode()).getReasonPhrase())
+                .headers(headers)
+                .body(body)
+                .request(Request.create(Request.HttpMethod.POST, REPLACE_DEPARTMENT_URI, Collections.emptyMap(),
+                        null, StandardCharsets.UTF_8))
+                .build();
+    }
+}
@@ -0,0 +1,118 @@
+package ru.xfneo.departmentsmanagement.client;
+
+import feign.FeignException;
+import feign.Response;
+import feign.Util;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.retry.Retry;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * EmployeeClient decorator which retries failed calls with backoff and stops calling employee-management-ws
+ * while the circuit breaker is open.
+ * Responses with code 5xx are retried and recorded as failures too, the last of them is returned to the caller.
+ */
+@Log4j2
+public class ResilientEmployeeClient implements EmployeeClient, AutoCloseable {
+    private final EmployeeClient delegate;
+    private final CircuitBreaker circuitBreaker;
+    private final Retry retry;
+    private final ExecutorService executor;
+
+    /**
+     * @param delegate  client which makes the HTTP calls
+     * @param circuitBreaker  circuit breaker for the calls
+     * @param retry  retry policy, should retry {@link ServerErrorResponseException} and {@link feign.RetryableException}
+     * @param executor  executor of async calls, shut down on {@link #close()}
+     */
+    public ResilientEmployeeClient(EmployeeClient delegate, CircuitBreaker circuitBreaker, Retry retry, ExecutorService executor) {
+        this.delegate = delegate;
+        this.circuitBreaker = circuitBreaker;
+        this.retry = retry;
+        this.executor = executor;
+    }
+
+    /**
+     * @throws EmployeeServiceUnavailableException if employee-management-ws is not reachable or the circuit breaker is open
+     */
+    @Override
+    public Response replaceDepartmentId(Map<String, Long> oldAndNewDepartmentIds) {
+        Supplier<Response> call = Retry.decorateSupplier(retry,
+                CircuitBreaker.decorateSupplier(circuitBreaker, () -> callDelegate(oldAndNewDepartmentIds)));
+        try {
+            return call.get();
+        } catch (ServerErrorResponseException e) {
+            return e.getResponse();
+        } catch (CallNotPermittedException e) {
+            throw new EmployeeServiceUnavailableException("Circuit breaker of employee service client is open", e);
+        } catch (FeignException | UncheckedIOException e) {
+            log.error("Call of employee service failed after {} attempt(s)", retry.getRetryConfig().getMaxAttempts(), e);
+            throw new EmployeeServiceUnavailableException("Employee service is not reachable", e);
+        }
+    }
+
+    /**
+     * Run {@link #replaceDepartmentId(Map)} on the bounded executor of this client.
+     * The future fails with {@link EmployeeServiceUnavailableException} if the executor queue is full.
+     */
+    @Override
+    public CompletableFuture<Response> replaceDepartmentIdAsync(Map<String, Long> oldAndNewDepartmentIds) {
+        try {
+            return CompletableFuture.supplyAsync(() -> replaceDepartmentId(oldAndNewDepartmentIds), executor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<Response> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new EmployeeServiceUnavailableException("Too many calls of employee service in progress", e));
+            return rejected;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private Response callDelegate(Map<String, Long> oldAndNewDepartmentIds) {
+        Response response = delegate.replaceDepartmentId(oldAndNewDepartmentIds);
+        if (response.status() >= 500) {
+            throw new ServerErrorResponseException(bufferBody(response));
+        }
+        return response;
+    }
+
+    /**
+     * Read the body so the connection goes back to the pool even if the response is dropped for a retry.
+     */
+    private static Response bufferBody(Response response) {
+        try (Response closedResponse = response) {
+            byte[] body = closedResponse.body() == null ? null : Util.toByteArray(closedResponse.body().asInputStream());
+            return closedResponse.toBuilder().body(body).build();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Response with code 5xx from employee-management-ws, thrown to let the retry and the circuit breaker see the failure.
+     */
+    public static class ServerErrorResponseException extends RuntimeException {
+        private final transient Response response;
+
+        ServerErrorResponseException(Response response) {
+            super("Employee service responded with code " + response.status(), null, false, false);
+            this.response = response;
+        }
+
+        public Response getResponse() {
+            return response;
+        }
+    }
+}
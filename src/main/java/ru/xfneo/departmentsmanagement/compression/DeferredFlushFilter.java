@@ -0,0 +1,115 @@
+package ru.xfneo.departmentsmanagement.compression;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Message converters flush the response after writing the body, which commits it before the server knows its length,
+ * so the server compresses every response regardless of min-response-size. The filter ignores flushes of responses
+ * of compressible types until min-response-size bytes are written: a small body is committed on close with
+ * Content-Length and sent uncompressed, a large one is flushed (and compressed) as before.
+ * Other types (event streams) are flushed at once.
+ */
+public class DeferredFlushFilter extends OncePerRequestFilter {
+    private final List<MediaType> compressibleMediaTypes;
+    private final long minResponseSize;
+
+    /**
+     * @param compressibleMediaTypes  types compressed by the server
+     * @param minResponseSize  minimum size in bytes of a response compressed by the server
+     */
+    public DeferredFlushFilter(List<MediaType> compressibleMediaTypes, long minResponseSize) {
+        this.compressibleMediaTypes = compressibleMediaTypes;
+        this.minResponseSize = minResponseSize;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        filterChain.doFilter(request, new DeferredFlushResponse(response));
+    }
+
+    private final class DeferredFlushResponse extends HttpServletResponseWrapper {
+        private ServletOutputStream outputStream;
+        private long written;
+
+        DeferredFlushResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new DeferredFlushOutputStream(super.getOutputStream());
+            }
+            return outputStream;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (isFlushAllowed()) {
+                super.flushBuffer();
+            }
+        }
+
+        private boolean isFlushAllowed() {
+            if (isCommitted() || written >= minResponseSize || getContentType() == null) {
+                return true;
+            }
+            MediaType contentType = MediaType.parseMediaType(getContentType());
+            return compressibleMediaTypes.stream().noneMatch(mediaType -> mediaType.includes(contentType));
+        }
+
+        private final class DeferredFlushOutputStream extends ServletOutputStream {
+            private final ServletOutputStream delegate;
+
+            DeferredFlushOutputStream(ServletOutputStream delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                delegate.write(b);
+                written++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                delegate.write(b, off, len);
+                written += len;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (isFlushAllowed()) {
+                    delegate.flush();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                delegate.close();
+            }
+
+            @Override
+            public boolean isReady() {
+                return delegate.isReady();
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                delegate.setWriteListener(writeListener);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ru.xfneo.departmentsmanagement.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.xfneo.departmentsmanagement.admission.AdaptiveConcurrencyLimiter;
+import ru.xfneo.departmentsmanagement.admission.AdmissionControlFilter;
+
+/**
+ * Adaptive concurrency limits of the departments API per group of endpoints: reads, writes and deletes.
+ */
+@Configuration
+@ConditionalOnProperty(name = "departments.admission.enabled", havingValue = "true", matchIfMissing = true)
+public class AdmissionControlConfig {
+    @Value("${departments.admission.read.initial-limit:50}")
+    private int readInitialLimit;
+    @Value("${departments.admission.read.min-limit:10}")
+    private int readMinLimit;
+    @Value("${departments.admission.read.max-limit:150}")
+    private int readMaxLimit;
+    @Value("${departments.admission.write.initial-limit:20}")
+    private int writeInitialLimit;
+    @Value("${departments.admission.write.min-limit:5}")
+    private int writeMinLimit;
+    @Value("${departments.admission.write.max-limit:50}")
+    private int writeMaxLimit;
+    @Value("${departments.admission.delete.initial-limit:10}")
+    private int deleteInitialLimit;
+    @Value("${departments.admission.delete.min-limit:2}")
+    private int deleteMinLimit;
+    @Value("${departments.admission.delete.max-limit:20}")
+    private int deleteMaxLimit;
+    @Value("${departments.admission.tolerance:2.0}")
+    private double tolerance;
+    @Value("${departments.admission.queue-size:50}")
+    private int queueSize;
+    @Value("${departments.admission.max-wait:50}")
+    private long maxWaitMillis;
+    @Value("${departments.admission.retry-after:1}")
+    private long retryAfterSeconds;
+
+    @Bean
+    public AdmissionControlFilter admissionControlFilter(MeterRegistry meterRegistry) {
+        return new AdmissionControlFilter(
+                new AdaptiveConcurrencyLimiter("read", readInitialLimit, readMinLimit, readMaxLimit, tolerance, queueSize, maxWaitMillis),
+                new AdaptiveConcurrencyLimiter("write", writeInitialLimit, writeMinLimit, writeMaxLimit, tolerance, queueSize, maxWaitMillis),
+                new AdaptiveConcurrencyLimiter("delete", deleteInitialLimit, deleteMinLimit, deleteMaxLimit, tolerance, queueSize, maxWaitMillis),
+                retryAfterSeconds, meterRegistry);
+    }
+}
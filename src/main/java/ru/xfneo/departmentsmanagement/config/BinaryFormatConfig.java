@@ -0,0 +1,33 @@
+package ru.xfneo.departmentsmanagement.config;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+/**
+ * Smile and CBOR representations of departments for clients which send Accept "application/x-jackson-smile"
+ * or "application/cbor": smaller and faster to parse than JSON. The converters are built from the same
+ * Jackson settings as the JSON one and replace the default converters of Spring MVC.
+ * Binary content types get no charset parameter, which Jackson converters add by default.
+ */
+@Configuration
+public class BinaryFormatConfig {
+
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        MappingJackson2SmileHttpMessageConverter converter = new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+        converter.setDefaultCharset(null);
+        return converter;
+    }
+
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        MappingJackson2CborHttpMessageConverter converter = new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+        converter.setDefaultCharset(null);
+        return converter;
+    }
+}
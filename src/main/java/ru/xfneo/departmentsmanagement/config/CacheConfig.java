@@ -0,0 +1,30 @@
+package ru.xfneo.departmentsmanagement.config;
+
+import org.springframework.boot.autoconfigure.cache.CacheManagerCustomizer;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableCaching
+public class CacheConfig {
+    public static final String DEPARTMENTS_CACHE = "departments";
+
+    /**
+     * Cache of departments by id. Size, TTL and statistics are configured by "spring.cache.caffeine.spec",
+     * caching is switched off with "spring.cache.type=none". Nonexistent departments are not cached:
+     * a department created by another instance or by a snapshot import would be "not found" until the entry expires.
+     */
+    @Bean
+    public CacheManagerCustomizer<CaffeineCacheManager> departmentCacheManagerCustomizer() {
+        return cacheManager -> cacheManager.setAllowNullValues(false);
+    }
+
+    @Bean
+    public Cache departmentCache(CacheManager cacheManager) {
+        return cacheManager.getCache(DEPARTMENTS_CACHE);
+    }
+}
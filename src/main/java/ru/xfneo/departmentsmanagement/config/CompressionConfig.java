@@ -0,0 +1,28 @@
+package ru.xfneo.departmentsmanagement.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.boot.web.server.Compression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import ru.xfneo.departmentsmanagement.compression.DeferredFlushFilter;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Response compression by the server ("server.compression.*") applied only to responses larger than min-response-size.
+ */
+@Configuration
+@ConditionalOnProperty(name = "server.compression.enabled", havingValue = "true")
+public class CompressionConfig {
+
+    @Bean
+    public DeferredFlushFilter deferredFlushFilter(ServerProperties serverProperties) {
+        Compression compression = serverProperties.getCompression();
+        return new DeferredFlushFilter(
+                Arrays.stream(compression.getMimeTypes()).map(MediaType::parseMediaType).collect(Collectors.toList()),
+                compression.getMinResponseSize().toBytes());
+    }
+}
@@ -2,28 +2,112 @@ package ru.xfneo.departmentsmanagement.config;
 
 import feign.Feign;
 import feign.Logger;
+import feign.Request;
+import feign.RetryableException;
+import feign.Retryer;
 import feign.jackson.JacksonDecoder;
 import feign.jackson.JacksonEncoder;
+import feign.okhttp.OkHttpClient;
+import feign.slf4j.Slf4jLogger;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.core.IntervalFunction;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import okhttp3.ConnectionPool;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cloud.openfeign.support.SpringMvcContract;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import ru.xfneo.departmentsmanagement.client.EmployeeClient;
+import ru.xfneo.departmentsmanagement.client.MeteredClient;
+import ru.xfneo.departmentsmanagement.client.ResilientEmployeeClient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Configuration
 public class FeignConfig {
+    private static final String EMPLOYEE_CLIENT_NAME = "employeeClient";
 
     @Value("${employees.service.url}")
     private String employeeServiceUrl;
+    @Value("${employees.service.log-level:NONE}")
+    private Logger.Level logLevel;
+    @Value("${employees.service.connect-timeout:2000}")
+    private int connectTimeoutMillis;
+    @Value("${employees.service.read-timeout:5000}")
+    private int readTimeoutMillis;
+    @Value("${employees.service.pool.max-idle-connections:20}")
+    private int maxIdleConnections;
+    @Value("${employees.service.pool.keep-alive:300000}")
+    private long keepAliveMillis;
+    @Value("${employees.service.retry.max-attempts:3}")
+    private int retryMaxAttempts;
+    @Value("${employees.service.retry.backoff:200}")
+    private long retryBackoffMillis;
+    @Value("${employees.service.circuit-breaker.failure-rate-threshold:50}")
+    private float failureRateThreshold;
+    @Value("${employees.service.circuit-breaker.sliding-window-size:20}")
+    private int slidingWindowSize;
+    @Value("${employees.service.circuit-breaker.wait-in-open-state:30000}")
+    private long waitInOpenStateMillis;
+    @Value("${employees.service.async.pool-size:20}")
+    private int asyncPoolSize;
+    @Value("${employees.service.async.queue-capacity:200}")
+    private int asyncQueueCapacity;
 
     @Bean
-    public EmployeeClient employeeClientService() {
-        return Feign.builder()
+    @ConditionalOnProperty(name = "employees.service.client", havingValue = "feign", matchIfMissing = true)
+    public EmployeeClient employeeClientService(MeterRegistry meterRegistry, CircuitBreaker employeeClientCircuitBreaker,
+                                                Retry employeeClientRetry) {
+        EmployeeClient feignClient = Feign.builder()
+                .client(new MeteredClient(new OkHttpClient(new okhttp3.OkHttpClient.Builder()
+                        .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMillis, TimeUnit.MILLISECONDS))
+                        .build()), meterRegistry))
+                .options(new Request.Options(connectTimeoutMillis, readTimeoutMillis))
+                .retryer(Retryer.NEVER_RETRY)
                 .contract(new SpringMvcContract())
                 .encoder(new JacksonEncoder())
                 .decoder(new JacksonDecoder())
-                .logger(new Logger.ErrorLogger())
-                .logLevel(Logger.Level.FULL)
+                .logger(new Slf4jLogger(EmployeeClient.class))
+                .logLevel(logLevel)
                 .target(EmployeeClient.class, employeeServiceUrl);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(asyncPoolSize, asyncPoolSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(asyncQueueCapacity), new CustomizableThreadFactory("employee-client-"));
+        executor.allowCoreThreadTimeOut(true);
+        return new ResilientEmployeeClient(feignClient, employeeClientCircuitBreaker, employeeClientRetry, executor);
+    }
+
+    @Bean
+    public CircuitBreaker employeeClientCircuitBreaker() {
+        return CircuitBreaker.of(EMPLOYEE_CLIENT_NAME, CircuitBreakerConfig.custom()
+                .failureRateThreshold(failureRateThreshold)
+                .slidingWindowSize(slidingWindowSize)
+                .minimumNumberOfCalls(slidingWindowSize)
+                .waitDurationInOpenState(Duration.ofMillis(waitInOpenStateMillis))
+                .build());
+    }
+
+    /**
+     * Retries connection failures and timeouts of both Feign and reactive clients, and responses with code 5xx.
+     */
+    @Bean
+    public Retry employeeClientRetry() {
+        return Retry.of(EMPLOYEE_CLIENT_NAME, RetryConfig.custom()
+                .maxAttempts(retryMaxAttempts)
+                .intervalFunction(IntervalFunction.ofExponentialBackoff(retryBackoffMillis, 2))
+                .retryExceptions(RetryableException.class, ResilientEmployeeClient.ServerErrorResponseException.class,
+                        IOException.class, TimeoutException.class)
+                .ignoreExceptions(CallNotPermittedException.class)
+                .build());
     }
 }
@@ -0,0 +1,52 @@
+package ru.xfneo.departmentsmanagement.config;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.retry.Retry;
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import ru.xfneo.departmentsmanagement.client.EmployeeClient;
+import ru.xfneo.departmentsmanagement.client.ReactiveEmployeeClient;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+/**
+ * Non-blocking employee client, used instead of the Feign client if "employees.service.client" is reactive
+ * (set by the "reactive" profile).
+ */
+@Configuration
+@ConditionalOnProperty(name = "employees.service.client", havingValue = "reactive")
+public class ReactiveEmployeeClientConfig {
+    @Value("${employees.service.url}")
+    private String employeeServiceUrl;
+    @Value("${employees.service.connect-timeout:2000}")
+    private int connectTimeoutMillis;
+    @Value("${employees.service.read-timeout:5000}")
+    private long readTimeoutMillis;
+    @Value("${employees.service.async.pool-size:20}")
+    private int callbackPoolSize;
+
+    /**
+     * @param webClientBuilder  builder of Spring Boot, its clients are instrumented as "http.client.requests" metric
+     */
+    @Bean
+    public EmployeeClient employeeClientService(WebClient.Builder webClientBuilder, CircuitBreaker employeeClientCircuitBreaker,
+                                                Retry employeeClientRetry) {
+        HttpClient httpClient = HttpClient.create()
+                .tcpConfiguration(tcpClient -> tcpClient.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis));
+        WebClient webClient = webClientBuilder
+                .baseUrl(employeeServiceUrl)
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+        return new ReactiveEmployeeClient(webClient, Duration.ofMillis(readTimeoutMillis), employeeClientCircuitBreaker,
+                employeeClientRetry, Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("employee-client-retry-")),
+                Executors.newFixedThreadPool(callbackPoolSize, new CustomizableThreadFactory("employee-client-")));
+    }
+}
@@ -0,0 +1,126 @@
+package ru.xfneo.departmentsmanagement.config;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import ru.xfneo.departmentsmanagement.datasource.ReadFromReplicaAspect;
+import ru.xfneo.departmentsmanagement.datasource.ReadYourWritesFilter;
+import ru.xfneo.departmentsmanagement.datasource.ReplicaRoutingContext;
+import ru.xfneo.departmentsmanagement.datasource.ReplicaRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read replicas, enabled by a comma-separated list of JDBC URLs in "departments.datasource.replicas".
+ * Replicas use the credentials and the pool settings of the primary ("spring.datasource.*").
+ */
+@Configuration
+@ConditionalOnExpression("!'${departments.datasource.replicas:}'.trim().isEmpty()")
+public class ReadReplicaConfig {
+    @Value("${departments.datasource.replicas}")
+    private String[] replicaUrls;
+    @Value("${departments.datasource.read-your-writes-window:5000}")
+    private long readYourWritesWindowMillis;
+    @Value("${departments.datasource.replica-health-check-interval:5000}")
+    private long healthCheckIntervalMillis;
+    @Value("${departments.datasource.replica-connection-timeout:1000}")
+    private long replicaConnectionTimeoutMillis;
+    @Value("${departments.datasource.replica-validation-timeout:2}")
+    private int replicaValidationTimeoutSeconds;
+
+    /**
+     * Pool settings of the primary, replicas copy them.
+     */
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariConfig primaryPoolConfig(DataSourceProperties properties) {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(properties.determineUrl());
+        config.setDriverClassName(properties.determineDriverClassName());
+        config.setUsername(properties.determineUsername());
+        config.setPassword(properties.determinePassword());
+        return config;
+    }
+
+    /**
+     * Pools of the primary and the replicas aren't beans: initialization of every DataSource bean looks up
+     * the DataSource of the application, which depends on them.
+     */
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(HikariConfig primaryPoolConfig,
+                                                             ObjectProvider<MeterRegistry> meterRegistry) {
+        String poolName = primaryPoolConfig.getPoolName() == null ? "departments" : primaryPoolConfig.getPoolName();
+        HikariDataSource primary = new HikariDataSource();
+        primaryPoolConfig.copyStateTo(primary);
+        primary.setPoolName(poolName);
+        meterRegistry.ifAvailable(registry -> primary.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry)));
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (int i = 0; i < replicaUrls.length; i++) {
+            HikariDataSource replica = new HikariDataSource();
+            primaryPoolConfig.copyStateTo(replica);
+            replica.setJdbcUrl(replicaUrls[i].trim());
+            replica.setPoolName(poolName + "-replica-" + (i + 1));
+            replica.setReadOnly(true);
+            // an unreachable replica must not hold reads for the connection timeout of the primary
+            replica.setConnectionTimeout(replicaConnectionTimeoutMillis);
+            replica.setInitializationFailTimeout(-1);
+            meterRegistry.ifAvailable(registry -> replica.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry)));
+            replicas.put(replica.getPoolName(), replica);
+        }
+        ReplicaRoutingDataSource replicaRoutingDataSource = new ReplicaRoutingDataSource(
+                primary, replicas, replicaValidationTimeoutSeconds);
+        replicaRoutingDataSource.startHealthChecks(healthCheckIntervalMillis);
+        return replicaRoutingDataSource;
+    }
+
+    /**
+     * DataSource of the application (JPA, Flyway, JdbcTemplate).
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    @Bean
+    public ReadFromReplicaAspect readFromReplicaAspect() {
+        return new ReadFromReplicaAspect();
+    }
+
+    @Bean
+    public ReadYourWritesFilter readYourWritesFilter() {
+        return new ReadYourWritesFilter(readYourWritesWindowMillis);
+    }
+
+    /**
+     * Carry the read-your-writes window of the request to tasks of the application task executor
+     * (e.g. streaming of NDJSON responses).
+     */
+    @Bean
+    public TaskDecorator replicaRoutingTaskDecorator() {
+        return task -> {
+            boolean primaryRequired = ReplicaRoutingContext.isPrimaryRequired();
+            return () -> {
+                ReplicaRoutingContext.setPrimaryRequired(primaryRequired);
+                try {
+                    task.run();
+                } finally {
+                    ReplicaRoutingContext.setPrimaryRequired(false);
+                }
+            };
+        };
+    }
+}
@@ -0,0 +1,14 @@
+package ru.xfneo.departmentsmanagement.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Background jobs (e.g. department deletion dispatcher) run only if "departments.scheduling.enabled" is not false.
+ */
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty(name = "departments.scheduling.enabled", matchIfMissing = true)
+public class SchedulingConfig {
+}
@@ -0,0 +1,59 @@
+package ru.xfneo.departmentsmanagement.config;
+
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.type.MethodMetadata;
+
+/**
+ * Startup tuning: lazy initialization of beans ("fast-startup" profile) and the exit of the training run
+ * which records the classes loaded at startup for the class data sharing archive ("cds" build profile).
+ */
+@Configuration
+public class StartupConfig {
+
+    /**
+     * Make all beans lazy if "departments.lazy-initialization" is true, except the beans annotated with {@link Lazy}
+     * (e.g. {@code @Lazy(false)} on beans with scheduled jobs, which must be created to be scheduled).
+     * Spring Boot 2.1 has no "spring.main.lazy-initialization" yet.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "departments.lazy-initialization", havingValue = "true")
+    public static BeanFactoryPostProcessor lazyInitializationBeanFactoryPostProcessor() {
+        return beanFactory -> {
+            for (String beanName : beanFactory.getBeanDefinitionNames()) {
+                BeanDefinition beanDefinition = beanFactory.getBeanDefinition(beanName);
+                if (!isLazyAnnotated(beanDefinition)) {
+                    beanDefinition.setLazyInit(true);
+                }
+            }
+        };
+    }
+
+    /**
+     * Exit as soon as the application is started, with exit code 0 if it started.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "departments.startup.exit-when-ready", havingValue = "true")
+    public ApplicationListener<ApplicationReadyEvent> exitWhenReadyListener() {
+        return event -> System.exit(SpringApplication.exit(event.getApplicationContext()));
+    }
+
+    static boolean isLazyAnnotated(BeanDefinition beanDefinition) {
+        if (!(beanDefinition instanceof AnnotatedBeanDefinition)) {
+            return false;
+        }
+        AnnotatedBeanDefinition annotatedBeanDefinition = (AnnotatedBeanDefinition) beanDefinition;
+        MethodMetadata factoryMethodMetadata = annotatedBeanDefinition.getFactoryMethodMetadata();
+        return factoryMethodMetadata != null
+                ? factoryMethodMetadata.isAnnotated(Lazy.class.getName())
+                : annotatedBeanDefinition.getMetadata().isAnnotated(Lazy.class.getName());
+    }
+}
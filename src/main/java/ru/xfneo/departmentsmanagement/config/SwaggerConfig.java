@@ -1,5 +1,6 @@
 package ru.xfneo.departmentsmanagement.config;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import springfox.documentation.builders.ApiInfoBuilder;
@@ -10,8 +11,12 @@ import springfox.documentation.spi.DocumentationType;
 import springfox.documentation.spring.web.plugins.Docket;
 import springfox.documentation.swagger2.annotations.EnableSwagger2;
 
+/**
+ * Swagger documentation of the REST API, unless "departments.swagger.enabled" is false (e.g. in the "fast-startup" profile).
+ */
 @Configuration
 @EnableSwagger2
+@ConditionalOnProperty(name = "departments.swagger.enabled", matchIfMissing = true)
 public class SwaggerConfig {
 
     @Bean
@@ -1,80 +1,484 @@
 package ru.xfneo.departmentsmanagement.controller;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.domain.DepartmentDeletion;
+import ru.xfneo.departmentsmanagement.dto.BatchItemResult;
+import ru.xfneo.departmentsmanagement.dto.DepartmentChanges;
+import ru.xfneo.departmentsmanagement.dto.DepartmentPage;
+import ru.xfneo.departmentsmanagement.service.DepartmentListCache;
 import ru.xfneo.departmentsmanagement.service.DepartmentService;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/api/departments")
 @Api(value = "/api", tags = "Departments API")
 public class DepartmentsController {
+    public static final String MERGE_PATCH_JSON_VALUE = "application/merge-patch+json";
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    public static final String APPLICATION_GZIP_VALUE = "application/gzip";
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+    public static final String APPLICATION_CBOR_VALUE = "application/cbor";
+    private static final MediaType APPLICATION_SMILE = MediaType.parseMediaType(APPLICATION_SMILE_VALUE);
+    private static final MediaType APPLICATION_CBOR = MediaType.parseMediaType(APPLICATION_CBOR_VALUE);
+    private static final SmileFactory SMILE_FACTORY = new SmileFactory();
+    private static final CBORFactory CBOR_FACTORY = new CBORFactory();
     private final DepartmentService departmentService;
+    private final ObjectMapper objectMapper;
+    /**
+     * BLOCKING: delete handlers hold the request thread while employee-management-ws is called,
+     * ASYNC: the request thread is released and the response is completed by the executor of the employee client.
+     */
+    @Value("${departments.execution-mode:blocking}")
+    private ExecutionMode executionMode = ExecutionMode.BLOCKING;
+
+    public enum ExecutionMode {
+        BLOCKING, ASYNC
+    }
 
     @Autowired
-    public DepartmentsController(DepartmentService departmentService) {
+    public DepartmentsController(DepartmentService departmentService, ObjectMapper objectMapper) {
         this.departmentService = departmentService;
+        this.objectMapper = objectMapper;
     }
 
-    @ApiOperation(value = "Retrieve a list of all departments", response = Department.class, responseContainer="List")
-    @ApiResponse(code = 200, message = "Successfully retrieved list")
-    @GetMapping(produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
-    public List<Department> getListOfDepartments() {
-        return departmentService.findAll();
+    @ApiOperation(value = "Retrieve a list of all departments, as JSON, Smile or CBOR array (gzip-compressed if accepted) " +
+            "or as newline delimited JSON (NDJSON) stream", response = Department.class, responseContainer="List")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully retrieved list"),
+            @ApiResponse(code = 304, message = "List not modified since the version in \"If-None-Match\" header")
+    })
+    @GetMapping(produces = {MediaType.APPLICATION_JSON_UTF8_VALUE, APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_STREAM_JSON_VALUE,
+            APPLICATION_SMILE_VALUE, APPLICATION_CBOR_VALUE}, params = {"!after", "!limit"})
+    public ResponseEntity<StreamingResponseBody> getListOfDepartments(
+            WebRequest webRequest,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding
+    ) {
+        MediaType binaryMediaType = binaryMediaTypeAccepted(accept);
+        boolean ndjson = binaryMediaType == null && isNdjsonAccepted(accept);
+        boolean gzip = !ndjson && isGzipAccepted(acceptEncoding);
+        String eTag = departmentService.findAllETag();
+        // every representation has its own ETag: sets ETag header, or status 304 if the list is not modified
+        String representation = ndjson ? "ndjson" : binaryMediaType == APPLICATION_SMILE ? "smile" : binaryMediaType == APPLICATION_CBOR ? "cbor" : null;
+        if (gzip) {
+            representation = representation == null ? "gzip" : representation + "-gzip";
+        }
+        if (webRequest.checkNotModified(representation == null ? eTag : eTagWithSuffix(eTag, representation))) {
+            return null;
+        }
+        if (ndjson) {
+            // rows are fetched from the database cursor only as fast as the client reads the response
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .body(this::writeAllDepartmentsAsNdjson);
+        }
+        JsonFactory factory = binaryMediaType == null ? objectMapper.getFactory() : binaryMediaType == APPLICATION_SMILE ? SMILE_FACTORY : CBOR_FACTORY;
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(binaryMediaType == null ? MediaType.APPLICATION_JSON_UTF8 : binaryMediaType)
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        DepartmentListCache.SerializedList serializedList = departmentService.findAllSerialized(eTag);
+        if (serializedList != null) {
+            byte[] body = binaryMediaType != null ? serializedList.getEncoded(factory, gzip)
+                    : gzip ? serializedList.getGzip() : serializedList.getJson();
+            return response.contentLength(body.length).body(outputStream -> outputStream.write(body));
+        }
+        // the list is too large to be cached or has just been changed
+        if (gzip) {
+            return response.body(outputStream -> {
+                try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, 8192)) {
+                    writeAllDepartments(gzipOutputStream, factory);
+                }
+            });
+        }
+        return response.body(outputStream -> writeAllDepartments(outputStream, factory));
+    }
+
+    @ApiOperation(value = "Export all departments as gzip-compressed NDJSON snapshot (departments.ndjson.gz), for import into another environment")
+    @ApiResponse(code = 200, message = "Successfully exported departments")
+    @GetMapping(value = "export", produces = APPLICATION_GZIP_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportDepartments() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_GZIP_VALUE))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"departments.ndjson.gz\"")
+                .body(outputStream -> {
+                    try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, 8192)) {
+                        writeAllDepartmentsAsNdjson(gzipOutputStream);
+                    }
+                });
+    }
+
+    @ApiOperation(value = "Import departments from NDJSON snapshot, gzip-compressed (as exported) or not. " +
+            "Departments with the same id are replaced, the others are inserted", response = String.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully imported departments, returns number of imported departments"),
+            @ApiResponse(code = 400, message = "Snapshot or department data is not valid, nothing is imported")
+    })
+    @PostMapping(value = "import", produces = MediaType.APPLICATION_JSON_UTF8_VALUE,
+            consumes = {APPLICATION_GZIP_VALUE, APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<?> importDepartments(
+            InputStream snapshot,
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType
+    ) {
+        return departmentService.importSnapshot(snapshot, contentType.isCompatibleWith(MediaType.parseMediaType(APPLICATION_GZIP_VALUE)));
+    }
+
+    @ApiOperation(value = "Retrieve a page of departments ordered by id", response = DepartmentPage.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully retrieved page"),
+            @ApiResponse(code = 400, message = "Invalid \"limit\" parameter")
+    })
+    @GetMapping(produces = {MediaType.APPLICATION_JSON_UTF8_VALUE, APPLICATION_SMILE_VALUE, APPLICATION_CBOR_VALUE})
+    public ResponseEntity<?> getPageOfDepartments(
+            @RequestParam(required = false) Long after,
+            @RequestParam(required = false) Integer limit
+    ) {
+        return departmentService.findPage(after, limit);
+    }
+
+    @ApiOperation(value = "Search departments by name (case-insensitive), page ordered by id", response = DepartmentPage.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully retrieved page of found departments"),
+            @ApiResponse(code = 400, message = "Invalid \"q\", \"match\" or \"limit\" parameter")
+    })
+    @GetMapping(value = "search", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public ResponseEntity<?> searchDepartments(
+            @RequestParam("q") String query,
+            @RequestParam(defaultValue = "substring") String match,
+            @RequestParam(required = false) Long after,
+            @RequestParam(required = false) Integer limit
+    ) {
+        return departmentService.search(query, match, after, limit);
+    }
+
+    @ApiOperation(value = "Retrieve changes of departments after the \"since\" seq in commit order, " +
+            "waiting up to \"wait\" seconds for the next change (long poll). Without \"since\" only the seq of the last change is returned",
+            response = DepartmentChanges.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully retrieved changes, empty if there were no changes during the wait"),
+            @ApiResponse(code = 400, message = "Invalid \"since\", \"limit\" or \"wait\" parameter"),
+            @ApiResponse(code = 410, message = "Changes after \"since\" are no longer retained, all departments have to be reloaded")
+    })
+    @GetMapping(value = "changes", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public CompletableFuture<ResponseEntity<?>> getChanges(
+            @RequestParam(required = false) Long since,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) Integer wait
+    ) {
+        return departmentService.findChanges(since, limit, wait);
+    }
+
+    @ApiOperation(value = "Stream changes of departments after the \"since\" seq (or \"Last-Event-ID\" header) as server-sent events")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Stream of changes: event id is seq, event name is type of the change"),
+            @ApiResponse(code = 400, message = "Invalid \"since\" parameter"),
+            @ApiResponse(code = 410, message = "Changes after \"since\" are no longer retained, all departments have to be reloaded")
+    })
+    @GetMapping(value = "changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamChanges(
+            @RequestParam(required = false) Long since,
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId
+    ) {
+        return departmentService.streamChanges(since != null ? since : lastEventId);
     }
 
     @ApiOperation(value = "Retrieve department", response = Department.class)
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successfully retrieved department"),
+            @ApiResponse(code = 304, message = "Department not modified since the version in \"If-None-Match\" header"),
             @ApiResponse(code = 404, message = "Department not found")
     })
-    @GetMapping(value = "{id}", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    @GetMapping(value = "{id}", produces = {MediaType.APPLICATION_JSON_UTF8_VALUE, APPLICATION_SMILE_VALUE, APPLICATION_CBOR_VALUE})
     public ResponseEntity<?> getDepartment(@PathVariable("id") Long id) {
         return departmentService.find(id);
     }
 
-    @ApiOperation(value = "Create department", code = 201, response = Department.class)
-    @ApiResponse(code = 201, message = "Successfully created department")
+    @ApiOperation(value = "Retrieve subtree of department: the department and its subdepartments down to \"maxDepth\" levels, ordered by depth and id",
+            response = Department.class, responseContainer = "List")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully retrieved subtree"),
+            @ApiResponse(code = 400, message = "Invalid \"maxDepth\" parameter"),
+            @ApiResponse(code = 404, message = "Department not found")
+    })
+    @GetMapping(value = "{id}/subtree", produces = {MediaType.APPLICATION_JSON_UTF8_VALUE, APPLICATION_SMILE_VALUE, APPLICATION_CBOR_VALUE})
+    public ResponseEntity<?> getSubtree(
+            @PathVariable("id") Long id,
+            @RequestParam(required = false) Integer maxDepth
+    ) {
+        return departmentService.findSubtree(id, maxDepth);
+    }
+
+    @ApiOperation(value = "Retrieve ancestors of department from the root down to its parent", response = Department.class, responseContainer = "List")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully retrieved ancestors, empty for a root department"),
+            @ApiResponse(code = 404, message = "Department not found")
+    })
+    @GetMapping(value = "{id}/ancestors", produces = {MediaType.APPLICATION_JSON_UTF8_VALUE, APPLICATION_SMILE_VALUE, APPLICATION_CBOR_VALUE})
+    public ResponseEntity<?> getAncestors(@PathVariable("id") Long id) {
+        return departmentService.findAncestors(id);
+    }
+
+    @ApiOperation(value = "Create department, under the department \"parentId\" if it is set", code = 201, response = Department.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 201, message = "Successfully created department"),
+            @ApiResponse(code = 400, message = "Parent department not found")
+    })
     @PostMapping(produces = MediaType.APPLICATION_JSON_UTF8_VALUE, consumes = MediaType.APPLICATION_JSON_UTF8_VALUE)
     @ResponseStatus(code = HttpStatus.CREATED)
     public ResponseEntity<?> createDepartment(@RequestBody Department department) {
         return departmentService.create(department);
     }
 
-    @ApiOperation(value = "Update department", response = Department.class)
+    @ApiOperation(value = "Update department if it has the version from \"If-Match\" header or, without the header, from the body. " +
+            "Name and parent are replaced, the department is moved with its subdepartments", response = Department.class)
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successfully updated department"),
-            @ApiResponse(code = 400, message = "Department data is not valid"),
-            @ApiResponse(code = 404, message = "Department for update not found")
+            @ApiResponse(code = 400, message = "Department data or \"If-Match\" header is not valid, or parent department not found"),
+            @ApiResponse(code = 404, message = "Department for update not found"),
+            @ApiResponse(code = 409, message = "Department has been changed since the expected version, or would be moved into its own subtree")
     })
     @PutMapping(value = "{id}", produces = MediaType.APPLICATION_JSON_UTF8_VALUE, consumes = MediaType.APPLICATION_JSON_UTF8_VALUE)
     public ResponseEntity<?> updateDepartment(
             @PathVariable("id") Long originalDepartmentId,
-            @RequestBody Department editedDepartment
+            @RequestBody Department editedDepartment,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch
     ) {
-        return departmentService.update(originalDepartmentId, editedDepartment);
+        return departmentService.update(originalDepartmentId, editedDepartment, ifMatch);
+    }
+
+    @ApiOperation(value = "Update only the given fields of department if it has the version from \"If-Match\" header or, without the header, from the body", code = 204)
+    @ApiResponses(value = {
+            @ApiResponse(code = 204, message = "Successfully updated department, new ETag is in ETag header"),
+            @ApiResponse(code = 400, message = "Department data or \"If-Match\" header is not valid, version is missing, or parent department not found"),
+            @ApiResponse(code = 404, message = "Department for update not found"),
+            @ApiResponse(code = 409, message = "Department has been changed since the expected version, or would be moved into its own subtree")
+    })
+    @PatchMapping(value = "{id}", produces = MediaType.APPLICATION_JSON_UTF8_VALUE,
+            consumes = {MediaType.APPLICATION_JSON_UTF8_VALUE, MERGE_PATCH_JSON_VALUE})
+    public ResponseEntity<?> patchDepartment(
+            @PathVariable("id") Long originalDepartmentId,
+            @RequestBody Map<String, Object> changes,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch
+    ) {
+        return departmentService.patch(originalDepartmentId, changes, ifMatch);
     }
 
     @ApiOperation(value = "Delete department and transfer all employees from this department to another department", response = String.class)
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successfully deleted department, returns information about how many employees have been transferred to new department"),
+            @ApiResponse(code = 202, message = "Deletion accepted (async=true), returns deletion status, status URL is in Location header"),
             @ApiResponse(code = 400, message = "Invalid \"departmentIdForReplacement\" parameter"),
-            @ApiResponse(code = 404, message = "Department not found")
+            @ApiResponse(code = 404, message = "Department not found"),
+            @ApiResponse(code = 409, message = "Department has subdepartments, or its deletion is already in progress (async=true)"),
+            @ApiResponse(code = 503, message = "Employee service is unavailable")
     })
     @DeleteMapping(value = "{id}", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
-    public ResponseEntity<?> deleteDepartment(
+    public Object deleteDepartment(
             @RequestParam String departmentForReplacement,
-            @PathVariable("id") Long departmentIdForDelete
+            @PathVariable("id") Long departmentIdForDelete,
+            @RequestParam(defaultValue = "false") boolean async
     ) {
+        if (async) {
+            return departmentService.requestDelete(departmentIdForDelete, departmentForReplacement);
+        }
+        // the response is handled by its runtime type: only a future starts servlet async processing
+        if (executionMode == ExecutionMode.ASYNC) {
+            return departmentService.deleteAsync(departmentIdForDelete, departmentForReplacement);
+        }
         return departmentService.delete(departmentIdForDelete, departmentForReplacement);
     }
+
+    @ApiOperation(value = "Retrieve status of department deletion", response = DepartmentDeletion.class)
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully retrieved deletion status"),
+            @ApiResponse(code = 404, message = "Department deletion not found")
+    })
+    @GetMapping(value = "deletions/{id}", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public ResponseEntity<?> getDepartmentDeletion(@PathVariable("id") Long departmentDeletionId) {
+        return departmentService.findDeletion(departmentDeletionId);
+    }
+
+    @ApiOperation(value = "Create departments", response = BatchItemResult.class, responseContainer = "List")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Result of creation of each department"),
+            @ApiResponse(code = 400, message = "Batch is empty or too big")
+    })
+    @PostMapping(value = "batch", produces = MediaType.APPLICATION_JSON_UTF8_VALUE, consumes = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public ResponseEntity<?> createDepartments(@RequestBody List<Department> departments) {
+        return departmentService.createAll(departments);
+    }
+
+    @ApiOperation(value = "Update departments", response = BatchItemResult.class, responseContainer = "List")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Result of update of each department"),
+            @ApiResponse(code = 400, message = "Batch is empty or too big")
+    })
+    @PutMapping(value = "batch", produces = MediaType.APPLICATION_JSON_UTF8_VALUE, consumes = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public ResponseEntity<?> updateDepartments(@RequestBody List<Department> editedDepartments) {
+        return departmentService.updateAll(editedDepartments);
+    }
+
+    @ApiOperation(value = "Delete departments and transfer all employees from these departments to another department", response = BatchItemResult.class, responseContainer = "List")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Result of deletion of each department"),
+            @ApiResponse(code = 400, message = "Batch is empty or too big")
+    })
+    @DeleteMapping(value = "batch", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public Object deleteDepartments(
+            @RequestParam String departmentForReplacement,
+            @RequestParam("ids") List<Long> departmentIdsForDelete
+    ) {
+        if (executionMode == ExecutionMode.ASYNC) {
+            return departmentService.deleteAllAsync(departmentIdsForDelete, departmentForReplacement);
+        }
+        return departmentService.deleteAll(departmentIdsForDelete, departmentForReplacement);
+    }
+
+    /**
+     * @param factory  factory of JSON or of a binary format, departments are serialized by the application ObjectMapper
+     */
+    private void writeAllDepartments(OutputStream outputStream, JsonFactory factory) throws IOException {
+        try (JsonGenerator generator = factory.createGenerator(outputStream)) {
+            generator.setCodec(objectMapper);
+            generator.writeStartArray();
+            departmentService.forEach(department -> {
+                try {
+                    generator.writeObject(department);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+        }
+    }
+
+    private void writeAllDepartmentsAsNdjson(OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            generator.setRootValueSeparator(null);
+            departmentService.forEach(department -> {
+                try {
+                    generator.writeObject(department);
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return true if the Accept-Encoding header accepts gzip (explicitly or by "*") with non-zero quality
+     */
+    static boolean isGzipAccepted(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        boolean gzip = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            if (!name.equals("gzip") && !name.equals("x-gzip") && !name.equals("*")) {
+                continue;
+            }
+            boolean accepted = true;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            if (name.equals("*")) {
+                gzip = gzip || accepted;
+            } else {
+                // explicit gzip overrides "*"
+                return accepted;
+            }
+        }
+        return gzip;
+    }
+
+    private static String eTagWithSuffix(String eTag, String suffix) {
+        return eTag.substring(0, eTag.length() - 1) + "-" + suffix + "\"";
+    }
+
+    /**
+     * @return Smile or CBOR media type if it is preferred to JSON and NDJSON by the Accept header, otherwise null
+     */
+    static MediaType binaryMediaTypeAccepted(String accept) {
+        if (accept == null) {
+            return null;
+        }
+        List<MediaType> acceptedMediaTypes = MediaType.parseMediaTypes(accept);
+        MediaType.sortBySpecificityAndQuality(acceptedMediaTypes);
+        for (MediaType acceptedMediaType : acceptedMediaTypes) {
+            if (acceptedMediaType.includes(MediaType.APPLICATION_JSON)
+                    || acceptedMediaType.includes(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+                    || acceptedMediaType.includes(MediaType.APPLICATION_STREAM_JSON)) {
+                return null;
+            }
+            if (acceptedMediaType.includes(APPLICATION_SMILE)) {
+                return APPLICATION_SMILE;
+            }
+            if (acceptedMediaType.includes(APPLICATION_CBOR)) {
+                return APPLICATION_CBOR;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if NDJSON (or application/stream+json) is preferred to JSON array by the Accept header
+     */
+    static boolean isNdjsonAccepted(String accept) {
+        if (accept == null) {
+            return false;
+        }
+        List<MediaType> acceptedMediaTypes = MediaType.parseMediaTypes(accept);
+        MediaType.sortBySpecificityAndQuality(acceptedMediaTypes);
+        for (MediaType acceptedMediaType : acceptedMediaTypes) {
+            if (acceptedMediaType.includes(MediaType.APPLICATION_JSON)) {
+                return false;
+            }
+            if (acceptedMediaType.includes(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+                    || acceptedMediaType.includes(MediaType.APPLICATION_STREAM_JSON)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,17 @@
+package ru.xfneo.departmentsmanagement.datasource;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Read-only transactions started by the annotated method read from a replica if read replicas are configured
+ * ("departments.datasource.replicas"). The data may lag behind the primary by the replication delay.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ReadFromReplica {
+}
@@ -0,0 +1,22 @@
+package ru.xfneo.departmentsmanagement.datasource;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+
+/**
+ * Allows reads from replicas during calls of methods annotated with {@link ReadFromReplica}.
+ */
+@Aspect
+public class ReadFromReplicaAspect {
+
+    @Around("@annotation(ru.xfneo.departmentsmanagement.datasource.ReadFromReplica)")
+    public Object allowReplica(ProceedingJoinPoint joinPoint) throws Throwable {
+        boolean previous = ReplicaRoutingContext.setReplicaAllowed(true);
+        try {
+            return joinPoint.proceed();
+        } finally {
+            ReplicaRoutingContext.setReplicaAllowed(previous);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ru.xfneo.departmentsmanagement.datasource;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-your-writes window: a request which may change data (POST, PUT, PATCH, DELETE) sets cookie
+ * "departments-read-primary-until", and reads of the same client go to the primary until the time in the cookie,
+ * so the client doesn't read a replica which hasn't replicated its change yet.
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+    public static final String COOKIE_NAME = "departments-read-primary-until";
+    private static final Set<String> SAFE_METHODS = Collections.unmodifiableSet(new HashSet<>(
+            Arrays.asList("GET", "HEAD", "OPTIONS", "TRACE")));
+    private final long windowMillis;
+
+    /**
+     * @param windowMillis  time after a change during which reads of the client go to the primary,
+     *                      should be longer than the replication delay
+     */
+    public ReadYourWritesFilter(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (!SAFE_METHODS.contains(request.getMethod())) {
+            // before the chain: the response may be committed by the handler
+            Cookie cookie = new Cookie(COOKIE_NAME, String.valueOf(System.currentTimeMillis() + windowMillis));
+            cookie.setPath("/");
+            cookie.setHttpOnly(true);
+            cookie.setMaxAge((int) TimeUnit.MILLISECONDS.toSeconds(windowMillis + 999));
+            response.addCookie(cookie);
+            filterChain.doFilter(request, response);
+            return;
+        }
+        ReplicaRoutingContext.setPrimaryRequired(readPrimaryUntil(request) > System.currentTimeMillis());
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            ReplicaRoutingContext.setPrimaryRequired(false);
+        }
+    }
+
+    private static long readPrimaryUntil(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return 0;
+        }
+        for (Cookie cookie : cookies) {
+            if (COOKIE_NAME.equals(cookie.getName())) {
+                try {
+                    return Long.parseLong(cookie.getValue());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+}
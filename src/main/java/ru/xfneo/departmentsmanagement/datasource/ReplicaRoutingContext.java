@@ -0,0 +1,44 @@
+package ru.xfneo.departmentsmanagement.datasource;
+
+/**
+ * Thread-bound routing state of {@link ReplicaRoutingDataSource}: a read may go to a replica only inside a method
+ * annotated with {@link ReadFromReplica}, and never while the client is in its read-your-writes window.
+ */
+public final class ReplicaRoutingContext {
+    private static final ThreadLocal<Boolean> replicaAllowed = ThreadLocal.withInitial(() -> false);
+    private static final ThreadLocal<Boolean> primaryRequired = ThreadLocal.withInitial(() -> false);
+
+    private ReplicaRoutingContext() {
+    }
+
+    /**
+     * @return true if reads of the current thread may go to a replica.
+     */
+    public static boolean isReplicaAllowed() {
+        return replicaAllowed.get() && !primaryRequired.get();
+    }
+
+    /**
+     * @return previous value, to be restored after the call.
+     */
+    public static boolean setReplicaAllowed(boolean allowed) {
+        boolean previous = replicaAllowed.get();
+        replicaAllowed.set(allowed);
+        return previous;
+    }
+
+    public static boolean isPrimaryRequired() {
+        return primaryRequired.get();
+    }
+
+    /**
+     * @param required  true to send all reads of the current thread to the primary (read-your-writes window)
+     */
+    public static void setPrimaryRequired(boolean required) {
+        if (required) {
+            primaryRequired.set(true);
+        } else {
+            primaryRequired.remove();
+        }
+    }
+}
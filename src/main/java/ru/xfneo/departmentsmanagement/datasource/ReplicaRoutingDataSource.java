@@ -0,0 +1,158 @@
+package ru.xfneo.departmentsmanagement.datasource;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DataSource which sends reads of read-only transactions allowed by {@link ReplicaRoutingContext} to healthy replicas
+ * (round-robin) and everything else to the primary. A replica is unhealthy from a failed health check or a failed
+ * connection until the next successful health check; reads go to the primary while no replica is healthy.
+ * Must be wrapped in {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}:
+ * the read-only flag of a transaction is known only after the transaction manager gets its connection.
+ */
+@Log4j2
+public class ReplicaRoutingDataSource extends AbstractDataSource implements Closeable {
+    private final DataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final int validationTimeoutSeconds;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final ScheduledExecutorService healthChecker;
+
+    /**
+     * @param primary  data source of the primary, closed on {@link #close()} if it is {@link Closeable}
+     * @param replicas  data sources of the replicas by name, closed on {@link #close()} if they are {@link Closeable}
+     * @param validationTimeoutSeconds  timeout of the health check of a replica connection
+     */
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas, int validationTimeoutSeconds) {
+        this.primary = primary;
+        replicas.forEach((name, dataSource) -> this.replicas.add(new Replica(name, dataSource)));
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("replica-health-");
+        threadFactory.setDaemon(true);
+        this.healthChecker = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    /**
+     * Run {@link #checkHealth()} with the interval until {@link #close()}.
+     */
+    public void startHealthChecks(long intervalMillis) {
+        healthChecker.scheduleWithFixedDelay(this::checkHealth, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Replica replica = selectReplica();
+        if (replica == null) {
+            return primary.getConnection();
+        }
+        try {
+            return replica.dataSource.getConnection();
+        } catch (SQLException e) {
+            markHealthy(replica, false, e);
+            return primary.getConnection();
+        }
+    }
+
+    /**
+     * Connection of the primary with the credentials, the credentials of the replicas are configured in their data sources.
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return primary.getConnection(username, password);
+    }
+
+    /**
+     * Check a connection of every replica, replicas recover from failed connections here.
+     */
+    public void checkHealth() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection()) {
+                if (connection.isValid(validationTimeoutSeconds)) {
+                    markHealthy(replica, true, null);
+                } else {
+                    markHealthy(replica, false, new SQLException("Connection is not valid"));
+                }
+            } catch (SQLException e) {
+                markHealthy(replica, false, e);
+            }
+        }
+    }
+
+    /**
+     * @return number of replicas which passed the last health check and had no failed connections since.
+     */
+    public int getHealthyReplicaCount() {
+        return (int) replicas.stream().filter(replica -> replica.healthy).count();
+    }
+
+    @Override
+    public void close() {
+        healthChecker.shutdownNow();
+        for (Replica replica : replicas) {
+            close(replica.name, replica.dataSource);
+        }
+        close("primary", primary);
+    }
+
+    private static void close(String name, DataSource dataSource) {
+        if (dataSource instanceof Closeable) {
+            try {
+                ((Closeable) dataSource).close();
+            } catch (IOException e) {
+                log.warn("Closing of data source {} failed", name, e);
+            }
+        }
+    }
+
+    private Replica selectReplica() {
+        if (replicas.isEmpty() || !TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                || !ReplicaRoutingContext.isReplicaAllowed()) {
+            return null;
+        }
+        int start = Math.floorMod(nextReplica.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica.healthy) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private static void markHealthy(Replica replica, boolean healthy, SQLException cause) {
+        if (replica.healthy != healthy) {
+            replica.healthy = healthy;
+            if (healthy) {
+                log.info("Replica {} is healthy, reads go to it again", replica.name);
+            } else {
+                log.warn("Replica {} is unhealthy, reads go to other replicas or the primary", replica.name, cause);
+            }
+        }
+    }
+
+    private static class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        private volatile boolean healthy = true;
+
+        Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+    }
+}
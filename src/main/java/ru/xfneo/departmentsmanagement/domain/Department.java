@@ -1,5 +1,6 @@
 package ru.xfneo.departmentsmanagement.domain;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import io.swagger.annotations.ApiModel;
 import io.swagger.annotations.ApiModelProperty;
 import lombok.AllArgsConstructor;
@@ -11,6 +12,8 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Version;
 
 @Entity
 @Data
@@ -20,8 +23,26 @@ import javax.persistence.Id;
 @ApiModel
 public class Department {
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "department_id_generator")
+    @SequenceGenerator(name = "department_id_generator", sequenceName = "hibernate_sequence", allocationSize = 50)
     @ApiModelProperty(notes = "Used for response only", readOnly = true) // https://github.com/springfox/springfox/issues/895
     private long id;
     private String name;
+    @Version
+    @ApiModelProperty(notes = "Incremented on every change, used for response only", readOnly = true)
+    private long version;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @ApiModelProperty(notes = "Id of the parent department, absent for root departments")
+    private Long parentId;
+
+    public Department(long id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public Department(long id, String name, long version) {
+        this.id = id;
+        this.name = name;
+        this.version = version;
+    }
 }
@@ -0,0 +1,64 @@
+package ru.xfneo.departmentsmanagement.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import java.time.Instant;
+
+/**
+ * Entry of the department change feed, written in the transaction of the change.
+ * Consumers apply changes in seq order to keep their copy of departments in sync.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@EqualsAndHashCode(of = "seq")
+@ApiModel
+public class DepartmentChange {
+    @Id
+    @ApiModelProperty(notes = "Sequence number of the change, increases in the order changes are committed")
+    private long seq;
+    private long departmentId;
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private Type type;
+    @ApiModelProperty(notes = "Name of the department after the change, null for DELETED and RELOADED")
+    private String name;
+    @ApiModelProperty(notes = "Version of the department after the change, 0 for DELETED and RELOADED")
+    private long version;
+    @ApiModelProperty(notes = "Parent of the department after the change, absent for root departments, DELETED and RELOADED")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long parentId;
+    private Instant changedAt;
+
+    public DepartmentChange(long seq, Type type, long departmentId, String name, long version) {
+        this(seq, type, departmentId, name, version, null);
+    }
+
+    public DepartmentChange(long seq, Type type, long departmentId, String name, long version, Long parentId) {
+        this.seq = seq;
+        this.type = type;
+        this.departmentId = departmentId;
+        this.name = name;
+        this.version = version;
+        this.parentId = parentId;
+        this.changedAt = Instant.now();
+    }
+
+    public enum Type {
+        CREATED, UPDATED, DELETED,
+        /**
+         * Departments were replaced in bulk (snapshot import), consumers should reload all departments
+         */
+        RELOADED
+    }
+}
@@ -0,0 +1,30 @@
+package ru.xfneo.departmentsmanagement.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * The only row of the department change feed state. Writers of changes lock it to take the next seq,
+ * so concurrent changes are serialized and committed in seq order.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DepartmentChangeHead {
+    public static final int ID = 1;
+    @Id
+    private int id;
+    /**
+     * Seq of the last written change
+     */
+    private long lastSeq;
+    /**
+     * Changes up to this seq were deleted by retention, consumers behind it have to reload all departments
+     */
+    private long purgedSeq;
+}
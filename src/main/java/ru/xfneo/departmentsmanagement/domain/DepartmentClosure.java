@@ -0,0 +1,56 @@
+package ru.xfneo.departmentsmanagement.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import java.io.Serializable;
+
+/**
+ * Row of the closure table of the department hierarchy: a department, one of its ancestors and the distance between them.
+ * Every department also has a row with itself at depth 0, so the subtree of a department and its ancestors
+ * are read with one indexed query. Rows are written by the statements of DepartmentClosureRepository.
+ */
+@Entity
+@IdClass(DepartmentClosure.Key.class)
+@Table(indexes = @Index(name = "department_closure_descendant_idx", columnList = "descendant_id, depth"))
+@Getter
+@NoArgsConstructor
+public class DepartmentClosure {
+    @Id
+    @Column(name = "ancestor_id")
+    private long ancestorId;
+    @Id
+    @Column(name = "descendant_id")
+    private long descendantId;
+    private int depth;
+    // mapped for the foreign keys of the generated schema only, migration V7 creates the same keys
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "ancestor_id", insertable = false, updatable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private Department ancestor;
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "descendant_id", insertable = false, updatable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private Department descendant;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private long ancestorId;
+        private long descendantId;
+    }
+}
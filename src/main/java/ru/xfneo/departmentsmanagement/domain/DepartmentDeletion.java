@@ -0,0 +1,60 @@
+package ru.xfneo.departmentsmanagement.domain;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
+import java.time.Instant;
+
+/**
+ * Outbox entry of department deletion: command to transfer employees of the department to the replacement department
+ * in employee-management-ws and then delete the department. Written in the transaction of the delete request
+ * and processed in background by DepartmentDeletionDispatcher.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@EqualsAndHashCode(of = "id")
+@ApiModel
+public class DepartmentDeletion {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "department_deletion_id_generator")
+    @SequenceGenerator(name = "department_deletion_id_generator", sequenceName = "department_deletion_sequence", allocationSize = 1)
+    private long id;
+    private long departmentId;
+    private long replacementDepartmentId;
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private Status status;
+    @ApiModelProperty(notes = "Number of failed calls of employee-management-ws")
+    private int attempts;
+    @ApiModelProperty(notes = "Code of the last response from employee-management-ws")
+    private Integer responseStatus;
+    @Column(length = 1024)
+    @ApiModelProperty(notes = "Body of the last response from employee-management-ws or error description")
+    private String message;
+    private Instant createdAt;
+    private Instant updatedAt;
+
+    public DepartmentDeletion(long departmentId, long replacementDepartmentId) {
+        this.departmentId = departmentId;
+        this.replacementDepartmentId = replacementDepartmentId;
+        this.status = Status.PENDING;
+        this.createdAt = Instant.now();
+        this.updatedAt = this.createdAt;
+    }
+
+    public enum Status {
+        PENDING, IN_PROGRESS, DONE, FAILED
+    }
+}
@@ -0,0 +1,31 @@
+package ru.xfneo.departmentsmanagement.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import ru.xfneo.departmentsmanagement.domain.Department;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@ApiModel
+public class BatchItemResult {
+    @ApiModelProperty(notes = "HTTP status code the item would get from the single item endpoint")
+    private int status;
+    @ApiModelProperty(notes = "Saved department, if the item succeeded")
+    private Department department;
+    @ApiModelProperty(notes = "Error or employee-management-ws response message")
+    private String message;
+
+    public static BatchItemResult of(int status, Department department) {
+        return new BatchItemResult(status, department, null);
+    }
+
+    public static BatchItemResult of(int status, String message) {
+        return new BatchItemResult(status, null, message);
+    }
+}
@@ -0,0 +1,20 @@
+package ru.xfneo.departmentsmanagement.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import ru.xfneo.departmentsmanagement.domain.DepartmentChange;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@ApiModel
+public class DepartmentChanges {
+    private List<DepartmentChange> items;
+    @ApiModelProperty(notes = "Value for the \"since\" parameter of the next request: seq of the last change in items, or the passed since if there are none")
+    private long lastSeq;
+}
@@ -0,0 +1,20 @@
+package ru.xfneo.departmentsmanagement.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import ru.xfneo.departmentsmanagement.domain.Department;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@ApiModel
+public class DepartmentPage {
+    private List<Department> items;
+    @ApiModelProperty(notes = "Value for the \"after\" parameter of the next page request, null if this is the last page")
+    private Long nextCursor;
+}
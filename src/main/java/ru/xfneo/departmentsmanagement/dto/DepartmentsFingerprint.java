@@ -0,0 +1,12 @@
+package ru.xfneo.departmentsmanagement.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class DepartmentsFingerprint {
+    private long count;
+    private long maxId;
+    private long versionSum;
+}
@@ -0,0 +1,58 @@
+package ru.xfneo.departmentsmanagement.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.repository.Repository;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Times every call of Spring Data repositories (including inherited methods like findById)
+ * with "departments.repository" timer tagged by repository, method and exception.
+ */
+@Aspect
+@Component
+public class RepositoryMetricsAspect {
+    public static final String REPOSITORY_METRIC = "departments.repository";
+    private final MeterRegistry meterRegistry;
+    private final Map<Class<?>, String> repositoryNames = new ConcurrentHashMap<>();
+
+    @Autowired
+    public RepositoryMetricsAspect(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Around("execution(* org.springframework.data.repository.Repository+.*(..))")
+    public Object timeRepositoryCall(ProceedingJoinPoint joinPoint) throws Throwable {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String exception = "none";
+        try {
+            return joinPoint.proceed();
+        } catch (Throwable e) {
+            exception = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            sample.stop(Timer.builder(REPOSITORY_METRIC)
+                    .description("Calls of Spring Data repositories")
+                    .tags("repository", repositoryName(joinPoint.getTarget().getClass()),
+                            "method", joinPoint.getSignature().getName(),
+                            "exception", exception)
+                    .register(meterRegistry));
+        }
+    }
+
+    private String repositoryName(Class<?> repositoryProxyClass) {
+        return repositoryNames.computeIfAbsent(repositoryProxyClass, proxyClass -> Arrays.stream(proxyClass.getInterfaces())
+                .filter(Repository.class::isAssignableFrom)
+                .findFirst()
+                .map(Class::getSimpleName)
+                .orElse(proxyClass.getSimpleName()));
+    }
+}
@@ -0,0 +1,21 @@
+package ru.xfneo.departmentsmanagement.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import ru.xfneo.departmentsmanagement.domain.DepartmentChangeHead;
+
+import javax.persistence.LockModeType;
+import java.util.Optional;
+
+public interface DepartmentChangeHeadRepository extends JpaRepository<DepartmentChangeHead, Integer> {
+
+    /**
+     * Lock the head of the change feed until the end of the transaction ("select ... for update").
+     *
+     * @return head of the change feed, empty if it is not created yet.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select h from DepartmentChangeHead h where h.id = " + DepartmentChangeHead.ID)
+    Optional<DepartmentChangeHead> findForUpdate();
+}
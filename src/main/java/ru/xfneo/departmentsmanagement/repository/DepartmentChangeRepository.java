@@ -0,0 +1,49 @@
+package ru.xfneo.departmentsmanagement.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import ru.xfneo.departmentsmanagement.domain.DepartmentChange;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface DepartmentChangeRepository extends JpaRepository<DepartmentChange, Long> {
+
+    /**
+     * @param seq  cursor, seq of the last change known to the consumer
+     * @param pageable  maximum number of changes (page number should always be 0)
+     * @return changes following the cursor, ordered by seq.
+     */
+    @Transactional(readOnly = true)
+    List<DepartmentChange> findBySeqGreaterThanOrderBySeqAsc(long seq, Pageable pageable);
+
+    /**
+     * @return seq of the last change made before the time, 0 if there are no such changes.
+     */
+    @Query("select coalesce(max(c.seq), 0) from DepartmentChange c where c.changedAt < :before")
+    long findLastSeqBefore(@Param("before") Instant before);
+
+    /**
+     * Compaction: delete changes made before the time if the same department has a later change,
+     * consumers which apply the latest change end up with the same state.
+     *
+     * @return number of deleted changes.
+     */
+    @Modifying
+    @Query("delete from DepartmentChange c where c.changedAt < :before and exists " +
+            "(select l.seq from DepartmentChange l where l.departmentId = c.departmentId and l.seq > c.seq)")
+    int deleteSupersededBefore(@Param("before") Instant before);
+
+    /**
+     * Retention: delete all changes up to the seq.
+     *
+     * @return number of deleted changes.
+     */
+    @Modifying
+    @Query("delete from DepartmentChange c where c.seq <= :seq")
+    int deleteUpTo(@Param("seq") long seq);
+}
@@ -0,0 +1,76 @@
+package ru.xfneo.departmentsmanagement.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import ru.xfneo.departmentsmanagement.domain.DepartmentClosure;
+
+/**
+ * Statements maintaining the closure table of the department hierarchy. Callers take {@link #lockForWrite()} first
+ * in every transaction which changes the hierarchy, so the statements of concurrent moves don't interleave.
+ */
+public interface DepartmentClosureRepository extends JpaRepository<DepartmentClosure, DepartmentClosure.Key>,
+        DepartmentClosureRepositoryCustom {
+
+    /**
+     * Add a new root department: its own row.
+     *
+     * @param id  id of the new department
+     * @return number of inserted rows.
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "insert into department_closure (ancestor_id, descendant_id, depth) values (:id, :id, 0)", nativeQuery = true)
+    int insertRoot(@Param("id") long id);
+
+    /**
+     * Add a new department under the parent: a row for every ancestor of the parent and the parent itself,
+     * one level deeper than the parent, and its own row.
+     *
+     * @param id  id of the new department
+     * @param parentId  id of the parent department
+     * @return number of inserted rows.
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "insert into department_closure (ancestor_id, descendant_id, depth) " +
+            "select c.ancestor_id, d.id, c.depth + 1 from department_closure c, department d " +
+            "where c.descendant_id = :parentId and d.id = :id " +
+            "union all select d.id, d.id, 0 from department d where d.id = :id", nativeQuery = true)
+    int insertChild(@Param("id") long id, @Param("parentId") long parentId);
+
+    /**
+     * Detach the subtree of the department from its ancestors: delete the rows linking ancestors of the department
+     * to the department and its subdepartments. Rows inside the subtree are kept.
+     *
+     * @param id  id of the root of the subtree
+     * @return number of deleted rows.
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "delete from department_closure " +
+            "where descendant_id in (select descendant_id from department_closure where ancestor_id = :id) " +
+            "and ancestor_id in (select ancestor_id from department_closure where descendant_id = :id and ancestor_id <> :id)",
+            nativeQuery = true)
+    int detachSubtree(@Param("id") long id);
+
+    /**
+     * Attach the detached subtree of the department under the parent: a row for every pair of an ancestor of the parent
+     * (or the parent itself) and a department of the subtree.
+     *
+     * @param id  id of the root of the subtree
+     * @param parentId  id of the new parent department
+     * @return number of inserted rows.
+     */
+    @Modifying(flushAutomatically = true)
+    @Query(value = "insert into department_closure (ancestor_id, descendant_id, depth) " +
+            "select a.ancestor_id, s.descendant_id, a.depth + s.depth + 1 " +
+            "from department_closure a, department_closure s where a.descendant_id = :parentId and s.ancestor_id = :id",
+            nativeQuery = true)
+    int attachSubtree(@Param("id") long id, @Param("parentId") long parentId);
+
+    /**
+     * @param ancestorId  id of the department
+     * @param descendantId  id of another department
+     * @return true if the other department is in the subtree of the department, or they are the same department.
+     */
+    boolean existsByAncestorIdAndDescendantId(long ancestorId, long descendantId);
+}
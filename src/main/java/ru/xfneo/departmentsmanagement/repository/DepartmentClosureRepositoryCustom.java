@@ -0,0 +1,10 @@
+package ru.xfneo.departmentsmanagement.repository;
+
+public interface DepartmentClosureRepositoryCustom {
+
+    /**
+     * Lock the closure table against changes of other transactions until the end of the current transaction
+     * (SHARE ROW EXCLUSIVE on PostgreSQL, which still allows reads). Other databases aren't locked.
+     */
+    void lockForWrite();
+}
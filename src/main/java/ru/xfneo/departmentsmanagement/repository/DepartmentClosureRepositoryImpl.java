@@ -0,0 +1,30 @@
+package ru.xfneo.departmentsmanagement.repository;
+
+import org.postgresql.PGConnection;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Statement;
+
+public class DepartmentClosureRepositoryImpl implements DepartmentClosureRepositoryCustom {
+    private static final String LOCK_POSTGRES_SQL = "lock table department_closure in share row exclusive mode";
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public DepartmentClosureRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void lockForWrite() {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            if (connection.isWrapperFor(PGConnection.class)) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute(LOCK_POSTGRES_SQL);
+                }
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,36 @@
+package ru.xfneo.departmentsmanagement.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import ru.xfneo.departmentsmanagement.domain.DepartmentDeletion;
+
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+public interface DepartmentDeletionRepository extends JpaRepository<DepartmentDeletion, Long> {
+
+    /**
+     * Lock the oldest pending deletions and the deletions whose claim expired (the dispatcher which claimed them
+     * has stopped). Rows locked by another dispatcher are skipped ("for update skip locked" on PostgreSQL),
+     * so several instances can drain the outbox concurrently.
+     *
+     * @param claimedBefore  deletions in progress claimed before this time are claimed again
+     * @param pageable  batch size (page number should always be 0)
+     * @return locked deletions ordered by id.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "javax.persistence.lock.timeout", value = "-2"))
+    @Query("select d from DepartmentDeletion d where d.status = ru.xfneo.departmentsmanagement.domain.DepartmentDeletion$Status.PENDING " +
+            "or (d.status = ru.xfneo.departmentsmanagement.domain.DepartmentDeletion$Status.IN_PROGRESS and d.updatedAt < :claimedBefore) " +
+            "order by d.id asc")
+    List<DepartmentDeletion> findClaimable(@Param("claimedBefore") Instant claimedBefore, Pageable pageable);
+
+    boolean existsByDepartmentIdInAndStatusIn(Collection<Long> departmentIds, Collection<DepartmentDeletion.Status> statuses);
+}
@@ -1,8 +1,138 @@
 package ru.xfneo.departmentsmanagement.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.dto.DepartmentsFingerprint;
 
-public interface DepartmentRepository extends JpaRepository<Department, Long> {
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
 
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+public interface DepartmentRepository extends JpaRepository<Department, Long>, DepartmentRepositoryCustom {
+
+    /**
+     * Keyset page: departments with id greater than the cursor, ordered by id.
+     *
+     * @param id  cursor, id of the last department of the previous page
+     * @param pageable  page size (page number should always be 0)
+     * @return departments following the cursor.
+     */
+    @Transactional(readOnly = true)
+    List<Department> findByIdGreaterThanOrderByIdAsc(long id, Pageable pageable);
+
+    /**
+     * Keyset page of departments whose lower-cased name matches the LIKE pattern, ordered by id.
+     *
+     * @param pattern  lower-cased LIKE pattern, with '\' as escape character
+     * @param after  cursor, id of the last department of the previous page
+     * @param pageable  page size (page number should always be 0)
+     * @return matching departments following the cursor.
+     */
+    @Transactional(readOnly = true)
+    @Query("select new ru.xfneo.departmentsmanagement.domain.Department(d.id, d.name, d.version, d.parentId) from Department d " +
+            "where lower(d.name) like :pattern escape '\\' and d.id > :after order by d.id")
+    List<Department> findByLowerNameLike(@Param("pattern") String pattern, @Param("after") long after, Pageable pageable);
+
+    /**
+     * Stream all departments ordered by id from a JDBC cursor.
+     * Rows are mapped to unmanaged instances, so the persistence context doesn't grow while streaming.
+     * Must be consumed inside a transaction and closed after use.
+     *
+     * @return stream of all departments.
+     */
+    @Query("select new ru.xfneo.departmentsmanagement.domain.Department(d.id, d.name, d.version, d.parentId) from Department d order by d.id")
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "500"), @QueryHint(name = HINT_READONLY, value = "true")})
+    Stream<Department> streamAll();
+
+    /**
+     * Aggregate which changes whenever any department is created, updated or deleted:
+     * creation raises max id (ids come from a sequence), deletion lowers count, update raises sum of versions.
+     * The search index is rebuilt when it changes.
+     *
+     * @return fingerprint of the whole department table.
+     */
+    @Transactional(readOnly = true)
+    @Query("select new ru.xfneo.departmentsmanagement.dto.DepartmentsFingerprint(count(d), coalesce(max(d.id), 0), coalesce(sum(d.version), 0)) from Department d")
+    DepartmentsFingerprint findFingerprint();
+
+    /**
+     * Rename the department, set its parent and increment its version in one conditional UPDATE statement,
+     * without loading the department. Only the department row is updated, the closure table is maintained by the caller.
+     *
+     * @param id  id of the department to update
+     * @param version  expected current version of the department
+     * @param name  new name of the department
+     * @param parentId  id of the new parent department, null for a root department
+     * @return number of updated rows: 1, or 0 if the department does not exist or its version differs.
+     */
+    @Modifying
+    @Query("update Department d set d.name = :name, d.parentId = :parentId, d.version = d.version + 1 " +
+            "where d.id = :id and d.version = :version")
+    int updateNameAndParent(@Param("id") long id, @Param("version") long version, @Param("name") String name,
+                            @Param("parentId") Long parentId);
+
+    /**
+     * @param parentId  id of the department
+     * @return true if the department has subdepartments.
+     */
+    boolean existsByParentId(Long parentId);
+
+    /**
+     * Subtree of the department from the closure table, in one indexed query.
+     *
+     * @param id  id of the root of the subtree
+     * @param maxDepth  depth of the deepest subdepartments to include, 0 for the department alone
+     * @return the department and its subdepartments ordered by depth and id, or empty list if the department does not exist.
+     */
+    @Transactional(readOnly = true)
+    @Query("select new ru.xfneo.departmentsmanagement.domain.Department(d.id, d.name, d.version, d.parentId) " +
+            "from DepartmentClosure c, Department d " +
+            "where c.ancestorId = :id and c.depth <= :maxDepth and d.id = c.descendantId order by c.depth, d.id")
+    List<Department> findSubtree(@Param("id") long id, @Param("maxDepth") int maxDepth);
+
+    /**
+     * Ancestors of the department from the closure table, in one indexed query.
+     *
+     * @param id  id of the department
+     * @return ancestors of the department from the root down to the department itself,
+     * or empty list if the department does not exist.
+     */
+    @Transactional(readOnly = true)
+    @Query("select new ru.xfneo.departmentsmanagement.domain.Department(d.id, d.name, d.version, d.parentId) " +
+            "from DepartmentClosure c, Department d " +
+            "where c.descendantId = :id and d.id = c.ancestorId order by c.depth desc")
+    List<Department> findAncestorsAndSelf(@Param("id") long id);
+
+    /**
+     * Check existence of several departments in one query, without loading them.
+     *
+     * @param ids  ids of the departments to check
+     * @return ids of the existing departments among the given ones.
+     */
+    @Transactional(readOnly = true)
+    @Query("select d.id from Department d where d.id in :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Delete the department in one DELETE statement, without loading it first (unlike {@link #deleteById(Object)}),
+     * unless it has subdepartments. Its rows of the closure table are deleted by the foreign keys.
+     *
+     * @param id  id of the department to delete
+     * @return number of deleted rows: 1, or 0 if the department does not exist or has subdepartments.
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from Department d where d.id = :id " +
+            "and not exists (select c.id from Department c where c.parentId = :id)")
+    int deleteByIdReturningCount(@Param("id") long id);
 }
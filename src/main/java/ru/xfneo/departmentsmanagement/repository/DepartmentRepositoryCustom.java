@@ -0,0 +1,27 @@
+package ru.xfneo.departmentsmanagement.repository;
+
+import java.util.Map;
+
+public interface DepartmentRepositoryCustom {
+
+    /**
+     * Set the given attributes of the department and increment its version in one conditional UPDATE statement,
+     * without loading the department.
+     *
+     * @param id  id of the department to update
+     * @param version  expected current version of the department
+     * @param attributes  names of Department attributes to set and their new values, must not be empty
+     * @return number of updated rows: 1, or 0 if the department does not exist or its version differs.
+     */
+    int updateAttributes(long id, long version, Map<String, Object> attributes);
+
+    /**
+     * Same as {@link #updateAttributes(long, long, Map)}, but the department is updated only if it is still under
+     * the given parent, so a caller finds out from the result whether the department is moved without reading it first.
+     *
+     * @param parentId  expected current parent of the department, null for a root department
+     * @return number of updated rows: 1, or 0 if the department does not exist, its version differs
+     * or it has another parent.
+     */
+    int updateAttributesIfParent(long id, long version, Long parentId, Map<String, Object> attributes);
+}
@@ -0,0 +1,46 @@
+package ru.xfneo.departmentsmanagement.repository;
+
+import ru.xfneo.departmentsmanagement.domain.Department;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class DepartmentRepositoryImpl implements DepartmentRepositoryCustom {
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public int updateAttributes(long id, long version, Map<String, Object> attributes) {
+        return update(id, version, false, null, attributes);
+    }
+
+    @Override
+    public int updateAttributesIfParent(long id, long version, Long parentId, Map<String, Object> attributes) {
+        return update(id, version, true, parentId, attributes);
+    }
+
+    private int update(long id, long version, boolean parentExpected, Long parentId, Map<String, Object> attributes) {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaUpdate<Department> update = criteriaBuilder.createCriteriaUpdate(Department.class);
+        Root<Department> department = update.from(Department.class);
+        attributes.forEach(update::set);
+        update.set(department.<Long>get("version"), criteriaBuilder.sum(department.<Long>get("version"), 1L));
+        List<Predicate> predicates = new ArrayList<>();
+        predicates.add(criteriaBuilder.equal(department.get("id"), id));
+        predicates.add(criteriaBuilder.equal(department.get("version"), version));
+        if (parentExpected) {
+            predicates.add(parentId == null
+                    ? criteriaBuilder.isNull(department.get("parentId"))
+                    : criteriaBuilder.equal(department.get("parentId"), parentId));
+        }
+        update.where(predicates.toArray(new Predicate[0]));
+        return entityManager.createQuery(update).executeUpdate();
+    }
+}
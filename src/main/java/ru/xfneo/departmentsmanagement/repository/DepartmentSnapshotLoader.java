@@ -0,0 +1,242 @@
+package ru.xfneo.departmentsmanagement.repository;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.xfneo.departmentsmanagement.domain.Department;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ * Bulk load of department snapshots: NDJSON with one department (id, name, version, parentId) per line, as exported by
+ * GET /api/departments/export. Departments with the same id are replaced and get a version greater than both
+ * the existing and the imported one, the others are inserted with their versions, then the closure table of the hierarchy is rebuilt.
+ * Rows are read from the stream and sent to the database in chunks, so memory use doesn't depend on the snapshot size:
+ * PostgreSQL gets them with COPY into a temporary table and one upsert statement, other databases (H2) with MERGE in JDBC batches.
+ */
+@Component
+public class DepartmentSnapshotLoader {
+    static final int CHUNK_SIZE = 500;
+    private static final String CREATE_STAGING_TABLE_SQL =
+            "create temporary table department_snapshot (id int8 not null, name varchar(255), version int8 not null, parent_id int8) on commit drop";
+    private static final String COPY_SQL = "copy department_snapshot (id, name, version, parent_id) from stdin with (format csv)";
+    // a replaced department gets a version greater than both versions, so its ETag and the ETag of the list change
+    private static final String UPSERT_SQL = "insert into department (id, name, version, parent_id) " +
+            "select id, name, version, parent_id from department_snapshot " +
+            "on conflict (id) do update set name = excluded.name, " +
+            "version = greatest(department.version, excluded.version) + 1, parent_id = excluded.parent_id";
+    // same as migration V2: the next block of the pooled sequence starts after the greatest id
+    private static final String SYNC_POSTGRES_SEQUENCE_SQL =
+            "select setval('hibernate_sequence', greatest((select last_value from hibernate_sequence), " +
+            "(select coalesce(max(id), 1) from department)))";
+    private static final String MERGE_SQL = "merge into department d using (select cast(? as bigint) id, cast(? as varchar(255)) name, " +
+            "cast(? as bigint) version, cast(? as bigint) parent_id) s on (d.id = s.id) " +
+            "when matched then update set d.name = s.name, d.version = greatest(d.version, s.version) + 1, d.parent_id = s.parent_id " +
+            "when not matched then insert (id, name, version, parent_id) values (s.id, s.name, s.version, s.parent_id)";
+    private static final String H2_SEQUENCE_SQL = "select increment, current_value + increment from information_schema.sequences " +
+            "where sequence_name = 'HIBERNATE_SEQUENCE'";
+    private static final String COUNT_DANGLING_PARENTS_SQL = "select count(*) from department d where d.parent_id is not null " +
+            "and not exists (select 1 from department p where p.id = d.parent_id)";
+    private static final String INSERT_SELF_SQL = "insert into department_closure (ancestor_id, descendant_id, depth) " +
+            "select id, id, 0 from department";
+    // paths one level longer than the deepest ones: a cycle of parents repeats a pair of the table
+    private static final String INSERT_NEXT_LEVEL_SQL = "insert into department_closure (ancestor_id, descendant_id, depth) " +
+            "select c.ancestor_id, d.id, c.depth + 1 from department_closure c, department d " +
+            "where c.depth = ? and d.parent_id = c.descendant_id";
+    private static final int MAX_NAME_LENGTH = 255;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final DepartmentClosureRepository departmentClosureRepository;
+
+    @Autowired
+    public DepartmentSnapshotLoader(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper,
+                                    DepartmentClosureRepository departmentClosureRepository) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.departmentClosureRepository = departmentClosureRepository;
+    }
+
+    /**
+     * Load all departments of the snapshot in one transaction and move hibernate_sequence past the greatest id,
+     * so new departments don't get imported ids. Ids from blocks of the sequence already allocated by running
+     * instances are not checked.
+     *
+     * @param snapshot  NDJSON stream of departments
+     * @return number of loaded departments.
+     * @throws IllegalArgumentException if a department of the snapshot is not valid or the parents of the departments
+     * don't form a tree, nothing is loaded
+     * @throws IOException if the snapshot can't be read or is not valid NDJSON, nothing is loaded
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public long load(InputStream snapshot) throws IOException {
+        departmentClosureRepository.lockForWrite();
+        try (MappingIterator<Department> departments = objectMapper.readerFor(Department.class).readValues(snapshot)) {
+            long count = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+                try {
+                    return connection.isWrapperFor(PGConnection.class)
+                            ? copyToPostgres(connection, departments)
+                            : mergeInBatches(connection, departments);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            rebuildHierarchy();
+            return count;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (DataIntegrityViolationException e) {
+            // foreign key of parent_id on PostgreSQL, other databases are checked by rebuildHierarchy()
+            throw new IllegalArgumentException("Parents of departments of the snapshot don't exist");
+        }
+    }
+
+    /**
+     * Rebuild the whole closure table from the parent references of the departments, level by level.
+     *
+     * @throws IllegalArgumentException if a parent of a department does not exist or parents form a cycle
+     */
+    private void rebuildHierarchy() {
+        Long danglingParents = jdbcTemplate.queryForObject(COUNT_DANGLING_PARENTS_SQL, Long.class);
+        if (danglingParents != null && danglingParents > 0) {
+            throw new IllegalArgumentException("Parents of departments of the snapshot don't exist");
+        }
+        jdbcTemplate.update("delete from department_closure");
+        jdbcTemplate.update(INSERT_SELF_SQL);
+        try {
+            int depth = 0;
+            while (jdbcTemplate.update(INSERT_NEXT_LEVEL_SQL, depth) > 0) {
+                depth++;
+            }
+        } catch (DuplicateKeyException e) {
+            throw new IllegalArgumentException("Parents of departments of the snapshot form a cycle");
+        }
+    }
+
+    private static long copyToPostgres(Connection connection, MappingIterator<Department> departments) throws SQLException, IOException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_STAGING_TABLE_SQL);
+        }
+        long count = 0;
+        CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL);
+        try {
+            StringBuilder rows = new StringBuilder();
+            while (departments.hasNextValue()) {
+                appendCsvRow(rows, validated(departments.nextValue(), ++count));
+                if (count % CHUNK_SIZE == 0) {
+                    writeToCopy(copyIn, rows);
+                }
+            }
+            writeToCopy(copyIn, rows);
+            copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(UPSERT_SQL);
+            statement.execute(SYNC_POSTGRES_SEQUENCE_SQL);
+        }
+        return count;
+    }
+
+    private static long mergeInBatches(Connection connection, MappingIterator<Department> departments) throws SQLException, IOException {
+        long count = 0;
+        try (PreparedStatement merge = connection.prepareStatement(MERGE_SQL)) {
+            while (departments.hasNextValue()) {
+                Department department = validated(departments.nextValue(), ++count);
+                merge.setLong(1, department.getId());
+                merge.setString(2, department.getName());
+                merge.setLong(3, department.getVersion());
+                if (department.getParentId() == null) {
+                    merge.setNull(4, Types.BIGINT);
+                } else {
+                    merge.setLong(4, department.getParentId());
+                }
+                merge.addBatch();
+                if (count % CHUNK_SIZE == 0) {
+                    merge.executeBatch();
+                }
+            }
+            merge.executeBatch();
+        }
+        syncH2Sequence(connection);
+        return count;
+    }
+
+    /**
+     * Restart the sequence so its next value is the end of a block after the greatest id, unless it is already further.
+     */
+    private static void syncH2Sequence(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            long increment;
+            long nextValue;
+            try (ResultSet sequence = statement.executeQuery(H2_SEQUENCE_SQL)) {
+                if (!sequence.next()) {
+                    return;
+                }
+                increment = sequence.getLong(1);
+                nextValue = sequence.getLong(2);
+            }
+            long maxId;
+            try (ResultSet max = statement.executeQuery("select coalesce(max(id), 0) from department")) {
+                max.next();
+                maxId = max.getLong(1);
+            }
+            if (maxId + increment > nextValue) {
+                statement.execute("alter sequence hibernate_sequence restart with " + (maxId + increment));
+            }
+        }
+    }
+
+    /**
+     * @param number  number of the department in the snapshot, starting from 1
+     */
+    private static Department validated(Department department, long number) {
+        // id 0 means the id is missing
+        if (department == null || department.getId() == 0 || department.getVersion() < 0
+                || (department.getName() != null && department.getName().length() > MAX_NAME_LENGTH)
+                || (department.getParentId() != null && department.getParentId() == department.getId())) {
+            throw new IllegalArgumentException("Department " + number + " of the snapshot is not valid");
+        }
+        return department;
+    }
+
+    /**
+     * CSV row of COPY: null name and parent are unquoted empty fields, other names are quoted.
+     */
+    private static void appendCsvRow(StringBuilder rows, Department department) {
+        rows.append(department.getId()).append(',');
+        if (department.getName() != null) {
+            rows.append('"').append(department.getName().replace("\"", "\"\"")).append('"');
+        }
+        rows.append(',').append(department.getVersion()).append(',');
+        if (department.getParentId() != null) {
+            rows.append(department.getParentId());
+        }
+        rows.append('\n');
+    }
+
+    private static void writeToCopy(CopyIn copyIn, StringBuilder rows) throws SQLException {
+        byte[] bytes = rows.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        rows.setLength(0);
+    }
+}
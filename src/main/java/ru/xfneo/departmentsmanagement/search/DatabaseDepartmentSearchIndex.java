@@ -0,0 +1,36 @@
+package ru.xfneo.departmentsmanagement.search;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.repository.DepartmentRepository;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Search by LIKE query, served by trigram and prefix indexes on lower(name) in PostgreSQL (see V5 migration).
+ */
+@Component
+@ConditionalOnProperty(name = "departments.search.index", havingValue = "database", matchIfMissing = true)
+public class DatabaseDepartmentSearchIndex implements DepartmentSearchIndex {
+    private final DepartmentRepository departmentRepository;
+
+    @Autowired
+    public DatabaseDepartmentSearchIndex(DepartmentRepository departmentRepository) {
+        this.departmentRepository = departmentRepository;
+    }
+
+    @Override
+    public List<Department> search(String query, Match match, long after, int limit) {
+        String escapedQuery = escapeLikePattern(query.toLowerCase(Locale.ROOT));
+        String pattern = match == Match.PREFIX ? escapedQuery + "%" : "%" + escapedQuery + "%";
+        return departmentRepository.findByLowerNameLike(pattern, after, PageRequest.of(0, limit));
+    }
+
+    static String escapeLikePattern(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
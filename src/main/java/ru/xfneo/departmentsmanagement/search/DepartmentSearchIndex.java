@@ -0,0 +1,27 @@
+package ru.xfneo.departmentsmanagement.search;
+
+import ru.xfneo.departmentsmanagement.domain.Department;
+
+import java.util.List;
+
+/**
+ * Case-insensitive search of departments by name.
+ * Implementation is selected by "departments.search.index": database (default) or memory.
+ */
+public interface DepartmentSearchIndex {
+
+    enum Match {
+        PREFIX, SUBSTRING
+    }
+
+    /**
+     * Find departments whose name matches the query, ordered by id, starting after the cursor (keyset pagination).
+     *
+     * @param query  text to search, not empty
+     * @param match  where the text must be found in the name
+     * @param after  id of the last department of the previous page
+     * @param limit  maximum number of departments to return
+     * @return matching departments with id greater than after.
+     */
+    List<Department> search(String query, Match match, long after, int limit);
+}
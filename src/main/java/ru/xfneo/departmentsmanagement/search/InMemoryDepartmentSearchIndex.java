@@ -0,0 +1,141 @@
+package ru.xfneo.departmentsmanagement.search;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.dto.DepartmentsFingerprint;
+import ru.xfneo.departmentsmanagement.repository.DepartmentRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Trigram index of department names kept in memory, for databases without trigram indexes (e.g. H2 in tests).
+ * The index is rebuilt from the repository when the fingerprint of the department table changes,
+ * so it sees every change made through any write path (including bulk update and delete statements).
+ */
+@Component
+@ConditionalOnProperty(name = "departments.search.index", havingValue = "memory")
+@Log4j2
+public class InMemoryDepartmentSearchIndex implements DepartmentSearchIndex {
+    static final int GRAM_LENGTH = 3;
+    private final DepartmentRepository departmentRepository;
+    private volatile Snapshot snapshot = new Snapshot(null, new ArrayList<>());
+
+    @Autowired
+    public InMemoryDepartmentSearchIndex(DepartmentRepository departmentRepository) {
+        this.departmentRepository = departmentRepository;
+    }
+
+    @Override
+    public List<Department> search(String query, Match match, long after, int limit) {
+        return currentSnapshot().search(query.toLowerCase(Locale.ROOT), match, after, limit);
+    }
+
+    private Snapshot currentSnapshot() {
+        DepartmentsFingerprint fingerprint = departmentRepository.findFingerprint();
+        Snapshot current = snapshot;
+        if (fingerprint.equals(current.fingerprint)) {
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot;
+            if (!fingerprint.equals(current.fingerprint)) {
+                current = new Snapshot(fingerprint, departmentRepository.findAll(Sort.by("id")));
+                snapshot = current;
+                log.debug("Rebuilt department search index of {} departments", current.departments.length);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * @return distinct substrings of GRAM_LENGTH characters of the text
+     */
+    static Set<String> grams(String text) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            grams.add(text.substring(i, i + GRAM_LENGTH));
+        }
+        return grams;
+    }
+
+    /**
+     * Immutable index of departments ordered by id, trigram postings are ascending positions in this order.
+     */
+    private static final class Snapshot {
+        private final DepartmentsFingerprint fingerprint;
+        private final Department[] departments;
+        private final long[] ids;
+        private final String[] names;
+        private final Map<String, int[]> postings = new HashMap<>();
+
+        Snapshot(DepartmentsFingerprint fingerprint, List<Department> departments) {
+            this.fingerprint = fingerprint;
+            this.departments = departments.toArray(new Department[0]);
+            ids = new long[this.departments.length];
+            names = new String[this.departments.length];
+            Map<String, List<Integer>> positions = new HashMap<>();
+            for (int position = 0; position < this.departments.length; position++) {
+                Department department = this.departments[position];
+                ids[position] = department.getId();
+                names[position] = department.getName() == null ? "" : department.getName().toLowerCase(Locale.ROOT);
+                for (String gram : grams(names[position])) {
+                    positions.computeIfAbsent(gram, key -> new ArrayList<>()).add(position);
+                }
+            }
+            positions.forEach((gram, list) -> postings.put(gram, list.stream().mapToInt(Integer::intValue).toArray()));
+        }
+
+        List<Department> search(String query, Match match, long after, int limit) {
+            int start = Arrays.binarySearch(ids, after);
+            start = start >= 0 ? start + 1 : -start - 1;
+            List<Department> result = new ArrayList<>();
+            int[] candidates = candidates(query);
+            if (candidates == null) {
+                for (int position = start; position < names.length && result.size() < limit; position++) {
+                    addIfMatches(position, query, match, result);
+                }
+            } else {
+                int from = Arrays.binarySearch(candidates, start);
+                for (int i = from >= 0 ? from : -from - 1; i < candidates.length && result.size() < limit; i++) {
+                    addIfMatches(candidates[i], query, match, result);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @return positions of names containing all trigrams of the query (the shortest posting list),
+         * or null if the query is too short to use the index
+         */
+        private int[] candidates(String query) {
+            if (query.length() < GRAM_LENGTH) {
+                return null;
+            }
+            int[] shortest = null;
+            for (String gram : grams(query)) {
+                int[] posting = postings.getOrDefault(gram, new int[0]);
+                if (shortest == null || posting.length < shortest.length) {
+                    shortest = posting;
+                }
+            }
+            return shortest;
+        }
+
+        private void addIfMatches(int position, String query, Match match, List<Department> result) {
+            if (match == Match.PREFIX ? names[position].startsWith(query) : names[position].contains(query)) {
+                result.add(departments[position]);
+            }
+        }
+    }
+}
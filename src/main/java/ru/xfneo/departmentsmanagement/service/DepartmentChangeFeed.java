@@ -0,0 +1,350 @@
+package ru.xfneo.departmentsmanagement.service;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.xfneo.departmentsmanagement.domain.DepartmentChange;
+import ru.xfneo.departmentsmanagement.domain.DepartmentChangeHead;
+import ru.xfneo.departmentsmanagement.repository.DepartmentChangeHeadRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentChangeRepository;
+
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Change feed of departments: records changes in the transaction of the change and delivers committed changes
+ * to subscribers (long-poll requests and server-sent event streams). Changes of this instance are delivered
+ * right after commit, changes of other instances on the next poll of the change table.
+ * <p>
+ * Subscribers are delivered to independently by a pool of delivery threads: a subscriber has at most one delivery
+ * task at a time (changes committed during its delivery are read by the same task from its cursor), so a slow subscriber
+ * takes one thread and doesn't delay the others. A subscriber whose listener doesn't return within slow-subscriber-timeout,
+ * or which can't get a delivery thread because the queue of the pool is full, is dropped. Long-poll timeouts
+ * have their own thread.
+ */
+@Component
+@Lazy(false)
+@Log4j2
+public class DepartmentChangeFeed {
+    private final DepartmentChangeRepository departmentChangeRepository;
+    private final DepartmentChangeHeadRepository departmentChangeHeadRepository;
+    private final ThreadPoolExecutor deliveryExecutor;
+    private final ScheduledExecutorService timeoutExecutor;
+    private final long slowSubscriberTimeoutNanos;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    @PersistenceContext
+    private EntityManager entityManager;
+    @Value("${departments.changes.compact-after-minutes:60}")
+    private int compactAfterMinutes = 60;
+    @Value("${departments.changes.retention-days:7}")
+    private int retentionDays = 7;
+
+    /**
+     * @param deliveryThreads  number of threads delivering changes to subscribers
+     * @param deliveryQueueSize  maximum number of subscribers waiting for a delivery thread
+     * @param slowSubscriberTimeoutMillis  maximum time a listener may take to receive changes before its subscriber is dropped
+     */
+    @Autowired
+    public DepartmentChangeFeed(DepartmentChangeRepository departmentChangeRepository,
+                                DepartmentChangeHeadRepository departmentChangeHeadRepository,
+                                @Value("${departments.changes.delivery-threads:4}") int deliveryThreads,
+                                @Value("${departments.changes.delivery-queue-size:1000}") int deliveryQueueSize,
+                                @Value("${departments.changes.slow-subscriber-timeout:10000}") long slowSubscriberTimeoutMillis) {
+        this.departmentChangeRepository = departmentChangeRepository;
+        this.departmentChangeHeadRepository = departmentChangeHeadRepository;
+        this.deliveryExecutor = new ThreadPoolExecutor(deliveryThreads, deliveryThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(deliveryQueueSize), new CustomizableThreadFactory("department-changes-"));
+        this.timeoutExecutor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("department-changes-timeout-"));
+        this.slowSubscriberTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(slowSubscriberTimeoutMillis);
+    }
+
+    /**
+     * Record the change in the current transaction. The head of the feed stays locked until the transaction ends,
+     * so concurrent changes wait for each other and are committed in seq order.
+     *
+     * @param type  type of the change
+     * @param departmentId  id of the changed department
+     * @param name  name of the department after the change
+     * @param version  version of the department after the change
+     * @param parentId  parent of the department after the change, null for a root department
+     * @return recorded change.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public DepartmentChange record(DepartmentChange.Type type, long departmentId, String name, long version, Long parentId) {
+        DepartmentChangeHead head = departmentChangeHeadRepository.findForUpdate()
+                .orElseGet(() -> departmentChangeHeadRepository.save(new DepartmentChangeHead(DepartmentChangeHead.ID, 0, 0)));
+        head.setLastSeq(head.getLastSeq() + 1);
+        DepartmentChange change = new DepartmentChange(head.getLastSeq(), type, departmentId, name, version, parentId);
+        // persist instead of save: seq is assigned, save would select the change before inserting it
+        entityManager.persist(change);
+        publishAfterCommit();
+        return change;
+    }
+
+    /**
+     * @param since  seq of the last change known to the consumer
+     * @param limit  maximum number of changes
+     * @return committed changes after since, ordered by seq.
+     */
+    public List<DepartmentChange> findSince(long since, int limit) {
+        return departmentChangeRepository.findBySeqGreaterThanOrderBySeqAsc(since, PageRequest.of(0, limit));
+    }
+
+    /**
+     * @return seq of the last committed change, 0 if there are no changes
+     */
+    public long findLastSeq() {
+        return departmentChangeHeadRepository.findById(DepartmentChangeHead.ID).map(DepartmentChangeHead::getLastSeq).orElse(0L);
+    }
+
+    /**
+     * @return seq up to which changes were deleted by retention, consumers behind it have to reload all departments
+     */
+    public long findPurgedSeq() {
+        return departmentChangeHeadRepository.findById(DepartmentChangeHead.ID).map(DepartmentChangeHead::getPurgedSeq).orElse(0L);
+    }
+
+    /**
+     * Long poll: get changes after since, waiting for the next change if there are none yet.
+     *
+     * @param since  seq of the last change known to the consumer
+     * @param limit  maximum number of changes
+     * @param waitMillis  maximum time to wait for a change
+     * @return future of changes after since, completed with empty list if there are no changes during waitMillis.
+     */
+    public CompletableFuture<List<DepartmentChange>> awaitChanges(long since, int limit, long waitMillis) {
+        List<DepartmentChange> changes = findSince(since, limit);
+        if (!changes.isEmpty() || waitMillis <= 0) {
+            return CompletableFuture.completedFuture(changes);
+        }
+        CompletableFuture<List<DepartmentChange>> future = new CompletableFuture<>();
+        Subscription subscription = subscribe(since, limit, delivered -> {
+            future.complete(delivered);
+            return false;
+        }, () -> future.complete(Collections.emptyList()));
+        ScheduledFuture<?> timeout = timeoutExecutor.schedule(() -> {
+            unsubscribe(subscription);
+            future.complete(Collections.emptyList());
+        }, waitMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete((delivered, throwable) -> timeout.cancel(false));
+        return future;
+    }
+
+    /**
+     * Deliver changes after since to the listener, now and whenever new changes are committed, in batches of up to limit changes.
+     * The listener is called by one thread at a time.
+     *
+     * @param listener  receives the next changes, returns false to unsubscribe
+     * @param onDropped  called once if the subscriber is dropped because it falls behind, after its listener has returned
+     * @return subscription to pass to {@link #unsubscribe(Subscription)}
+     */
+    public Subscription subscribe(long since, int limit, Predicate<List<DepartmentChange>> listener, Runnable onDropped) {
+        Subscription subscription = new Subscription(since, limit, listener, onDropped);
+        subscriptions.add(subscription);
+        scheduleDelivery(subscription);
+        return subscription;
+    }
+
+    public void unsubscribe(Subscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    /**
+     * Schedule delivery of committed changes to the subscribers which are behind the last change,
+     * and drop the subscribers whose listener is receiving changes for longer than slow-subscriber-timeout.
+     */
+    @Scheduled(fixedDelayString = "${departments.changes.poll-interval:1000}")
+    public void publish() {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        long lastSeq = findLastSeq();
+        long now = System.nanoTime();
+        for (Subscription subscription : subscriptions) {
+            long listenerCalledAt = subscription.listenerCalledAt;
+            if (listenerCalledAt != 0 && now - listenerCalledAt > slowSubscriberTimeoutNanos) {
+                log.warn("Subscriber of department changes after {} is dropped: it receives changes for more than {} ms",
+                        subscription.cursor, TimeUnit.NANOSECONDS.toMillis(slowSubscriberTimeoutNanos));
+                drop(subscription);
+            } else if (subscription.cursor < lastSeq) {
+                scheduleDelivery(subscription);
+            }
+        }
+    }
+
+    /**
+     * Delete changes superseded by a later change of the same department after compact-after-minutes,
+     * and all changes after retention-days.
+     */
+    @Scheduled(fixedDelayString = "${departments.changes.compaction-interval:3600000}",
+            initialDelayString = "${departments.changes.compaction-interval:3600000}")
+    @Transactional
+    public void compact() {
+        Instant now = Instant.now();
+        int superseded = departmentChangeRepository.deleteSupersededBefore(now.minus(compactAfterMinutes, ChronoUnit.MINUTES));
+        int expired = 0;
+        long purgedSeq = departmentChangeRepository.findLastSeqBefore(now.minus(retentionDays, ChronoUnit.DAYS));
+        if (purgedSeq > 0) {
+            departmentChangeHeadRepository.findForUpdate().ifPresent(head -> head.setPurgedSeq(Math.max(head.getPurgedSeq(), purgedSeq)));
+            expired = departmentChangeRepository.deleteUpTo(purgedSeq);
+        }
+        log.info("Department change feed compacted: {} superseded and {} expired change(s) deleted", superseded, expired);
+    }
+
+    @PreDestroy
+    public void close() {
+        deliveryExecutor.shutdownNow();
+        timeoutExecutor.shutdownNow();
+    }
+
+    private void publishAfterCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive() || TransactionSynchronizationManager.hasResource(this)) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(this, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResource(DepartmentChangeFeed.this);
+                if (status == STATUS_COMMITTED) {
+                    try {
+                        deliveryExecutor.execute(DepartmentChangeFeed.this::publish);
+                    } catch (RejectedExecutionException e) {
+                        log.debug("Department changes are not published: {}", e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Start the delivery task of the subscription unless it is running: the running task delivers the new changes too.
+     */
+    private void scheduleDelivery(Subscription subscription) {
+        if (subscription.deliveryRequests.getAndIncrement() > 0) {
+            return;
+        }
+        try {
+            deliveryExecutor.execute(() -> deliverRequested(subscription));
+        } catch (RejectedExecutionException e) {
+            subscription.deliveryRequests.set(0);
+            if (!deliveryExecutor.isShutdown()) {
+                log.warn("Subscriber of department changes after {} is dropped: all delivery threads are busy", subscription.cursor);
+                drop(subscription);
+                subscription.notifyDropped();
+            }
+        }
+    }
+
+    /**
+     * Deliver changes until no delivery was requested during the previous one.
+     */
+    private void deliverRequested(Subscription subscription) {
+        int requests = subscription.deliveryRequests.get();
+        do {
+            deliver(subscription);
+            requests = subscription.deliveryRequests.addAndGet(-requests);
+        } while (requests > 0);
+        if (subscription.dropped) {
+            subscription.notifyDropped();
+        }
+    }
+
+    private void deliver(Subscription subscription) {
+        try {
+            List<DepartmentChange> changes;
+            do {
+                if (!subscriptions.contains(subscription)) {
+                    return;
+                }
+                changes = findSince(subscription.cursor, subscription.limit);
+                if (changes.isEmpty()) {
+                    return;
+                }
+                subscription.cursor = changes.get(changes.size() - 1).getSeq();
+                boolean subscribed;
+                subscription.listenerCalledAt = System.nanoTime();
+                try {
+                    subscribed = subscription.listener.test(changes);
+                } finally {
+                    subscription.listenerCalledAt = 0;
+                }
+                if (!subscribed) {
+                    unsubscribe(subscription);
+                    return;
+                }
+            } while (changes.size() == subscription.limit);
+        } catch (RuntimeException e) {
+            log.warn("Department changes after {} are not delivered: {}", subscription.cursor, e.getMessage());
+        }
+    }
+
+    /**
+     * Unsubscribe the subscriber which falls behind, it is notified by its delivery task after the listener returns.
+     */
+    private void drop(Subscription subscription) {
+        subscription.dropped = true;
+        unsubscribe(subscription);
+    }
+
+    public static final class Subscription {
+        private volatile long cursor;
+        private final int limit;
+        private final Predicate<List<DepartmentChange>> listener;
+        private final Runnable onDropped;
+        /**
+         * Deliveries requested since the delivery task started, 0 if the task is not running
+         */
+        private final AtomicInteger deliveryRequests = new AtomicInteger();
+        private final AtomicBoolean droppedNotified = new AtomicBoolean();
+        /**
+         * Time the listener was called, 0 if it is not receiving changes now
+         */
+        private volatile long listenerCalledAt;
+        private volatile boolean dropped;
+
+        private Subscription(long since, int limit, Predicate<List<DepartmentChange>> listener, Runnable onDropped) {
+            this.cursor = since;
+            this.limit = limit;
+            this.listener = listener;
+            this.onDropped = onDropped;
+        }
+
+        private void notifyDropped() {
+            if (droppedNotified.compareAndSet(false, true)) {
+                try {
+                    onDropped.run();
+                } catch (RuntimeException e) {
+                    log.warn("Dropped subscriber of department changes is not notified: {}", e.getMessage());
+                }
+            }
+        }
+    }
+}
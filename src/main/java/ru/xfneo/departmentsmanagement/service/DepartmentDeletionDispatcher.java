@@ -0,0 +1,200 @@
+package ru.xfneo.departmentsmanagement.service;
+
+import feign.Response;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.cache.Cache;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.xfneo.departmentsmanagement.client.EmployeeClient;
+import ru.xfneo.departmentsmanagement.client.EmployeeServiceUnavailableException;
+import ru.xfneo.departmentsmanagement.domain.DepartmentChange;
+import ru.xfneo.departmentsmanagement.domain.DepartmentDeletion;
+import ru.xfneo.departmentsmanagement.repository.DepartmentClosureRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentDeletionRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentRepository;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Drains the department deletion outbox: sends pending transfer commands to employee-management-ws
+ * and deletes the departments whose employees were transferred.
+ */
+@Component
+@Lazy(false)
+@Log4j2
+public class DepartmentDeletionDispatcher {
+    private static final int MAX_MESSAGE_LENGTH = 1024;
+    private static final String HAS_SUBDEPARTMENTS_MESSAGE = "Department Has Subdepartments";
+    private static final String NOT_DELETED_MESSAGE_PREFIX =
+            "Department is not deleted: it has got subdepartments or does not exist; employees are transferred: ";
+    private final DepartmentDeletionRepository departmentDeletionRepository;
+    private final DepartmentRepository departmentRepository;
+    private final EmployeeClient employeeClient;
+    private final Cache departmentCache;
+    private final DepartmentChangeFeed departmentChangeFeed;
+    private final DepartmentListCache departmentListCache;
+    private final DepartmentClosureRepository departmentClosureRepository;
+    private final LocalDepartmentSnapshot localDepartmentSnapshot;
+    private final TransactionTemplate transactionTemplate;
+    @Value("${departments.deletion.batch-size:100}")
+    private int batchSize = 100;
+    @Value("${departments.deletion.max-attempts:10}")
+    private int maxAttempts = 10;
+    /**
+     * Time after which a deletion claimed by a dispatcher which has stopped is claimed again,
+     * longer than a call of employee-management-ws with retries
+     */
+    @Value("${departments.deletion.claim-timeout:60000}")
+    private long claimTimeoutMillis = 60000;
+
+    @Autowired
+    public DepartmentDeletionDispatcher(DepartmentDeletionRepository departmentDeletionRepository, DepartmentRepository departmentRepository,
+                                        EmployeeClient employeeClient, Cache departmentCache, DepartmentChangeFeed departmentChangeFeed,
+                                        DepartmentListCache departmentListCache, DepartmentClosureRepository departmentClosureRepository,
+                                        LocalDepartmentSnapshot localDepartmentSnapshot, PlatformTransactionManager transactionManager) {
+        this.departmentDeletionRepository = departmentDeletionRepository;
+        this.departmentRepository = departmentRepository;
+        this.employeeClient = employeeClient;
+        this.departmentCache = departmentCache;
+        this.departmentChangeFeed = departmentChangeFeed;
+        this.departmentListCache = departmentListCache;
+        this.departmentClosureRepository = departmentClosureRepository;
+        this.localDepartmentSnapshot = localDepartmentSnapshot;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Process pending deletions batch by batch until the outbox is drained
+     * or employee-management-ws stops responding successfully.
+     * A batch is claimed in a short transaction, employee-management-ws is called outside of any transaction,
+     * and each deletion is completed in its own short transaction, so the locks of the closure table and of the change feed
+     * are not held while waiting for employee-management-ws.
+     */
+    @Scheduled(fixedDelayString = "${departments.deletion.dispatch-interval:1000}")
+    public void dispatch() {
+        int completed;
+        do {
+            List<DepartmentDeletion> departmentDeletions = transactionTemplate.execute(status -> claimBatch());
+            completed = departmentDeletions == null ? 0 : dispatchBatch(departmentDeletions);
+        } while (completed == batchSize);
+    }
+
+    /**
+     * Mark the oldest claimable deletions as in progress, must be called in a transaction.
+     *
+     * @return claimed deletions
+     */
+    private List<DepartmentDeletion> claimBatch() {
+        Instant now = Instant.now();
+        List<DepartmentDeletion> departmentDeletions = departmentDeletionRepository
+                .findClaimable(now.minusMillis(claimTimeoutMillis), PageRequest.of(0, batchSize));
+        for (DepartmentDeletion departmentDeletion : departmentDeletions) {
+            departmentDeletion.setStatus(DepartmentDeletion.Status.IN_PROGRESS);
+            departmentDeletion.setUpdatedAt(now);
+        }
+        return departmentDeletions;
+    }
+
+    /**
+     * @return number of deletions completed in the batch
+     */
+    private int dispatchBatch(List<DepartmentDeletion> departmentDeletions) {
+        int completed = 0;
+        for (int i = 0; i < departmentDeletions.size(); i++) {
+            DepartmentDeletion departmentDeletion = departmentDeletions.get(i);
+            if (departmentRepository.existsByParentId(departmentDeletion.getDepartmentId())) {
+                // employees of a department which can't be deleted are not transferred
+                departmentDeletion.setStatus(DepartmentDeletion.Status.FAILED);
+                departmentDeletion.setMessage(HAS_SUBDEPARTMENTS_MESSAGE);
+                save(departmentDeletion);
+                continue;
+            }
+            try (Response response = employeeClient.replaceDepartmentId(DepartmentService.transferRequestBody(
+                    departmentDeletion.getDepartmentId(), departmentDeletion.getReplacementDepartmentId()))) {
+                departmentDeletion.setResponseStatus(response.status());
+                departmentDeletion.setMessage(abbreviate(DepartmentService.responseBody(response)));
+                if (response.status() >= 200 && response.status() < 300) {
+                    transactionTemplate.execute(status -> complete(departmentDeletion));
+                    completed++;
+                } else {
+                    if (response.status() < 500) {
+                        departmentDeletion.setStatus(DepartmentDeletion.Status.FAILED);
+                    } else {
+                        registerFailedAttempt(departmentDeletion);
+                    }
+                    save(departmentDeletion);
+                }
+            } catch (EmployeeServiceUnavailableException e) {
+                log.warn("Dispatch of department deletion {} postponed: {}", departmentDeletion.getId(), e.getMessage());
+                departmentDeletion.setMessage(abbreviate(e.getMessage()));
+                registerFailedAttempt(departmentDeletion);
+                release(departmentDeletions.subList(i, departmentDeletions.size()));
+                break;
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Delete the department whose employees were transferred and record the deletion, must be called in a transaction.
+     * The deletion is done only if the department is deleted, it fails if the department got subdepartments
+     * or was deleted after the check in {@link #dispatchBatch(List)}.
+     */
+    private DepartmentDeletion complete(DepartmentDeletion departmentDeletion) {
+        departmentClosureRepository.lockForWrite();
+        if (departmentRepository.deleteByIdReturningCount(departmentDeletion.getDepartmentId()) > 0) {
+            departmentDeletion.setStatus(DepartmentDeletion.Status.DONE);
+            localDepartmentSnapshot.refreshAfterCommit(departmentChangeFeed.record(
+                    DepartmentChange.Type.DELETED, departmentDeletion.getDepartmentId(), null, 0, null));
+            departmentListCache.invalidateAfterCommit();
+        } else {
+            log.error("Department {} is not deleted after transfer of its employees to department {}",
+                    departmentDeletion.getDepartmentId(), departmentDeletion.getReplacementDepartmentId());
+            departmentDeletion.setStatus(DepartmentDeletion.Status.FAILED);
+            departmentDeletion.setMessage(abbreviate(NOT_DELETED_MESSAGE_PREFIX + departmentDeletion.getMessage()));
+        }
+        DepartmentService.evictAfterCommit(departmentCache, departmentDeletion.getDepartmentId());
+        departmentDeletion.setUpdatedAt(Instant.now());
+        return departmentDeletionRepository.save(departmentDeletion);
+    }
+
+    /**
+     * Return the claimed deletions which were not dispatched to pending, the first one keeps its failed attempt.
+     */
+    private void release(List<DepartmentDeletion> departmentDeletions) {
+        Instant now = Instant.now();
+        for (DepartmentDeletion departmentDeletion : departmentDeletions) {
+            if (departmentDeletion.getStatus() == DepartmentDeletion.Status.IN_PROGRESS) {
+                departmentDeletion.setStatus(DepartmentDeletion.Status.PENDING);
+            }
+            departmentDeletion.setUpdatedAt(now);
+        }
+        departmentDeletionRepository.saveAll(departmentDeletions);
+    }
+
+    private void save(DepartmentDeletion departmentDeletion) {
+        departmentDeletion.setUpdatedAt(Instant.now());
+        departmentDeletionRepository.save(departmentDeletion);
+    }
+
+    private static String abbreviate(String message) {
+        return message == null || message.length() <= MAX_MESSAGE_LENGTH ? message : message.substring(0, MAX_MESSAGE_LENGTH);
+    }
+
+    private void registerFailedAttempt(DepartmentDeletion departmentDeletion) {
+        departmentDeletion.setAttempts(departmentDeletion.getAttempts() + 1);
+        if (departmentDeletion.getAttempts() >= maxAttempts) {
+            log.error("Department deletion {} failed after {} attempt(s)", departmentDeletion.getId(), departmentDeletion.getAttempts());
+            departmentDeletion.setStatus(DepartmentDeletion.Status.FAILED);
+        } else {
+            departmentDeletion.setStatus(DepartmentDeletion.Status.PENDING);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package ru.xfneo.departmentsmanagement.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.xfneo.departmentsmanagement.domain.Department;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * JSON array of all departments serialized once, and its gzip-compressed copy, so GET /api/departments writes
+ * prepared bytes to the response instead of loading and serializing every department on every request.
+ * The list is kept for one ETag of the department table: the first request after a change of any instance rebuilds it,
+ * changes of this instance also drop it right after commit.
+ * Binary representations (Smile, CBOR) are transcoded from the JSON on first request and kept with the list.
+ */
+@Component
+@Log4j2
+public class DepartmentListCache {
+    private final ObjectMapper objectMapper;
+    private final long maxSize;
+    private final Object rebuildLock = new Object();
+    private volatile SerializedList list;
+    /**
+     * ETag of the list which was larger than max-size, not rebuilt again until the table changes
+     */
+    private volatile String tooLargeETag;
+    /**
+     * Incremented on every invalidation, a list built from a snapshot read before it is not kept
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param maxSize  maximum size in bytes of the serialized list, larger lists aren't cached; 0 disables the cache
+     */
+    @Autowired
+    public DepartmentListCache(ObjectMapper objectMapper, @Value("${departments.list-cache.max-size:16777216}") long maxSize) {
+        this.objectMapper = objectMapper;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the serialized list with the ETag, building it from the loader if the cached list has another ETag.
+     * One thread builds the list, concurrent requests for the same ETag wait for it.
+     *
+     * @param eTag  ETag of the list expected by the caller
+     * @param loader  passes all departments ordered by id to the consumer, all read in one snapshot,
+     *                and returns ETag of that snapshot
+     * @return serialized list with the ETag,
+     * or null if the list is larger than max-size or the departments were changed after the caller got the ETag.
+     */
+    public SerializedList get(String eTag, Function<Consumer<Department>, String> loader) {
+        SerializedList cached = list;
+        if (cached != null && cached.eTag.equals(eTag)) {
+            return cached;
+        }
+        if (maxSize <= 0 || eTag.equals(tooLargeETag)) {
+            return null;
+        }
+        synchronized (rebuildLock) {
+            cached = list;
+            if (cached != null && cached.eTag.equals(eTag)) {
+                return cached;
+            }
+            long buildGeneration = generation.get();
+            SerializedList built;
+            try {
+                built = build(loader);
+            } catch (ListTooLargeException e) {
+                log.warn("Department list {} is larger than {} bytes and is not cached", eTag, maxSize);
+                tooLargeETag = eTag;
+                if (generation.get() != buildGeneration) {
+                    tooLargeETag = null;
+                }
+                return null;
+            }
+            list = built;
+            // invalidate() doesn't wait for the build: if it ran meanwhile, drop the list read before the change
+            if (generation.get() != buildGeneration) {
+                list = null;
+            }
+            return built.eTag.equals(eTag) ? built : null;
+        }
+    }
+
+    /**
+     * Drop the cached list, after the end of the current transaction if there is one:
+     * requests between the change and its commit still get the list of the previous ETag.
+     */
+    public void invalidateAfterCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate();
+            return;
+        }
+        if (TransactionSynchronizationManager.hasResource(this)) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(this, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResource(DepartmentListCache.this);
+                invalidate();
+            }
+        });
+    }
+
+    /**
+     * Drop the cached list without waiting for a rebuild in progress: it runs after commit of writers
+     * which still hold their connections, while the rebuild may wait for a connection of the pool.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        list = null;
+        tooLargeETag = null;
+    }
+
+    private SerializedList build(Function<Consumer<Department>, String> loader) {
+        ByteArrayOutputStream json = new ByteArrayOutputStream(8192);
+        String eTag;
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(json)) {
+            generator.writeStartArray();
+            eTag = loader.apply(department -> {
+                try {
+                    generator.writeObject(department);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                // the generator buffers a few KB, the size may exceed the limit by that much before the check
+                if (json.size() > maxSize) {
+                    throw new ListTooLargeException();
+                }
+            });
+            generator.writeEndArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (json.size() > maxSize) {
+            throw new ListTooLargeException();
+        }
+        byte[] jsonBytes = json.toByteArray();
+        return new SerializedList(eTag, jsonBytes, gzip(jsonBytes));
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream(Math.max(bytes.length / 4, 64));
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(gzip, 8192)) {
+            gzipOutputStream.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return gzip.toByteArray();
+    }
+
+    /**
+     * Serialized list of all departments, the arrays must not be modified.
+     */
+    @Getter
+    public static final class SerializedList {
+        private static final JsonFactory JSON_FACTORY = new JsonFactory();
+        private final String eTag;
+        private final byte[] json;
+        private final byte[] gzip;
+        @Getter(AccessLevel.NONE)
+        private final Map<String, byte[]> encodings = new ConcurrentHashMap<>();
+
+        public SerializedList(String eTag, byte[] json, byte[] gzip) {
+            this.eTag = eTag;
+            this.json = json;
+            this.gzip = gzip;
+        }
+
+        /**
+         * Get the list in the format of the factory, transcoded from JSON once per format.
+         *
+         * @param factory  factory of the binary format, e.g. Smile or CBOR
+         * @param gzip  true to get the encoded list gzip-compressed
+         * @return encoded list, the array must not be modified
+         */
+        public byte[] getEncoded(JsonFactory factory, boolean gzip) {
+            String format = factory.getFormatName();
+            byte[] encoded = encodings.computeIfAbsent(format, key -> transcode(json, factory));
+            return gzip ? encodings.computeIfAbsent(format + "+gzip", key -> DepartmentListCache.gzip(encoded)) : encoded;
+        }
+
+        private static byte[] transcode(byte[] json, JsonFactory factory) {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream(Math.max(json.length / 2, 64));
+            try (JsonParser parser = JSON_FACTORY.createParser(json);
+                 JsonGenerator generator = factory.createGenerator(encoded)) {
+                parser.nextToken();
+                generator.copyCurrentStructure(parser);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return encoded.toByteArray();
+        }
+    }
+
+    private static final class ListTooLargeException extends RuntimeException {
+        ListTooLargeException() {
+            super(null, null, false, false);
+        }
+    }
+}
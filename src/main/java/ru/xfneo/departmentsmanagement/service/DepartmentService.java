@@ -1,84 +1,560 @@
 package ru.xfneo.departmentsmanagement.service;
 
 import feign.Response;
+import feign.Util;
+import io.micrometer.core.annotation.Timed;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import ru.xfneo.departmentsmanagement.client.EmployeeClient;
+import ru.xfneo.departmentsmanagement.client.EmployeeServiceUnavailableException;
+import ru.xfneo.departmentsmanagement.datasource.ReadFromReplica;
 import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.domain.DepartmentChange;
+import ru.xfneo.departmentsmanagement.domain.DepartmentDeletion;
+import ru.xfneo.departmentsmanagement.dto.BatchItemResult;
+import ru.xfneo.departmentsmanagement.dto.DepartmentChanges;
+import ru.xfneo.departmentsmanagement.dto.DepartmentPage;
+import ru.xfneo.departmentsmanagement.repository.DepartmentClosureRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentDeletionRepository;
 import ru.xfneo.departmentsmanagement.repository.DepartmentRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentSnapshotLoader;
+import ru.xfneo.departmentsmanagement.search.DepartmentSearchIndex;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 @Service
 @Log4j2
 public class DepartmentService {
+    public static final String SERVICE_METRIC = "departments.service";
+    public static final int DEFAULT_PAGE_LIMIT = 100;
+    public static final int MAX_PAGE_LIMIT = 1000;
+    public static final int MAX_BATCH_SIZE = 1000;
+    public static final String DEPARTMENT_DELETIONS_URI = "/api/departments/deletions/";
+    public static final int MAX_CHANGES_WAIT_SECONDS = 25;
+    private static final Set<DepartmentDeletion.Status> DELETION_IN_PROGRESS_STATUSES =
+            EnumSet.of(DepartmentDeletion.Status.PENDING, DepartmentDeletion.Status.IN_PROGRESS);
     private final DepartmentRepository departmentRepository;
+    private final DepartmentDeletionRepository departmentDeletionRepository;
     private final EmployeeClient employeeClient;
+    private final Cache departmentCache;
+    private final DepartmentSearchIndex departmentSearchIndex;
+    private final DepartmentSnapshotLoader departmentSnapshotLoader;
+    private final DepartmentChangeFeed departmentChangeFeed;
+    private final DepartmentListCache departmentListCache;
+    private final DepartmentClosureRepository departmentClosureRepository;
+    private final LocalDepartmentSnapshot localDepartmentSnapshot;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate readOnlyTransactionTemplate;
+    private final TransactionTemplate snapshotTransactionTemplate;
 
     @Autowired
-    public DepartmentService(DepartmentRepository departmentRepository, EmployeeClient employeeClient) {
+    public DepartmentService(DepartmentRepository departmentRepository, DepartmentDeletionRepository departmentDeletionRepository,
+                             EmployeeClient employeeClient, Cache departmentCache, DepartmentSearchIndex departmentSearchIndex,
+                             DepartmentSnapshotLoader departmentSnapshotLoader, DepartmentChangeFeed departmentChangeFeed,
+                             DepartmentListCache departmentListCache, DepartmentClosureRepository departmentClosureRepository,
+                             LocalDepartmentSnapshot localDepartmentSnapshot, PlatformTransactionManager transactionManager) {
         this.departmentRepository = departmentRepository;
+        this.departmentDeletionRepository = departmentDeletionRepository;
         this.employeeClient = employeeClient;
+        this.departmentCache = departmentCache;
+        this.departmentSearchIndex = departmentSearchIndex;
+        this.departmentSnapshotLoader = departmentSnapshotLoader;
+        this.departmentChangeFeed = departmentChangeFeed;
+        this.departmentListCache = departmentListCache;
+        this.departmentClosureRepository = departmentClosureRepository;
+        this.localDepartmentSnapshot = localDepartmentSnapshot;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+        // the ETag and the departments of the serialized list must be read from the same snapshot
+        this.snapshotTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.snapshotTransactionTemplate.setReadOnly(true);
+        this.snapshotTransactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
     }
 
     /**
-     * Get all existing departments from repository
+     * Get all existing departments from the local snapshot, or from repository if the snapshot is not current
      *
-     * @return List of all existing departments from repository.
+     * @return List of all existing departments.
      */
+    @Timed(SERVICE_METRIC)
+    @ReadFromReplica
     public List<Department> findAll() {
+        if (localDepartmentSnapshot.isCurrent()) {
+            return localDepartmentSnapshot.findAll();
+        }
         return departmentRepository.findAll();
     }
 
     /**
-     * Get the department from repository.
+     * Get a page of departments ordered by id, starting after the cursor (keyset pagination).
+     *
+     * @param after  id of the last department of the previous page, null for the first page
+     * @param limit  maximum number of departments in the page, null for default limit
+     * @return ResponseEntity with code 200 and DepartmentPage in body (nextCursor is null for the last page),
+     * or ResponseEntity with code 400 and body "Parameter limit must be between 1 and 1000" if limit is not valid.
+     */
+    @Timed(SERVICE_METRIC)
+    @ReadFromReplica
+    public ResponseEntity<?> findPage(Long after, Integer limit) {
+        int pageLimit = limit == null ? DEFAULT_PAGE_LIMIT : limit;
+        if (pageLimit < 1 || pageLimit > MAX_PAGE_LIMIT) {
+            return ResponseEntity.status(400).body("Parameter limit must be between 1 and " + MAX_PAGE_LIMIT);
+        }
+        List<Department> departments = departmentRepository.findByIdGreaterThanOrderByIdAsc(
+                after == null ? Long.MIN_VALUE : after, PageRequest.of(0, pageLimit + 1));
+        return ResponseEntity.ok(toPage(departments, pageLimit));
+    }
+
+    /**
+     * Search departments by name, case-insensitive, ordered by id, starting after the cursor (keyset pagination).
+     *
+     * @param query  text to find in department names
+     * @param match  "prefix" to find names starting with the query, "substring" to find names containing it
+     * @param after  id of the last department of the previous page, null for the first page
+     * @param limit  maximum number of departments in the page, null for default limit
+     * @return ResponseEntity with code 200 and DepartmentPage in body (nextCursor is null for the last page),
+     * or ResponseEntity with code 400 and body "Parameter q must not be empty" if query is empty,
+     * or ResponseEntity with code 400 and body "Parameter match must be prefix or substring" if match is not valid,
+     * or ResponseEntity with code 400 and body "Parameter limit must be between 1 and 1000" if limit is not valid.
+     */
+    @Timed(SERVICE_METRIC)
+    @ReadFromReplica
+    public ResponseEntity<?> search(String query, String match, Long after, Integer limit) {
+        if (query == null || query.isEmpty()) {
+            return ResponseEntity.status(400).body("Parameter q must not be empty");
+        }
+        DepartmentSearchIndex.Match searchMatch;
+        try {
+            searchMatch = DepartmentSearchIndex.Match.valueOf(match.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(400).body("Parameter match must be prefix or substring");
+        }
+        int pageLimit = limit == null ? DEFAULT_PAGE_LIMIT : limit;
+        if (pageLimit < 1 || pageLimit > MAX_PAGE_LIMIT) {
+            return ResponseEntity.status(400).body("Parameter limit must be between 1 and " + MAX_PAGE_LIMIT);
+        }
+        List<Department> departments = departmentSearchIndex.search(
+                query, searchMatch, after == null ? Long.MIN_VALUE : after, pageLimit + 1);
+        return ResponseEntity.ok(toPage(departments, pageLimit));
+    }
+
+    /**
+     * Get ETag of the list of all departments from the seq of the last change of the change feed: every create, update,
+     * delete and import records a change, so one read of the head of the feed validates the list without scanning departments.
+     *
+     * @return strong ETag which changes whenever any department is created, updated or deleted.
+     */
+    @Timed(SERVICE_METRIC)
+    @ReadFromReplica
+    public String findAllETag() {
+        if (localDepartmentSnapshot.isCurrent()) {
+            return localDepartmentSnapshot.findETag();
+        }
+        return listETag(departmentChangeFeed.findLastSeq());
+    }
+
+    /**
+     * Pass all existing departments ordered by id to the action one by one,
+     * reading them from the local snapshot or a database cursor without loading the whole table into memory.
+     *
+     * @param action  action to perform for each department
+     */
+    @Timed(SERVICE_METRIC)
+    @ReadFromReplica
+    public void forEach(Consumer<Department> action) {
+        if (localDepartmentSnapshot.isCurrent()) {
+            localDepartmentSnapshot.forEach(action);
+            return;
+        }
+        readOnlyTransactionTemplate.execute(status -> {
+            try (Stream<Department> departments = departmentRepository.streamAll()) {
+                departments.forEach(action);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Get the JSON array of all departments ordered by id, serialized once per ETag of the list
+     * and kept until the next change of departments.
+     *
+     * @param eTag  ETag of the list from {@link #findAllETag()}
+     * @return serialized list with the ETag, as JSON and gzip-compressed JSON,
+     * or null if the list is too large to be cached or was changed after the ETag was read:
+     * the caller writes the departments with {@link #forEach(Consumer)} then.
+     */
+    @Timed(SERVICE_METRIC)
+    @ReadFromReplica
+    public DepartmentListCache.SerializedList findAllSerialized(String eTag) {
+        return departmentListCache.get(eTag, action -> {
+            if (localDepartmentSnapshot.isCurrent()) {
+                return localDepartmentSnapshot.forEachInSnapshot(action);
+            }
+            return snapshotTransactionTemplate.execute(status -> {
+                String snapshotETag = listETag(departmentChangeFeed.findLastSeq());
+                try (Stream<Department> departments = departmentRepository.streamAll()) {
+                    departments.forEach(action);
+                }
+                return snapshotETag;
+            });
+        });
+    }
+
+    /**
+     * Get the department from the local snapshot, or from cache, or from repository if it is not cached yet.
      *
      * @param id  ID of the department you want to receive
-     * @return ResponseEntity with code 200 and department in body,
+     * @return ResponseEntity with code 200, ETag header with department's version and department in body,
      * or ResponseEntity with code 404 and body "Department Not Found" if department with that id does not exist.
      */
+    @Timed(SERVICE_METRIC)
+    @ReadFromReplica
     public ResponseEntity<?> find(Long id) {
-        Optional<Department> departmentOptional = departmentRepository.findById(id);
-        if (departmentOptional.isPresent()) {
-            return ResponseEntity.ok(departmentOptional.get());
+        if (id == null) {
+            return ResponseEntity.status(404).body("Department Not Found");
+        }
+        Department department = localDepartmentSnapshot.isCurrent(id)
+                ? localDepartmentSnapshot.find(id)
+                : findCached(id);
+        if (department != null) {
+            return ResponseEntity.ok().eTag(eTag(department)).body(department);
         }
         return ResponseEntity.status(404).body("Department Not Found");
     }
 
     /**
-     * Create and save the department to repository.
+     * Get the department from cache, loading it from repository on a miss.
+     * A department which is not found is not cached, so a department created later (by another instance
+     * or by a snapshot import) is found by the next read instead of after the cache entry expires.
+     *
+     * @return the department, or null if it does not exist
+     */
+    private Department findCached(long id) {
+        try {
+            return departmentCache.get(id, () -> departmentRepository.findById(id).orElseThrow(DepartmentNotFoundException::new));
+        } catch (Cache.ValueRetrievalException e) {
+            if (e.getCause() instanceof DepartmentNotFoundException) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Get the subtree of the department from the closure table of the hierarchy.
+     *
+     * @param id  id of the root of the subtree
+     * @param maxDepth  depth of the deepest subdepartments to include (1 for direct subdepartments), null for all
+     * @return ResponseEntity with code 200 and list of the department and its subdepartments ordered by depth and id in body,
+     * or ResponseEntity with code 400 and body "Parameter maxDepth must not be negative" if maxDepth is not valid,
+     * or ResponseEntity with code 404 and body "Department Not Found" if department with that id does not exist.
+     */
+    @Timed(SERVICE_METRIC)
+    @ReadFromReplica
+    public ResponseEntity<?> findSubtree(Long id, Integer maxDepth) {
+        if (maxDepth != null && maxDepth < 0) {
+            return ResponseEntity.status(400).body("Parameter maxDepth must not be negative");
+        }
+        List<Department> subtree = id == null ? Collections.emptyList()
+                : departmentRepository.findSubtree(id, maxDepth == null ? Integer.MAX_VALUE : maxDepth);
+        if (subtree.isEmpty()) {
+            return ResponseEntity.status(404).body("Department Not Found");
+        }
+        return ResponseEntity.ok(subtree);
+    }
+
+    /**
+     * Get the ancestors of the department from the closure table of the hierarchy.
+     *
+     * @param id  id of the department
+     * @return ResponseEntity with code 200 and list of the ancestors from the root down to the parent of the department
+     * in body (empty for a root department),
+     * or ResponseEntity with code 404 and body "Department Not Found" if department with that id does not exist.
+     */
+    @Timed(SERVICE_METRIC)
+    @ReadFromReplica
+    public ResponseEntity<?> findAncestors(Long id) {
+        List<Department> ancestorsAndSelf = id == null ? Collections.emptyList()
+                : departmentRepository.findAncestorsAndSelf(id);
+        if (ancestorsAndSelf.isEmpty()) {
+            return ResponseEntity.status(404).body("Department Not Found");
+        }
+        return ResponseEntity.ok(new ArrayList<>(ancestorsAndSelf.subList(0, ancestorsAndSelf.size() - 1)));
+    }
+
+    /**
+     * Create and save the department to repository, under its parent department if parentId is set.
      *
      * @param department  department to save
-     * @return ResponseEntity with code 201 and saved department in body.
+     * @return ResponseEntity with code 201 and saved department in body,
+     * or ResponseEntity with code 400 and body "Parent Department Not Found" if the parent department does not exist.
      */
+    @Timed(SERVICE_METRIC)
+    @Transactional
     public ResponseEntity<?> create(Department department) {
-        return ResponseEntity.status(201).body(departmentRepository.save(department));
+        departmentClosureRepository.lockForWrite();
+        if (department.getParentId() != null && !departmentRepository.existsById(department.getParentId())) {
+            return parentNotFoundResponse();
+        }
+        Department savedDepartment = departmentRepository.save(department);
+        insertIntoHierarchy(savedDepartment);
+        recordChange(DepartmentChange.Type.CREATED, savedDepartment);
+        evictAfterCommit(departmentCache, savedDepartment.getId());
+        return ResponseEntity.status(201).body(savedDepartment);
+    }
+
+    /**
+     * Create and save the departments to repository in one transaction, inserts are sent in JDBC batches.
+     * Ids of the passed departments are ignored, new ids are allocated from the pooled sequence.
+     *
+     * @param departments  departments to save
+     * @return ResponseEntity with code 200 and list of BatchItemResult in body in the order of passed departments
+     * (item with code 201 and saved department, or item with code 400 if department is null or its parent department
+     * does not exist; parents are existing departments, not departments of the same batch),
+     * or ResponseEntity with code 400 and body "Batch size must be between 1 and 1000" if batch is empty or too big.
+     */
+    @Timed(SERVICE_METRIC)
+    @Transactional
+    public ResponseEntity<?> createAll(List<Department> departments) {
+        if (!isValidBatchSize(departments)) {
+            return batchSizeNotValidResponse();
+        }
+        departmentClosureRepository.lockForWrite();
+        Set<Long> parentIds = departments.stream()
+                .filter(Objects::nonNull)
+                .map(Department::getParentId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Set<Long> existingParentIds = parentIds.isEmpty() ? Collections.emptySet()
+                : new HashSet<>(departmentRepository.findExistingIds(parentIds));
+        List<Department> departmentsToSave = departments.stream()
+                .filter(department -> department != null
+                        && (department.getParentId() == null || existingParentIds.contains(department.getParentId())))
+                .peek(department -> {
+                    department.setId(0);
+                    department.setVersion(0);
+                })
+                .collect(Collectors.toList());
+        departmentRepository.saveAll(departmentsToSave);
+        departmentsToSave.forEach(this::insertIntoHierarchy);
+        List<BatchItemResult> results = new ArrayList<>(departments.size());
+        for (Department department : departments) {
+            if (department == null) {
+                results.add(BatchItemResult.of(400, "Department data is not valid!"));
+            } else if (department.getParentId() != null && !existingParentIds.contains(department.getParentId())) {
+                results.add(BatchItemResult.of(400, "Parent Department Not Found"));
+            } else {
+                recordChange(DepartmentChange.Type.CREATED, department);
+                evictAfterCommit(departmentCache, department.getId());
+                results.add(BatchItemResult.of(201, department));
+            }
+        }
+        return ResponseEntity.ok(results);
+    }
+
+    /**
+     * Update the departments and save to repository in one transaction.
+     * Original departments are loaded with one query, updates are sent in JDBC batches.
+     * Departments moved to another parent are moved in the hierarchy one by one in the order of the batch.
+     *
+     * @param editedDepartments  updated departments' data to save, department is looked up by its id
+     * @return ResponseEntity with code 200 and list of BatchItemResult in body in the order of passed departments
+     * (item with code 200 and updated department, or item with code 404 if original department does not exist,
+     * or item with code 400 if updated department is null or its parent department does not exist,
+     * or item with code 409 if the department would be moved into its own subtree),
+     * or ResponseEntity with code 400 and body "Batch size must be between 1 and 1000" if batch is empty or too big.
+     */
+    @Timed(SERVICE_METRIC)
+    @Transactional
+    public ResponseEntity<?> updateAll(List<Department> editedDepartments) {
+        if (!isValidBatchSize(editedDepartments)) {
+            return batchSizeNotValidResponse();
+        }
+        List<Long> ids = editedDepartments.stream()
+                .filter(Objects::nonNull)
+                .map(Department::getId)
+                .collect(Collectors.toList());
+        Map<Long, Department> originalDepartments = departmentRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(Department::getId, Function.identity()));
+        Map<Long, Long> originalVersions = originalDepartments.values().stream()
+                .collect(Collectors.toMap(Department::getId, Department::getVersion));
+        departmentClosureRepository.lockForWrite();
+        List<BatchItemResult> results = new ArrayList<>(editedDepartments.size());
+        for (Department editedDepartment : editedDepartments) {
+            if (editedDepartment == null) {
+                results.add(BatchItemResult.of(400, "Department data is not valid!"));
+                continue;
+            }
+            Department departmentToSave = originalDepartments.get(editedDepartment.getId());
+            if (departmentToSave == null) {
+                results.add(BatchItemResult.of(404, "Department Not Found"));
+                continue;
+            }
+            if (!Objects.equals(departmentToSave.getParentId(), editedDepartment.getParentId())) {
+                ResponseEntity<?> invalidParentResponse = validateParent(departmentToSave.getId(), editedDepartment.getParentId());
+                if (invalidParentResponse != null) {
+                    results.add(BatchItemResult.of(invalidParentResponse.getStatusCodeValue(), String.valueOf(invalidParentResponse.getBody())));
+                    continue;
+                }
+                moveSubtree(departmentToSave.getId(), editedDepartment.getParentId());
+            }
+            BeanUtils.copyProperties(editedDepartment, departmentToSave, "id", "version");
+            results.add(BatchItemResult.of(200, departmentToSave));
+        }
+        departmentRepository.saveAll(originalDepartments.values());
+        // versions of the changed departments are incremented on flush
+        departmentRepository.flush();
+        for (Department department : originalDepartments.values()) {
+            if (department.getVersion() != originalVersions.get(department.getId())) {
+                recordChange(DepartmentChange.Type.UPDATED, department);
+            }
+        }
+        originalDepartments.keySet().forEach(id -> evictAfterCommit(departmentCache, id));
+        return ResponseEntity.ok(results);
     }
 
     /**
-     * Update the department and save to repository.
+     * Update the department with a conditional UPDATE statement, without loading it first.
+     * The update is applied only if the department still has the version from ifMatch or, without ifMatch,
+     * the version of editedDepartment.
+     * Both name and parent are replaced, a department without parentId becomes a root department.
+     * The first UPDATE also expects the department under the same parent; if it changes no rows, the department
+     * is moved (or not updated at all), so it is updated again with the new parent after the parent is validated,
+     * and moved in the hierarchy with all its subdepartments.
      *
      * @param originalDepartmentId  id of the department to change
-     * @param editedDepartment  updated department's data to save
+     * @param editedDepartment  updated department's data to save, its version is the expected version if ifMatch is null
+     * @param ifMatch  value of "If-Match" header (ETag of the department), or null
      * @return ResponseEntity with code 200 and updated department in body,
      * or ResponseEntity with code 404 and body "Department Not Found" if original department does not exist,
-     * or ResponseEntity with code 400 and body "Department data is not valid!" if updated department is null.
+     * or ResponseEntity with code 409 and body "Department Version Conflict" if the department has another version,
+     * or ResponseEntity with code 400 and body "Parent Department Not Found" if the new parent department does not exist,
+     * or ResponseEntity with code 409 and body "Department Can't Be Moved Into Its Own Subtree"
+     * if the new parent department is the department itself or one of its subdepartments,
+     * or ResponseEntity with code 400 and body "Department data is not valid!" if updated department is null,
+     * or ResponseEntity with code 400 and body "Header If-Match is not valid" if ifMatch is not an ETag of a department.
      */
-    public ResponseEntity<?> update(Long originalDepartmentId, Department editedDepartment) {
-        Optional<Department> departmentOptional = departmentRepository.findById(originalDepartmentId);
-        if (!departmentOptional.isPresent()) {
-            return ResponseEntity.status(404).body("Department Not Found");
-        }
+    @Timed(SERVICE_METRIC)
+    @Transactional
+    public ResponseEntity<?> update(Long originalDepartmentId, Department editedDepartment, String ifMatch) {
         if (editedDepartment == null) return ResponseEntity.status(400).body("Department data is not valid!");
-        Department departmentToSave = departmentOptional.get();
-        BeanUtils.copyProperties(editedDepartment, departmentToSave, "id");
-        return ResponseEntity.ok(departmentRepository.save(departmentToSave));
+        Long expectedVersion = ifMatch == null ? Long.valueOf(editedDepartment.getVersion()) : versionOf(ifMatch);
+        if (expectedVersion == null) return ResponseEntity.status(400).body("Header If-Match is not valid");
+        Long parentId = editedDepartment.getParentId();
+        if (departmentRepository.updateAttributesIfParent(originalDepartmentId, expectedVersion, parentId,
+                Collections.singletonMap("name", editedDepartment.getName())) == 0) {
+            departmentClosureRepository.lockForWrite();
+            ResponseEntity<?> invalidParentResponse = validateParent(originalDepartmentId, parentId);
+            if (invalidParentResponse != null) return invalidParentResponse;
+            if (departmentRepository.updateNameAndParent(originalDepartmentId, expectedVersion, editedDepartment.getName(), parentId) == 0) {
+                return notUpdatedResponse(originalDepartmentId);
+            }
+            moveSubtree(originalDepartmentId, parentId);
+        }
+        Department updatedDepartment = new Department(originalDepartmentId, editedDepartment.getName(), expectedVersion + 1, parentId);
+        recordChange(DepartmentChange.Type.UPDATED, updatedDepartment);
+        evictAfterCommit(departmentCache, originalDepartmentId);
+        return ResponseEntity.ok().eTag(eTag(updatedDepartment)).body(updatedDepartment);
+    }
+
+    /**
+     * Update only the given fields of the department with a conditional UPDATE statement, without loading it first.
+     * The update is applied only if the department still has the expected version.
+     * A department with changed "parentId" is moved in the hierarchy with all its subdepartments (null for a root),
+     * found out the same way as in {@link #update(Long, Department, String)}.
+     *
+     * @param originalDepartmentId  id of the department to change
+     * @param changes  new values of the fields to change, may contain "version" with the expected version if ifMatch is null
+     * @param ifMatch  value of "If-Match" header (ETag of the department), or null
+     * @return ResponseEntity with code 204 and new ETag of the department,
+     * or ResponseEntity with code 404 and body "Department Not Found" if original department does not exist,
+     * or ResponseEntity with code 409 and body "Department Version Conflict" if the department has another version,
+     * or ResponseEntity with code 400 and body "Department data is not valid!" if there is no field to change
+     * or a field can't be changed or has a value of wrong type,
+     * or ResponseEntity with code 400 and body "Parent Department Not Found" if the new parent department does not exist,
+     * or ResponseEntity with code 409 and body "Department Can't Be Moved Into Its Own Subtree"
+     * if the new parent department is the department itself or one of its subdepartments,
+     * or ResponseEntity with code 400 and body "Department version is required" if neither ifMatch nor version is given,
+     * or ResponseEntity with code 400 and body "Header If-Match is not valid" if ifMatch is not an ETag of a department.
+     */
+    @Timed(SERVICE_METRIC)
+    @Transactional
+    public ResponseEntity<?> patch(Long originalDepartmentId, Map<String, Object> changes, String ifMatch) {
+        if (changes == null) return ResponseEntity.status(400).body("Department data is not valid!");
+        Long expectedVersion;
+        if (ifMatch != null) {
+            expectedVersion = versionOf(ifMatch);
+            if (expectedVersion == null) return ResponseEntity.status(400).body("Header If-Match is not valid");
+        } else if (changes.get("version") instanceof Number) {
+            expectedVersion = ((Number) changes.get("version")).longValue();
+        } else {
+            return ResponseEntity.status(400).body("Department version is required");
+        }
+        Map<String, Object> attributes = new HashMap<>(changes);
+        attributes.remove("version");
+        if (attributes.isEmpty() || !isValidPatch(attributes)) {
+            return ResponseEntity.status(400).body("Department data is not valid!");
+        }
+        if (!attributes.containsKey("parentId")) {
+            if (departmentRepository.updateAttributes(originalDepartmentId, expectedVersion, attributes) == 0) {
+                return notUpdatedResponse(originalDepartmentId);
+            }
+        } else {
+            Long parentId = attributes.get("parentId") == null ? null : ((Number) attributes.get("parentId")).longValue();
+            attributes.put("parentId", parentId);
+            if (departmentRepository.updateAttributesIfParent(originalDepartmentId, expectedVersion, parentId, attributes) == 0) {
+                departmentClosureRepository.lockForWrite();
+                ResponseEntity<?> invalidParentResponse = validateParent(originalDepartmentId, parentId);
+                if (invalidParentResponse != null) return invalidParentResponse;
+                if (departmentRepository.updateAttributes(originalDepartmentId, expectedVersion, attributes) == 0) {
+                    return notUpdatedResponse(originalDepartmentId);
+                }
+                moveSubtree(originalDepartmentId, parentId);
+            }
+        }
+        // the change carries the whole department, the fields which are not patched are read back after the update
+        Department patchedDepartment = departmentRepository.findById(originalDepartmentId)
+                .orElseThrow(() -> new IllegalStateException("Patched department " + originalDepartmentId + " not found"));
+        recordChange(DepartmentChange.Type.UPDATED, patchedDepartment);
+        evictAfterCommit(departmentCache, originalDepartmentId);
+        return ResponseEntity.noContent().eTag(eTag(expectedVersion + 1)).build();
     }
 
     /**
@@ -92,9 +568,61 @@ public class DepartmentService {
      * or ResponseEntity with code 400 and body "Parameter departmentIdForReplacement must be a number"
      * if parameter departmentIdForReplacement is not valid,
      * or ResponseEntity with code 400 and body "Department Not Found" if deleted or swap department not found,
+     * or ResponseEntity with code 409 and body "Department Has Subdepartments" if the deleted department has subdepartments,
+     * or ResponseEntity with code 503 and body "Employee Service Unavailable" if service employee-management-ws can't be called,
      * or ResponseEntity with another code if response from service employee-management-ws is not Ok.
      */
+    @Timed(SERVICE_METRIC)
     public ResponseEntity<?> delete(Long departmentIdForDelete, String departmentForReplacement) {
+        ResponseEntity<?> invalidDeleteResponse = validateDelete(departmentIdForDelete, departmentForReplacement);
+        if (invalidDeleteResponse != null) {
+            return invalidDeleteResponse;
+        }
+        try {
+            return deleteIfTransferred(departmentIdForDelete, employeeClient.replaceDepartmentId(
+                    transferRequestBody(departmentIdForDelete, Long.parseLong(departmentForReplacement))));
+        } catch (EmployeeServiceUnavailableException e) {
+            return employeeServiceUnavailableResponse(departmentIdForDelete, e);
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #delete(Long, String)}: the caller thread only validates the request,
+     * the call of employee-management-ws and the deletion run on the executor of the employee client.
+     *
+     * @param departmentIdForDelete id of the department to delete
+     * @param departmentForReplacement id of the department to transfer employees from the department to be removed
+     * @return future of the response {@link #delete(Long, String)} would return.
+     */
+    @Timed(SERVICE_METRIC)
+    public CompletableFuture<ResponseEntity<?>> deleteAsync(Long departmentIdForDelete, String departmentForReplacement) {
+        ResponseEntity<?> invalidDeleteResponse = validateDelete(departmentIdForDelete, departmentForReplacement);
+        if (invalidDeleteResponse != null) {
+            return CompletableFuture.completedFuture(invalidDeleteResponse);
+        }
+        CompletableFuture<Response> responseFromEmployeeService;
+        try {
+            responseFromEmployeeService = employeeClient.replaceDepartmentIdAsync(
+                    transferRequestBody(departmentIdForDelete, Long.parseLong(departmentForReplacement)));
+        } catch (EmployeeServiceUnavailableException e) {
+            return CompletableFuture.completedFuture(employeeServiceUnavailableResponse(departmentIdForDelete, e));
+        }
+        return responseFromEmployeeService.<ResponseEntity<?>>handle((response, throwable) -> {
+            if (throwable == null) {
+                return deleteIfTransferred(departmentIdForDelete, response);
+            }
+            Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+            if (cause instanceof EmployeeServiceUnavailableException) {
+                return employeeServiceUnavailableResponse(departmentIdForDelete, (EmployeeServiceUnavailableException) cause);
+            }
+            throw new CompletionException(cause);
+        });
+    }
+
+    /**
+     * @return response with code 400, 404 or 409 if the department can't be deleted, or null if the request is valid
+     */
+    private ResponseEntity<?> validateDelete(Long departmentIdForDelete, String departmentForReplacement) {
         long departmentIdForReplacement;
         try {
             departmentIdForReplacement = Long.parseLong(departmentForReplacement);
@@ -104,17 +632,469 @@ public class DepartmentService {
                     .status(400)
                     .body("Parameter departmentIdForReplacement must be a number");
         }
-        if (!departmentRepository.findById(departmentIdForReplacement).isPresent() ||
-                !departmentRepository.findById(departmentIdForDelete).isPresent()) {
+        if (departmentIdForDelete == null || !allExist(departmentIdForDelete, departmentIdForReplacement)) {
             return ResponseEntity.status(404).body("Department Not Found");
         }
+        if (departmentRepository.existsByParentId(departmentIdForDelete)) {
+            return hasSubdepartmentsResponse();
+        }
+        return null;
+    }
+
+    private ResponseEntity<?> deleteIfTransferred(long departmentIdForDelete, Response response) {
+        try (Response responseFromEmployeeService = response) {
+            if (responseFromEmployeeService.status() >= 200 && responseFromEmployeeService.status() < 300) {
+                transactionTemplate.execute(status -> deleteAndRecord(departmentIdForDelete));
+                departmentCache.evict(departmentIdForDelete);
+            }
+            return ResponseEntity.status(responseFromEmployeeService.status()).body(responseBody(responseFromEmployeeService));
+        }
+    }
+
+    /**
+     * Delete the department and record the deletion in the change feed, must be called in a transaction.
+     *
+     * @return true if the department was deleted, false if it does not exist or has subdepartments.
+     */
+    private boolean deleteAndRecord(long departmentId) {
+        departmentClosureRepository.lockForWrite();
+        if (departmentRepository.deleteByIdReturningCount(departmentId) == 0) {
+            return false;
+        }
+        recordChange(DepartmentChange.Type.DELETED, departmentId);
+        return true;
+    }
+
+    /**
+     * Record the change in the change feed with the department after the change,
+     * must be called in the transaction of the change.
+     */
+    private void recordChange(DepartmentChange.Type type, Department department) {
+        localDepartmentSnapshot.refreshAfterCommit(departmentChangeFeed.record(
+                type, department.getId(), department.getName(), department.getVersion(), department.getParentId()));
+        departmentListCache.invalidateAfterCommit();
+    }
+
+    /**
+     * Record the change without department data (DELETED, RELOADED) in the change feed,
+     * must be called in the transaction of the change.
+     */
+    private void recordChange(DepartmentChange.Type type, long departmentId) {
+        localDepartmentSnapshot.refreshAfterCommit(departmentChangeFeed.record(type, departmentId, null, 0, null));
+        departmentListCache.invalidateAfterCommit();
+    }
+
+    /**
+     * Add the saved department to the closure table, under its parent if it has one.
+     */
+    private void insertIntoHierarchy(Department department) {
+        if (department.getParentId() == null) {
+            departmentClosureRepository.insertRoot(department.getId());
+        } else {
+            departmentClosureRepository.insertChild(department.getId(), department.getParentId());
+        }
+    }
+
+    /**
+     * Check that the department can be moved under the parent, the closure table must be locked by the caller.
+     *
+     * @param parentId  id of the new parent, null for a root department
+     * @return response with code 400 or 409 if the department can't be moved, or null if it can
+     */
+    private ResponseEntity<?> validateParent(long departmentId, Long parentId) {
+        if (parentId == null) {
+            return null;
+        }
+        if (!departmentRepository.existsById(parentId)) {
+            return parentNotFoundResponse();
+        }
+        if (departmentClosureRepository.existsByAncestorIdAndDescendantId(departmentId, parentId)) {
+            return ResponseEntity.status(409).body("Department Can't Be Moved Into Its Own Subtree");
+        }
+        return null;
+    }
+
+    /**
+     * Move the department with its subdepartments under the parent in the closure table.
+     *
+     * @param parentId  id of the new parent, null for a root department
+     */
+    private void moveSubtree(long departmentId, Long parentId) {
+        departmentClosureRepository.detachSubtree(departmentId);
+        if (parentId != null) {
+            departmentClosureRepository.attachSubtree(departmentId, parentId);
+        }
+    }
+
+    private static ResponseEntity<?> employeeServiceUnavailableResponse(long departmentIdForDelete, EmployeeServiceUnavailableException e) {
+        log.error("Called delete method for department {}, but employee service is unavailable: {}", departmentIdForDelete, e.getMessage());
+        return ResponseEntity.status(503).body("Employee Service Unavailable");
+    }
+
+    /**
+     * Mark the department for deletion: save the command to transfer all employees from this department to another department
+     * to the outbox in one transaction. The command is sent to employee-management-ws and the department is deleted
+     * in background by DepartmentDeletionDispatcher.
+     *
+     * @param departmentIdForDelete id of the department to delete
+     * @param departmentForReplacement id of the department to transfer employees from the department to be removed
+     * @return ResponseEntity with code 202, status URL in Location header and DepartmentDeletion in body,
+     * or ResponseEntity with code 400 and body "Parameter departmentIdForReplacement must be a number"
+     * if parameter departmentIdForReplacement is not valid,
+     * or ResponseEntity with code 404 and body "Department Not Found" if deleted or swap department not found,
+     * or ResponseEntity with code 409 and body "Department Has Subdepartments" if the deleted department has subdepartments,
+     * or ResponseEntity with code 409 and body "Department Deletion In Progress" if deleted or swap department
+     * is already being deleted.
+     */
+    @Timed(SERVICE_METRIC)
+    @Transactional
+    public ResponseEntity<?> requestDelete(Long departmentIdForDelete, String departmentForReplacement) {
+        long departmentIdForReplacement;
+        try {
+            departmentIdForReplacement = Long.parseLong(departmentForReplacement);
+        } catch (NumberFormatException e) {
+            log.error("Called requestDelete method for department {} with wrong param departmentIdForReplacement = {}", departmentIdForDelete, departmentForReplacement);
+            return ResponseEntity
+                    .status(400)
+                    .body("Parameter departmentIdForReplacement must be a number");
+        }
+        if (departmentIdForDelete == null || !allExist(departmentIdForDelete, departmentIdForReplacement)) {
+            return ResponseEntity.status(404).body("Department Not Found");
+        }
+        if (departmentRepository.existsByParentId(departmentIdForDelete)) {
+            return hasSubdepartmentsResponse();
+        }
+        if (departmentDeletionRepository.existsByDepartmentIdInAndStatusIn(
+                Arrays.asList(departmentIdForDelete, departmentIdForReplacement), DELETION_IN_PROGRESS_STATUSES)) {
+            return ResponseEntity.status(409).body("Department Deletion In Progress");
+        }
+        DepartmentDeletion departmentDeletion = departmentDeletionRepository.save(
+                new DepartmentDeletion(departmentIdForDelete, departmentIdForReplacement));
+        return ResponseEntity.accepted()
+                .location(URI.create(DEPARTMENT_DELETIONS_URI + departmentDeletion.getId()))
+                .body(departmentDeletion);
+    }
+
+    /**
+     * Get the status of the department deletion requested by {@link #requestDelete(Long, String)}.
+     *
+     * @param departmentDeletionId id of the department deletion
+     * @return ResponseEntity with code 200 and DepartmentDeletion in body,
+     * or ResponseEntity with code 404 and body "Department Deletion Not Found" if deletion with that id does not exist.
+     */
+    @Timed(SERVICE_METRIC)
+    public ResponseEntity<?> findDeletion(Long departmentDeletionId) {
+        Optional<DepartmentDeletion> departmentDeletionOptional = departmentDeletionRepository.findById(departmentDeletionId);
+        if (departmentDeletionOptional.isPresent()) {
+            return ResponseEntity.ok(departmentDeletionOptional.get());
+        }
+        return ResponseEntity.status(404).body("Department Deletion Not Found");
+    }
+
+    /**
+     * Delete the departments one by one as {@link #delete(Long, String)} does,
+     * transferring all their employees to the same department.
+     *
+     * @param departmentIdsForDelete ids of the departments to delete
+     * @param departmentForReplacement id of the department to transfer employees from the departments to be removed
+     * @return ResponseEntity with code 200 and list of BatchItemResult in body in the order of passed ids
+     * (each item has the code and message the single delete would respond with),
+     * or ResponseEntity with code 400 and body "Batch size must be between 1 and 1000" if batch is empty or too big.
+     */
+    @Timed(SERVICE_METRIC)
+    public ResponseEntity<?> deleteAll(List<Long> departmentIdsForDelete, String departmentForReplacement) {
+        if (!isValidBatchSize(departmentIdsForDelete)) {
+            return batchSizeNotValidResponse();
+        }
+        List<BatchItemResult> results = new ArrayList<>(departmentIdsForDelete.size());
+        for (Long departmentIdForDelete : departmentIdsForDelete) {
+            ResponseEntity<?> response = delete(departmentIdForDelete, departmentForReplacement);
+            results.add(BatchItemResult.of(response.getStatusCodeValue(), String.valueOf(response.getBody())));
+        }
+        return ResponseEntity.ok(results);
+    }
+
+    /**
+     * Non-blocking variant of {@link #deleteAll(List, String)}: departments are deleted one by one
+     * as {@link #deleteAsync(Long, String)} does, each after the previous one is done.
+     *
+     * @param departmentIdsForDelete ids of the departments to delete
+     * @param departmentForReplacement id of the department to transfer employees from the departments to be removed
+     * @return future of the response {@link #deleteAll(List, String)} would return.
+     */
+    @Timed(SERVICE_METRIC)
+    public CompletableFuture<ResponseEntity<?>> deleteAllAsync(List<Long> departmentIdsForDelete, String departmentForReplacement) {
+        if (!isValidBatchSize(departmentIdsForDelete)) {
+            return CompletableFuture.completedFuture(batchSizeNotValidResponse());
+        }
+        List<BatchItemResult> results = new ArrayList<>(departmentIdsForDelete.size());
+        CompletableFuture<Void> deletions = CompletableFuture.completedFuture(null);
+        for (Long departmentIdForDelete : departmentIdsForDelete) {
+            deletions = deletions
+                    .thenCompose(previous -> deleteAsync(departmentIdForDelete, departmentForReplacement))
+                    .thenAccept(response -> results.add(
+                            BatchItemResult.of(response.getStatusCodeValue(), String.valueOf(response.getBody()))));
+        }
+        return deletions.thenApply(done -> ResponseEntity.ok(results));
+    }
+
+    /**
+     * Load departments from a snapshot made by export (NDJSON, one department per line) in one transaction.
+     * Departments with the same id are replaced with the imported ones and get a new version (greater than both
+     * the existing and the imported one, so their ETags change), the others are inserted with their versions.
+     * Change feed gets one RELOADED change instead of a change per department.
+     *
+     * @param snapshot  stream of the snapshot, read to the end
+     * @param gzipped  true if the snapshot is gzip-compressed
+     * @return ResponseEntity with code 200 and body "N departments are imported",
+     * or ResponseEntity with code 400 and body "Department N of the snapshot is not valid" if a department has no id
+     * or its data is not valid, nothing is imported,
+     * or ResponseEntity with code 400 and body "Department snapshot is not valid NDJSON" if the snapshot can't be read,
+     * nothing is imported.
+     */
+    @Timed(SERVICE_METRIC)
+    public ResponseEntity<?> importSnapshot(InputStream snapshot, boolean gzipped) {
+        Long count;
+        try {
+            InputStream departments = gzipped ? new GZIPInputStream(snapshot) : snapshot;
+            count = transactionTemplate.execute(status -> {
+                try {
+                    long loaded = departmentSnapshotLoader.load(departments);
+                    recordChange(DepartmentChange.Type.RELOADED, 0);
+                    return loaded;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(400).body(e.getMessage());
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Department snapshot can't be imported: {}", e.getMessage());
+            return ResponseEntity.status(400).body("Department snapshot is not valid NDJSON");
+        }
+        departmentCache.clear();
+        return ResponseEntity.ok(count + " departments are imported");
+    }
+
+    /**
+     * Get changes of departments after since in the order they were committed, waiting for the next change if there
+     * are none yet (long poll). Without since, only the seq of the last change is returned: a new consumer takes it,
+     * loads all departments and then follows changes from it.
+     *
+     * @param since  seq of the last change known to the consumer, null to get the seq of the last change
+     * @param limit  maximum number of changes, null for default limit
+     * @param wait  maximum time in seconds to wait for a change, null or 0 to respond immediately
+     * @return future of ResponseEntity with code 200 and DepartmentChanges in body (items are empty if there are no
+     * changes during the wait, lastSeq is the since of the next request),
+     * or ResponseEntity with code 400 and body "Parameter since must not be negative" if since is not valid,
+     * or ResponseEntity with code 400 and body "Parameter limit must be between 1 and 1000" if limit is not valid,
+     * or ResponseEntity with code 400 and body "Parameter wait must be between 0 and 25" if wait is not valid,
+     * or ResponseEntity with code 410 and body "Changes since %d are no longer retained, reload all departments"
+     * if changes after since were deleted by retention.
+     */
+    @Timed(SERVICE_METRIC)
+    public CompletableFuture<ResponseEntity<?>> findChanges(Long since, Integer limit, Integer wait) {
+        int pageLimit = limit == null ? DEFAULT_PAGE_LIMIT : limit;
+        int waitSeconds = wait == null ? 0 : wait;
+        ResponseEntity<?> immediateResponse = null;
+        if (since != null && since < 0) {
+            immediateResponse = ResponseEntity.status(400).body("Parameter since must not be negative");
+        } else if (pageLimit < 1 || pageLimit > MAX_PAGE_LIMIT) {
+            immediateResponse = ResponseEntity.status(400).body("Parameter limit must be between 1 and " + MAX_PAGE_LIMIT);
+        } else if (waitSeconds < 0 || waitSeconds > MAX_CHANGES_WAIT_SECONDS) {
+            immediateResponse = ResponseEntity.status(400).body("Parameter wait must be between 0 and " + MAX_CHANGES_WAIT_SECONDS);
+        } else if (since == null) {
+            immediateResponse = ResponseEntity.ok(new DepartmentChanges(Collections.emptyList(), departmentChangeFeed.findLastSeq()));
+        } else if (since < departmentChangeFeed.findPurgedSeq()) {
+            immediateResponse = changesNotRetainedResponse(since);
+        }
+        if (immediateResponse != null) {
+            return CompletableFuture.completedFuture(immediateResponse);
+        }
+        return departmentChangeFeed.awaitChanges(since, pageLimit, TimeUnit.SECONDS.toMillis(waitSeconds))
+                .thenApply(changes -> ResponseEntity.ok(
+                        new DepartmentChanges(changes, changes.isEmpty() ? since : changes.get(changes.size() - 1).getSeq())));
+    }
+
+    /**
+     * Stream changes of departments after since as server-sent events: event id is seq of the change,
+     * event name is type of the change, data is the change. The stream stays open until the client disconnects,
+     * or until the feed drops it because the client doesn't read the events (the client reconnects then).
+     *
+     * @param since  seq of the last change known to the consumer, null to stream changes after the last one
+     * @return ResponseEntity with code 200 and SseEmitter of the stream,
+     * or ResponseEntity with code 400 if since is negative,
+     * or ResponseEntity with code 410 if changes after since were deleted by retention.
+     */
+    @Timed(SERVICE_METRIC)
+    public ResponseEntity<SseEmitter> streamChanges(Long since) {
+        if (since != null && since < 0) {
+            return ResponseEntity.status(400).build();
+        }
+        long from = since == null ? departmentChangeFeed.findLastSeq() : since;
+        if (from < departmentChangeFeed.findPurgedSeq()) {
+            return ResponseEntity.status(410).build();
+        }
+        SseEmitter emitter = new SseEmitter(0L);
+        DepartmentChangeFeed.Subscription subscription = departmentChangeFeed.subscribe(from, MAX_PAGE_LIMIT, changes -> {
+            try {
+                for (DepartmentChange change : changes) {
+                    emitter.send(SseEmitter.event().id(String.valueOf(change.getSeq())).name(change.getType().name()).data(change));
+                }
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                // client has gone
+                return false;
+            }
+        }, emitter::complete);
+        emitter.onCompletion(() -> departmentChangeFeed.unsubscribe(subscription));
+        emitter.onError(throwable -> departmentChangeFeed.unsubscribe(subscription));
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * @return strong ETag of the department, version is incremented on every change of the department
+     */
+    public static String eTag(Department department) {
+        return eTag(department.getVersion());
+    }
+
+    private static String eTag(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * @param lastSeq  seq of the last change of departments in the list
+     * @return strong ETag of the list of all departments
+     */
+    static String listETag(long lastSeq) {
+        return "\"seq-" + lastSeq + "\"";
+    }
+
+    /**
+     * @return version of the department from its strong ETag, or null if the value is not an ETag of a department
+     */
+    static Long versionOf(String eTag) {
+        if (eTag.length() < 3 || !eTag.startsWith("\"") || !eTag.endsWith("\"")) {
+            return null;
+        }
+        try {
+            return Long.valueOf(eTag.substring(1, eTag.length() - 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Only the name and the parent of the department can be patched, id and version are managed by the service.
+     */
+    private static boolean isValidPatch(Map<String, Object> attributes) {
+        for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+            Object value = attribute.getValue();
+            boolean valid = ("name".equals(attribute.getKey()) && (value == null || value instanceof String))
+                    || ("parentId".equals(attribute.getKey()) && (value == null || value instanceof Number));
+            if (!valid) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check existence of all the departments in one query.
+     */
+    private boolean allExist(Long... departmentIds) {
+        List<Long> ids = Arrays.asList(departmentIds);
+        return departmentRepository.findExistingIds(ids).containsAll(ids);
+    }
+
+    /**
+     * Tell apart the reasons of a conditional update which changed no rows.
+     */
+    private ResponseEntity<?> notUpdatedResponse(long departmentId) {
+        if (departmentRepository.existsById(departmentId)) {
+            return ResponseEntity.status(409).body("Department Version Conflict");
+        }
+        return ResponseEntity.status(404).body("Department Not Found");
+    }
+
+    /**
+     * Evict the department from the cache after the end of the current transaction, if there is one.
+     * A reader loading a department holds a lock of the cache while it waits for a connection, so evicting
+     * while the transaction holds the lock of the change feed could block the writers holding all connections.
+     * Evicted after commit, the previous version loaded by a reader during the transaction isn't kept either.
+     */
+    static void evictAfterCommit(Cache departmentCache, long id) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            departmentCache.evict(id);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                departmentCache.evict(id);
+            }
+        });
+    }
+
+    static Map<String, Long> transferRequestBody(long departmentIdForDelete, long departmentIdForReplacement) {
         Map<String, Long> requestBody = new HashMap<>();
         requestBody.put("oldDepartmentID", departmentIdForDelete);
         requestBody.put("newDepartmentID", departmentIdForReplacement);
-        Response responseFromEmployeeService = employeeClient.replaceDepartmentId(requestBody);
-        if (responseFromEmployeeService.status() >= 200 && responseFromEmployeeService.status() < 300) {
-            departmentRepository.deleteById(departmentIdForDelete);
+        return requestBody;
+    }
+
+    /**
+     * Read the body of the response from employee-management-ws as UTF-8 text.
+     *
+     * @return body of the response, or empty string if there is no body or it can't be read
+     */
+    static String responseBody(Response response) {
+        if (response.body() == null) {
+            return "";
+        }
+        try {
+            return new String(Util.toByteArray(response.body().asInputStream()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            log.warn("Can't read response body from employee service: {}", e.getMessage());
+            return "";
+        }
+    }
+
+    /**
+     * @param departments  departments of the page and one more department if the next page exists
+     */
+    private static DepartmentPage toPage(List<Department> departments, int pageLimit) {
+        if (departments.size() <= pageLimit) {
+            return new DepartmentPage(departments, null);
+        }
+        List<Department> pageDepartments = departments.subList(0, pageLimit);
+        return new DepartmentPage(pageDepartments, pageDepartments.get(pageLimit - 1).getId());
+    }
+
+    private static ResponseEntity<?> parentNotFoundResponse() {
+        return ResponseEntity.status(400).body("Parent Department Not Found");
+    }
+
+    private static ResponseEntity<?> hasSubdepartmentsResponse() {
+        return ResponseEntity.status(409).body("Department Has Subdepartments");
+    }
+
+    private static ResponseEntity<?> changesNotRetainedResponse(long since) {
+        return ResponseEntity.status(410).body("Changes since " + since + " are no longer retained, reload all departments");
+    }
+
+    private static boolean isValidBatchSize(List<?> batch) {
+        return batch != null && !batch.isEmpty() && batch.size() <= MAX_BATCH_SIZE;
+    }
+
+    private static ResponseEntity<?> batchSizeNotValidResponse() {
+        return ResponseEntity.status(400).body("Batch size must be between 1 and " + MAX_BATCH_SIZE);
+    }
+
+    private static final class DepartmentNotFoundException extends RuntimeException {
+        DepartmentNotFoundException() {
+            super(null, null, false, false);
         }
-        return ResponseEntity.status(responseFromEmployeeService.status()).body(responseFromEmployeeService.body().toString());
     }
 }
@@ -0,0 +1,350 @@
+package ru.xfneo.departmentsmanagement.service;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.domain.DepartmentChange;
+import ru.xfneo.departmentsmanagement.repository.DepartmentRepository;
+import ru.xfneo.departmentsmanagement.snapshot.MappedDepartmentStore;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Copy of all departments in a memory-mapped file ({@link MappedDepartmentStore}), which serves department reads
+ * in read-mode=snapshot without a database connection. The copy follows the change feed: changes of this instance
+ * are applied right after commit, changes of other instances on the next poll. Until a change of this instance
+ * is applied, reads of the changed department (and of the whole list) go to the database, so a client always reads
+ * its own writes. The file survives restarts: on start only the changes after the last applied one are loaded.
+ */
+@Component
+@Log4j2
+public class LocalDepartmentSnapshot {
+    private static final int CATCH_UP_BATCH_SIZE = 1000;
+    private static final int STREAM_CHUNK_SIZE = 512;
+    /**
+     * Key of pending changes for a change of all departments (snapshot import)
+     */
+    private static final long ALL_DEPARTMENTS = 0;
+    private final DepartmentRepository departmentRepository;
+    private final DepartmentChangeFeed departmentChangeFeed;
+    private final TransactionTemplate reloadTransactionTemplate;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * Seq of the last change of each department made by this instance which is not applied to the store yet
+     */
+    private final Map<Long, Long> pendingChanges = new ConcurrentHashMap<>();
+    private final AtomicBoolean refreshRequested = new AtomicBoolean();
+    @Value("${departments.read-mode:database}")
+    private ReadMode readMode = ReadMode.DATABASE;
+    @Value("${departments.local-snapshot.file:departments.snapshot}")
+    private String file = "departments.snapshot";
+    @Value("${departments.local-snapshot.poll-interval:1000}")
+    private long pollInterval = 1000;
+    private volatile ScheduledExecutorService executor;
+    private MappedDepartmentStore store;
+    private volatile boolean ready;
+
+    public enum ReadMode {
+        DATABASE, SNAPSHOT
+    }
+
+    @Autowired
+    public LocalDepartmentSnapshot(DepartmentRepository departmentRepository, DepartmentChangeFeed departmentChangeFeed,
+                                   PlatformTransactionManager transactionManager) {
+        this.departmentRepository = departmentRepository;
+        this.departmentChangeFeed = departmentChangeFeed;
+        // the seq of the last change and the departments must be read from the same snapshot
+        this.reloadTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.reloadTransactionTemplate.setReadOnly(true);
+        this.reloadTransactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+    }
+
+    /**
+     * Open the file and start following the change feed, if read-mode is snapshot.
+     * Reads go to the database until the store has caught up with the feed.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() throws IOException {
+        if (readMode != ReadMode.SNAPSHOT || store != null) {
+            return;
+        }
+        store = MappedDepartmentStore.open(Paths.get(file));
+        log.info("Local department snapshot {} opened with {} department(s) at seq {}", file, store.size(), store.getLastSeq());
+        executor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("department-snapshot-"));
+        executor.scheduleWithFixedDelay(this::refresh, 0, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        ready = false;
+        if (executor != null) {
+            // not interrupted: an interrupted file operation would close the channel of the store
+            executor.shutdown();
+            try {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (store != null) {
+            lock.writeLock().lock();
+            try {
+                store.close();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Apply the recorded change to the store after the current transaction commits.
+     * Until then the department is read from the database.
+     *
+     * @param change  change recorded in the current transaction, null is ignored
+     */
+    public void refreshAfterCommit(DepartmentChange change) {
+        if (readMode != ReadMode.SNAPSHOT || change == null || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        long key = change.getType() == DepartmentChange.Type.RELOADED ? ALL_DEPARTMENTS : change.getDepartmentId();
+        pendingChanges.merge(key, change.getSeq(), Math::max);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    requestRefresh();
+                } else {
+                    // the seq of a rolled back change is taken by the next change, it may never be applied
+                    pendingChanges.remove(key, change.getSeq());
+                }
+            }
+        });
+    }
+
+    /**
+     * @return true if all departments can be read from the store
+     */
+    public boolean isCurrent() {
+        return ready && pendingChanges.isEmpty();
+    }
+
+    /**
+     * @return true if the department can be read from the store
+     */
+    public boolean isCurrent(long id) {
+        return ready && !pendingChanges.containsKey(id) && !pendingChanges.containsKey(ALL_DEPARTMENTS);
+    }
+
+    /**
+     * @return department with the id, or null if there is none
+     */
+    public Department find(long id) {
+        return read(store -> store.get(id));
+    }
+
+    /**
+     * @return all departments ordered by id
+     */
+    public List<Department> findAll() {
+        return read(store -> {
+            long[] ids = store.ids();
+            List<Department> departments = new ArrayList<>(ids.length);
+            for (long id : ids) {
+                departments.add(store.get(id));
+            }
+            return departments;
+        });
+    }
+
+    /**
+     * @return ETag of the list of all departments from the seq of the last applied change,
+     * equal to the ETag computed from the database at the same seq
+     */
+    public String findETag() {
+        return read(store -> DepartmentService.listETag(store.getLastSeq()));
+    }
+
+    /**
+     * Pass all departments ordered by id to the action, all read at one seq of the change feed.
+     * The store is not changed until the action is called for every department, the action must be fast.
+     *
+     * @return ETag of the passed departments
+     */
+    public String forEachInSnapshot(Consumer<Department> action) {
+        return read(store -> {
+            for (long id : store.ids()) {
+                action.accept(store.get(id));
+            }
+            return DepartmentService.listETag(store.getLastSeq());
+        });
+    }
+
+    /**
+     * Pass all departments ordered by id to the action in chunks, so a slow action (a write to a client) does not
+     * delay changes of the store. Like a database cursor without a snapshot, a department changed during the pass
+     * is passed as it is when its chunk is read.
+     */
+    public void forEach(Consumer<Department> action) {
+        long[] ids = read(MappedDepartmentStore::ids);
+        List<Department> chunk = new ArrayList<>(STREAM_CHUNK_SIZE);
+        for (int from = 0; from < ids.length; from += STREAM_CHUNK_SIZE) {
+            int to = Math.min(from + STREAM_CHUNK_SIZE, ids.length);
+            int chunkFrom = from;
+            read(store -> {
+                for (int i = chunkFrom; i < to; i++) {
+                    Department department = store.get(ids[i]);
+                    if (department != null) {
+                        chunk.add(department);
+                    }
+                }
+                return null;
+            });
+            chunk.forEach(action);
+            chunk.clear();
+        }
+    }
+
+    private <T> T read(Function<MappedDepartmentStore, T> reader) {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return reader.apply(store);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private void requestRefresh() {
+        ScheduledExecutorService refreshExecutor = executor;
+        // before start, the first refresh applies the change
+        if (refreshExecutor != null && refreshRequested.compareAndSet(false, true)) {
+            try {
+                refreshExecutor.execute(this::refresh);
+            } catch (RejectedExecutionException e) {
+                log.debug("Local department snapshot is not refreshed, it is closed");
+            }
+        }
+    }
+
+    /**
+     * Apply committed changes after the last applied one, or reload all departments if all departments were replaced.
+     * Before the store is ready, it is also reloaded if it has no seq, changes after its seq are no longer retained,
+     * or its seq is ahead of the feed (the database was restored or replaced).
+     */
+    private void refresh() {
+        refreshRequested.set(false);
+        try {
+            long lastSeq = store.getLastSeq();
+            if (!ready && (lastSeq == MappedDepartmentStore.NO_SEQ || lastSeq < departmentChangeFeed.findPurgedSeq()
+                    || lastSeq > departmentChangeFeed.findLastSeq())) {
+                reload();
+            } else {
+                catchUp();
+            }
+            for (Map.Entry<Long, Long> pendingChange : pendingChanges.entrySet()) {
+                if (pendingChange.getValue() <= store.getLastSeq()) {
+                    pendingChanges.remove(pendingChange.getKey(), pendingChange.getValue());
+                }
+            }
+            if (!ready) {
+                log.info("Local department snapshot is ready with {} department(s) at seq {}", store.size(), store.getLastSeq());
+            }
+            ready = true;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Local department snapshot is not refreshed: {}", e.getMessage());
+            ready = ready && store.getLastSeq() != MappedDepartmentStore.NO_SEQ;
+        }
+    }
+
+    private void catchUp() throws IOException {
+        List<DepartmentChange> changes;
+        do {
+            changes = departmentChangeFeed.findSince(store.getLastSeq(), CATCH_UP_BATCH_SIZE);
+            if (changes.isEmpty()) {
+                return;
+            }
+            if (changes.stream().anyMatch(change -> change.getType() == DepartmentChange.Type.RELOADED)) {
+                reload();
+                return;
+            }
+            Set<Long> changedIds = changes.stream().map(DepartmentChange::getDepartmentId).collect(Collectors.toCollection(LinkedHashSet::new));
+            // the departments are read in their current state, a later change is applied again by the next catch-up
+            Map<Long, Department> departments = departmentRepository.findAllById(changedIds).stream()
+                    .collect(Collectors.toMap(Department::getId, Function.identity()));
+            lock.writeLock().lock();
+            try {
+                for (Long id : changedIds) {
+                    Department department = departments.get(id);
+                    if (department == null) {
+                        store.remove(id);
+                    } else {
+                        store.put(department);
+                    }
+                }
+                store.setLastSeq(changes.get(changes.size() - 1).getSeq());
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.debug("Local department snapshot caught up to seq {}", store.getLastSeq());
+        } while (changes.size() == CATCH_UP_BATCH_SIZE);
+    }
+
+    /**
+     * Replace the store with all departments, reads go to the database meanwhile.
+     */
+    private void reload() {
+        ready = false;
+        lock.writeLock().lock();
+        try {
+            reloadTransactionTemplate.execute(status -> {
+                long lastSeq = departmentChangeFeed.findLastSeq();
+                store.clear();
+                try (Stream<Department> departments = departmentRepository.streamAll()) {
+                    departments.forEach(department -> {
+                        try {
+                            store.put(department);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                }
+                store.setLastSeq(lastSeq);
+                store.force();
+                return null;
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Local department snapshot reloaded with {} department(s) at seq {}", store.size(), store.getLastSeq());
+    }
+}
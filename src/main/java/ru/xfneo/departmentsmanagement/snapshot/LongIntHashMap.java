@@ -0,0 +1,129 @@
+package ru.xfneo.departmentsmanagement.snapshot;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long keys to int values in two primitive arrays, without boxing and entry objects.
+ * Key 0 marks an empty slot and can't be stored (department ids start from 1). Not thread-safe.
+ */
+class LongIntHashMap {
+    static final int MISSING = -1;
+    private static final int MIN_CAPACITY = 16;
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    LongIntHashMap() {
+        keys = new long[MIN_CAPACITY];
+        values = new int[MIN_CAPACITY];
+    }
+
+    /**
+     * @return value of the key, or MISSING if there is none
+     */
+    int get(long key) {
+        int mask = keys.length - 1;
+        for (int slot = slot(key, mask); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * @param key  key other than 0
+     * @return previous value of the key, or MISSING if there was none
+     */
+    int put(long key, int value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("Key 0 can't be stored");
+        }
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        for (; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        return MISSING;
+    }
+
+    /**
+     * @return removed value of the key, or MISSING if there was none
+     */
+    int remove(long key) {
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        for (; keys[slot] != key; slot = (slot + 1) & mask) {
+            if (keys[slot] == 0) {
+                return MISSING;
+            }
+        }
+        int removed = values[slot];
+        // shift the following keys of the probe sequence back, so lookups don't stop at the freed slot
+        int free = slot;
+        for (int next = (free + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+            int home = slot(keys[next], mask);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+        }
+        keys[free] = 0;
+        size--;
+        return removed;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        keys = new long[MIN_CAPACITY];
+        values = new int[MIN_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * @return all keys in ascending order
+     */
+    long[] sortedKeys() {
+        long[] sorted = new long[size];
+        int i = 0;
+        for (long key : keys) {
+            if (key != 0) {
+                sorted[i++] = key;
+            }
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,297 @@
+package ru.xfneo.departmentsmanagement.snapshot;
+
+import lombok.extern.log4j.Log4j2;
+import ru.xfneo.departmentsmanagement.domain.Department;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Departments in a memory-mapped file, outside the Java heap: an append-only log of department records
+ * and an index of the latest record of each department by id. A change appends a record, removed and replaced
+ * records are dropped by compaction when the file is full. Reopening the file rebuilds the index with one sequential
+ * scan, so the departments are available after a restart without loading them from the database.
+ * <p>
+ * File layout: header (magic, format version, seq of the last applied change, end of the records), then records
+ * (size, type, id; records of a department continue with version, parent id or 0, name length or -1 for null, UTF-8 name).
+ * <p>
+ * Not thread-safe: concurrent reads are allowed only while nothing is written.
+ */
+@Log4j2
+public class MappedDepartmentStore implements Closeable {
+    /**
+     * Seq of the store which has no consistent state (new file, or interrupted compaction), it has to be reloaded.
+     */
+    public static final long NO_SEQ = -1;
+    static final int MIN_CAPACITY = 64 * 1024;
+    private static final int MAGIC = 0x44455054;
+    private static final int FORMAT_VERSION = 1;
+    private static final int LAST_SEQ_OFFSET = 8;
+    private static final int END_OFFSET = 16;
+    private static final int HEADER_SIZE = 20;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int REMOVE_RECORD_SIZE = 4 + 1 + 8;
+    private static final int PUT_RECORD_HEADER_SIZE = REMOVE_RECORD_SIZE + 8 + 8 + 4;
+    private final Path path;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private final LongIntHashMap index = new LongIntHashMap();
+    private int end;
+    private long liveBytes;
+
+    private MappedDepartmentStore(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    /**
+     * Open the store in the file, creating the file if it does not exist.
+     * A file which is not a valid store is reset to an empty store with {@link #NO_SEQ}.
+     */
+    public static MappedDepartmentStore open(Path path) throws IOException {
+        if (path.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedDepartmentStore store = new MappedDepartmentStore(path, channel);
+        try {
+            store.map(Math.max(MIN_CAPACITY, channel.size()));
+            if (!store.scan()) {
+                log.info("Department store {} is new or not valid, it is reset", path);
+                store.clear();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return store;
+    }
+
+    /**
+     * @return department with the id decoded from its record, or null if there is none
+     */
+    public Department get(long id) {
+        int offset = index.get(id);
+        return offset == LongIntHashMap.MISSING ? null : decode(offset);
+    }
+
+    /**
+     * Store the department, replacing the stored department with the same id.
+     */
+    public void put(Department department) throws IOException {
+        byte[] name = department.getName() == null ? null : department.getName().getBytes(StandardCharsets.UTF_8);
+        int size = PUT_RECORD_HEADER_SIZE + (name == null ? 0 : name.length);
+        int offset = reserve(size);
+        buffer.putInt(offset, size);
+        buffer.put(offset + 4, PUT);
+        buffer.putLong(offset + 5, department.getId());
+        buffer.putLong(offset + 13, department.getVersion());
+        buffer.putLong(offset + 21, department.getParentId() == null ? 0 : department.getParentId());
+        buffer.putInt(offset + 29, name == null ? -1 : name.length);
+        if (name != null) {
+            for (int i = 0; i < name.length; i++) {
+                buffer.put(offset + PUT_RECORD_HEADER_SIZE + i, name[i]);
+            }
+        }
+        commit(offset + size);
+        applyPut(department.getId(), offset);
+    }
+
+    /**
+     * Remove the department with the id if it is stored.
+     */
+    public void remove(long id) throws IOException {
+        if (index.get(id) == LongIntHashMap.MISSING) {
+            return;
+        }
+        int offset = reserve(REMOVE_RECORD_SIZE);
+        buffer.putInt(offset, REMOVE_RECORD_SIZE);
+        buffer.put(offset + 4, REMOVE);
+        buffer.putLong(offset + 5, id);
+        commit(offset + REMOVE_RECORD_SIZE);
+        applyRemove(id);
+    }
+
+    /**
+     * Remove all departments and reset the seq to {@link #NO_SEQ}.
+     */
+    public void clear() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT_VERSION);
+        setLastSeq(NO_SEQ);
+        commit(HEADER_SIZE);
+        index.clear();
+        liveBytes = 0;
+    }
+
+    /**
+     * @return seq of the last change of the change feed applied to the store, or {@link #NO_SEQ}
+     */
+    public long getLastSeq() {
+        return buffer.getLong(LAST_SEQ_OFFSET);
+    }
+
+    public void setLastSeq(long lastSeq) {
+        buffer.putLong(LAST_SEQ_OFFSET, lastSeq);
+    }
+
+    /**
+     * @return ids of all stored departments in ascending order
+     */
+    public long[] ids() {
+        return index.sortedKeys();
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * @return bytes of the file used by records, including removed and replaced ones
+     */
+    public int usedBytes() {
+        return end;
+    }
+
+    /**
+     * Write changed pages of the file to the storage device.
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private void map(long capacity) throws IOException {
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("Department store " + path + " can't grow over " + Integer.MAX_VALUE + " bytes");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * Rebuild the index from the records of the file.
+     *
+     * @return false if the file is not a valid store
+     */
+    private boolean scan() {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+            return false;
+        }
+        int recordsEnd = buffer.getInt(END_OFFSET);
+        if (recordsEnd < HEADER_SIZE || recordsEnd > buffer.capacity()) {
+            return false;
+        }
+        end = recordsEnd;
+        for (int offset = HEADER_SIZE; offset < recordsEnd; ) {
+            int size = buffer.getInt(offset);
+            if (size < REMOVE_RECORD_SIZE || size > recordsEnd - offset) {
+                return false;
+            }
+            byte type = buffer.get(offset + 4);
+            long id = buffer.getLong(offset + 5);
+            if (type == PUT && size >= PUT_RECORD_HEADER_SIZE) {
+                applyPut(id, offset);
+            } else if (type == REMOVE) {
+                applyRemove(id);
+            } else {
+                return false;
+            }
+            offset += size;
+        }
+        return true;
+    }
+
+    private Department decode(int offset) {
+        long id = buffer.getLong(offset + 5);
+        long version = buffer.getLong(offset + 13);
+        long parentId = buffer.getLong(offset + 21);
+        int nameLength = buffer.getInt(offset + 29);
+        String name = null;
+        if (nameLength >= 0) {
+            byte[] bytes = new byte[nameLength];
+            for (int i = 0; i < nameLength; i++) {
+                bytes[i] = buffer.get(offset + PUT_RECORD_HEADER_SIZE + i);
+            }
+            name = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return new Department(id, name, version, parentId == 0 ? null : parentId);
+    }
+
+    private void applyPut(long id, int offset) {
+        int previous = index.put(id, offset);
+        if (previous != LongIntHashMap.MISSING) {
+            liveBytes -= buffer.getInt(previous);
+        }
+        liveBytes += buffer.getInt(offset);
+    }
+
+    private void applyRemove(long id) {
+        int previous = index.remove(id);
+        if (previous == LongIntHashMap.MISSING) {
+            return;
+        }
+        liveBytes -= buffer.getInt(previous);
+    }
+
+    /**
+     * @return offset of free space of the size at the end of the records, after compaction or growth of the file
+     */
+    private int reserve(int size) throws IOException {
+        if ((long) end + size <= buffer.capacity()) {
+            return end;
+        }
+        if (liveBytes + size <= (buffer.capacity() - HEADER_SIZE) / 2) {
+            compact();
+        } else {
+            map(Math.max((long) buffer.capacity() * 2, (long) end + size));
+        }
+        return end;
+    }
+
+    /**
+     * Move the live records to the start of the file in their order, dropping removed and replaced ones.
+     * The seq is reset while records are moved, so a store interrupted by a crash is reloaded on the next start.
+     */
+    private void compact() {
+        long lastSeq = getLastSeq();
+        setLastSeq(NO_SEQ);
+        int target = HEADER_SIZE;
+        for (int offset = HEADER_SIZE; offset < end; ) {
+            int size = buffer.getInt(offset);
+            long id = buffer.getLong(offset + 5);
+            if (buffer.get(offset + 4) == PUT && index.get(id) == offset) {
+                if (target != offset) {
+                    for (int i = 0; i < size; i++) {
+                        buffer.put(target + i, buffer.get(offset + i));
+                    }
+                    index.put(id, target);
+                }
+                target += size;
+            }
+            offset += size;
+        }
+        log.debug("Department store {} compacted from {} to {} bytes", path, end, target);
+        commit(target);
+        setLastSeq(lastSeq);
+    }
+
+    /**
+     * Move the end of the records after a written record, the record is skipped by a scan until then.
+     */
+    private void commit(int recordsEnd) {
+        end = recordsEnd;
+        buffer.putInt(END_OFFSET, recordsEnd);
+    }
+}
@@ -0,0 +1,6 @@
+-- Hibernate allocates department ids in blocks of 50 (pooled optimizer): one nextval per 50 inserts.
+-- The sequence is moved past every id handed out so far, so the first block can't overlap existing rows.
+alter sequence hibernate_sequence increment 50;
+
+select setval('hibernate_sequence', greatest((select last_value from hibernate_sequence),
+                                             (select coalesce(max(id), 1) from department)));
@@ -0,0 +1,19 @@
+create sequence department_deletion_sequence start 1 increment 1;
+
+create table department_deletion (
+    id int8 not null,
+    department_id int8 not null,
+    replacement_department_id int8 not null,
+    status varchar(16) not null,
+    attempts int4 not null,
+    response_status int4,
+    message varchar(1024),
+    created_at timestamp not null,
+    updated_at timestamp not null,
+    primary key (id)
+);
+
+-- Dispatcher polls pending deletions in id order
+create index department_deletion_pending_idx on department_deletion (id) where status = 'PENDING';
+-- Only one deletion of a department can be in progress
+create unique index department_deletion_department_pending_uidx on department_deletion (department_id) where status = 'PENDING';
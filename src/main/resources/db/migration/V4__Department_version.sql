@@ -0,0 +1 @@
+alter table department add column version int8 not null default 0;
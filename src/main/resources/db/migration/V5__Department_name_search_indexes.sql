@@ -0,0 +1,6 @@
+create extension if not exists pg_trgm;
+
+-- Substring search: lower(name) like '%q%' (and prefix search for queries of 3+ characters)
+create index department_name_trgm_idx on department using gin (lower(name) gin_trgm_ops);
+-- Prefix search: lower(name) like 'q%' independent of database collation
+create index department_name_prefix_idx on department (lower(name) text_pattern_ops);
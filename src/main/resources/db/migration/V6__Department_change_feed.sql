@@ -0,0 +1,27 @@
+-- Change log of departments: one row per create, update and delete, written in the transaction of the change.
+-- seq comes from department_change_head, whose row is locked by every writer until commit,
+-- so changes become visible in seq order and consumers never skip a change.
+create table department_change_head (
+    id int4 not null,
+    last_seq int8 not null,
+    purged_seq int8 not null,
+    primary key (id)
+);
+
+insert into department_change_head (id, last_seq, purged_seq)
+values (1, 0, 0);
+
+create table department_change (
+    seq int8 not null,
+    department_id int8 not null,
+    type varchar(16) not null,
+    name varchar(255),
+    version int8 not null,
+    changed_at timestamp not null,
+    primary key (seq)
+);
+
+-- Compaction looks for later changes of the same department
+create index department_change_department_idx on department_change (department_id, seq);
+-- Retention deletes changes older than the retention period
+create index department_change_changed_at_idx on department_change (changed_at);
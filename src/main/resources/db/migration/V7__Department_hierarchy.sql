@@ -0,0 +1,22 @@
+-- Hierarchy of departments: parent reference, and closure table with a row for every department and each of its
+-- ancestors (and for the department itself at depth 0), so a subtree or the ancestors of a department are read with one indexed query.
+alter table department add column parent_id int8;
+alter table department add constraint department_parent_fk foreign key (parent_id) references department (id);
+-- Check for subdepartments before a department is deleted
+create index department_parent_idx on department (parent_id);
+
+create table department_closure (
+    ancestor_id int8 not null,
+    descendant_id int8 not null,
+    depth int4 not null,
+    primary key (ancestor_id, descendant_id),
+    constraint department_closure_ancestor_fk foreign key (ancestor_id) references department (id) on delete cascade,
+    constraint department_closure_descendant_fk foreign key (descendant_id) references department (id) on delete cascade
+);
+
+-- Ancestors of a department
+create index department_closure_descendant_idx on department_closure (descendant_id, depth);
+
+-- Existing departments are roots
+insert into department_closure (ancestor_id, descendant_id, depth)
+select id, id, 0 from department;
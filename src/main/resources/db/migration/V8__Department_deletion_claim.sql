@@ -0,0 +1,6 @@
+-- Dispatcher claims deletions (IN_PROGRESS) in a short transaction and calls employee-management-ws outside of it,
+-- a claimed deletion is still in progress for the department
+drop index department_deletion_pending_idx;
+create index department_deletion_pending_idx on department_deletion (id) where status in ('PENDING', 'IN_PROGRESS');
+drop index department_deletion_department_pending_uidx;
+create unique index department_deletion_department_pending_uidx on department_deletion (department_id) where status in ('PENDING', 'IN_PROGRESS');
@@ -0,0 +1,2 @@
+-- Changes carry the parent of the department after the change, so subscribers see moves in the hierarchy
+alter table department_change add column parent_id int8;
@@ -0,0 +1,91 @@
+package ru.xfneo.departmentsmanagement.admission;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveConcurrencyLimiterTest {
+    private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void acquire_OverLimitWithoutQueue_Rejected() throws InterruptedException {
+        AdaptiveConcurrencyLimiter sut = new AdaptiveConcurrencyLimiter("read", 2, 1, 10, 2.0, 0, 0);
+        assertTrue(sut.acquire());
+        assertTrue(sut.acquire());
+        assertFalse(sut.acquire());
+        sut.release(LATENCY, false);
+        assertTrue(sut.acquire());
+    }
+
+    @Test
+    public void acquire_OverLimitWithQueue_AdmittedAfterRelease() throws Exception {
+        AdaptiveConcurrencyLimiter sut = new AdaptiveConcurrencyLimiter("read", 1, 1, 10, 2.0, 1, 5000);
+        assertTrue(sut.acquire());
+        CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(() -> {
+            try {
+                return sut.acquire();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (sut.getQueued() == 0) {
+            Thread.sleep(1);
+        }
+        assertFalse("the queue is full", sut.acquire());
+        sut.release(LATENCY, false);
+        assertTrue(queued.get(5, TimeUnit.SECONDS));
+        assertEquals(0, sut.getQueued());
+    }
+
+    @Test
+    public void release_StableLatencyAtLimit_LimitGrowsToMax() throws InterruptedException {
+        AdaptiveConcurrencyLimiter sut = new AdaptiveConcurrencyLimiter("read", 4, 1, 20, 2.0, 0, 0);
+        for (int i = 0; i < 200; i++) {
+            runAtLimit(sut, LATENCY);
+        }
+        assertEquals(20, sut.getLimit());
+    }
+
+    @Test
+    public void release_LatencyRises_LimitShrinksToMin() throws InterruptedException {
+        AdaptiveConcurrencyLimiter sut = new AdaptiveConcurrencyLimiter("read", 20, 2, 20, 2.0, 0, 0);
+        for (int i = 0; i < 50; i++) {
+            runAtLimit(sut, LATENCY);
+        }
+        long latency = LATENCY;
+        for (int i = 0; i < 20; i++) {
+            latency *= 3;
+            runAtLimit(sut, latency);
+        }
+        assertEquals(2, sut.getLimit());
+    }
+
+    @Test
+    public void release_FailedRequest_LimitShrinks() throws InterruptedException {
+        AdaptiveConcurrencyLimiter sut = new AdaptiveConcurrencyLimiter("delete", 10, 2, 20, 2.0, 0, 0);
+        assertTrue(sut.acquire());
+        sut.release(LATENCY, true);
+        assertEquals(9, sut.getLimit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_InitialLimitOverMax_IllegalArgumentException() {
+        new AdaptiveConcurrencyLimiter("read", 30, 1, 20, 2.0, 0, 0);
+    }
+
+    /**
+     * Take all permits, then release them with the latency.
+     */
+    private static void runAtLimit(AdaptiveConcurrencyLimiter sut, long latency) throws InterruptedException {
+        int permits = 0;
+        while (sut.acquire()) {
+            permits++;
+        }
+        for (int i = 0; i < permits; i++) {
+            sut.release(latency, false);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package ru.xfneo.departmentsmanagement.client;
+
+import com.sun.net.httpserver.HttpServer;
+import feign.Response;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import lombok.SneakyThrows;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ReactiveEmployeeClientTest {
+    private static final int MAX_ATTEMPTS = 3;
+
+    private HttpServer stubServer;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private volatile int[] stubStatuses;
+    private volatile long stubDelayMillis;
+    private volatile String callbackThreadName;
+    private CircuitBreaker circuitBreaker;
+    private ReactiveEmployeeClient sut;
+    private Map<String, Long> requestBody;
+
+    @Before
+    @SneakyThrows
+    public void setUp() {
+        stubStatuses = new int[]{200};
+        stubServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        stubServer.createContext(ReactiveEmployeeClient.REPLACE_DEPARTMENT_URI, exchange -> {
+            int attempt = requestCount.getAndIncrement();
+            int status = stubStatuses[Math.min(attempt, stubStatuses.length - 1)];
+            try {
+                Thread.sleep(stubDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = (status == 200 ? "2 employees are affected" : "Error").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        });
+        stubServer.setExecutor(Executors.newCachedThreadPool());
+        stubServer.start();
+
+        circuitBreaker = CircuitBreaker.of("test", CircuitBreakerConfig.custom()
+                .slidingWindowSize(MAX_ATTEMPTS)
+                .minimumNumberOfCalls(MAX_ATTEMPTS)
+                .failureRateThreshold(50)
+                .waitDurationInOpenState(Duration.ofMinutes(1))
+                .build());
+        Retry retry = Retry.of("test", RetryConfig.custom()
+                .maxAttempts(MAX_ATTEMPTS)
+                .waitDuration(Duration.ofMillis(10))
+                .retryExceptions(IOException.class, TimeoutException.class, ResilientEmployeeClient.ServerErrorResponseException.class)
+                .ignoreExceptions(CallNotPermittedException.class)
+                .build());
+        WebClient webClient = WebClient.create("http://localhost:" + stubServer.getAddress().getPort());
+        sut = new ReactiveEmployeeClient(webClient, Duration.ofMillis(1000), circuitBreaker, retry,
+                Executors.newSingleThreadScheduledExecutor(),
+                Executors.newFixedThreadPool(1, runnable -> new Thread(runnable, "callback")));
+        requestBody = new HashMap<>();
+        requestBody.put("oldDepartmentID", 1L);
+        requestBody.put("newDepartmentID", 2L);
+    }
+
+    @After
+    public void tearDown() {
+        sut.close();
+        stubServer.stop(0);
+    }
+
+    @Test
+    @SneakyThrows
+    public void replaceDepartmentIdAsync_ServiceRespondsOk_FutureWithOkResponseCompletedOnCallbackExecutor() {
+        Response response = sut.replaceDepartmentIdAsync(requestBody)
+                .whenComplete((r, e) -> callbackThreadName = Thread.currentThread().getName())
+                .get(5, TimeUnit.SECONDS);
+        assertEquals(200, response.status());
+        assertEquals("2 employees are affected", feign.Util.toString(response.body().asReader()));
+        assertEquals("callback", callbackThreadName);
+        assertEquals(1, requestCount.get());
+    }
+
+    @Test
+    public void replaceDepartmentId_ServiceFailsOnceThenRespondsOk_RetriedAndOkResponse() {
+        stubStatuses = new int[]{503, 200};
+        assertEquals(200, sut.replaceDepartmentId(requestBody).status());
+        assertEquals(2, requestCount.get());
+    }
+
+    @Test
+    @SneakyThrows
+    public void replaceDepartmentId_ServiceAlwaysFails_LastErrorResponseAfterAllAttempts() {
+        stubStatuses = new int[]{500};
+        Response response = sut.replaceDepartmentId(requestBody);
+        assertEquals(500, response.status());
+        assertEquals("Error", feign.Util.toString(response.body().asReader()));
+        assertEquals(MAX_ATTEMPTS, requestCount.get());
+    }
+
+    @Test
+    @SneakyThrows
+    public void replaceDepartmentIdAsync_ServiceSlowerThanReadTimeout_FutureFailedWithServiceUnavailableException() {
+        stubDelayMillis = 3000;
+        try {
+            sut.replaceDepartmentIdAsync(requestBody).get(10, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof EmployeeServiceUnavailableException);
+        }
+        assertEquals(MAX_ATTEMPTS, requestCount.get());
+    }
+
+    @Test
+    public void replaceDepartmentId_CircuitBreakerOpen_ServiceUnavailableExceptionWithoutCall() {
+        stubStatuses = new int[]{500};
+        sut.replaceDepartmentId(requestBody);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        int requestsBeforeOpen = requestCount.get();
+        try {
+            sut.replaceDepartmentId(requestBody);
+            fail("Expected EmployeeServiceUnavailableException");
+        } catch (EmployeeServiceUnavailableException e) {
+            assertTrue(e.getCause() instanceof CallNotPermittedException);
+        }
+        assertEquals(requestsBeforeOpen, requestCount.get());
+    }
+}
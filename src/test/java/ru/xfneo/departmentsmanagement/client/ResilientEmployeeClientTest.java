@@ -0,0 +1,196 @@
+package ru.xfneo.departmentsmanagement.client;
+
+import com.sun.net.httpserver.HttpServer;
+import feign.Feign;
+import feign.Request;
+import feign.Response;
+import feign.RetryableException;
+import feign.Retryer;
+import feign.jackson.JacksonDecoder;
+import feign.jackson.JacksonEncoder;
+import feign.okhttp.OkHttpClient;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.SneakyThrows;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.openfeign.support.SpringMvcContract;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ResilientEmployeeClientTest {
+    private static final String REPLACE_DEPARTMENT_PATH = "/api/employees/replaceDepartment";
+    private static final int MAX_ATTEMPTS = 3;
+
+    private HttpServer stubServer;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private volatile int[] stubStatuses;
+    private volatile long stubDelayMillis;
+    private CircuitBreaker circuitBreaker;
+    private SimpleMeterRegistry meterRegistry;
+    private ResilientEmployeeClient sut;
+    private Map<String, Long> requestBody;
+
+    @Before
+    @SneakyThrows
+    public void setUp() {
+        stubStatuses = new int[]{200};
+        stubServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        stubServer.createContext(REPLACE_DEPARTMENT_PATH, exchange -> {
+            int attempt = requestCount.getAndIncrement();
+            int status = stubStatuses[Math.min(attempt, stubStatuses.length - 1)];
+            try {
+                Thread.sleep(stubDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = (status == 200 ? "2 employees are affected" : "Error").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        });
+        stubServer.setExecutor(Executors.newCachedThreadPool());
+        stubServer.start();
+
+        meterRegistry = new SimpleMeterRegistry();
+        EmployeeClient feignClient = Feign.builder()
+                .client(new MeteredClient(new OkHttpClient(), meterRegistry))
+                .options(new Request.Options(500, 500))
+                .retryer(Retryer.NEVER_RETRY)
+                .contract(new SpringMvcContract())
+                .encoder(new JacksonEncoder())
+                .decoder(new JacksonDecoder())
+                .target(EmployeeClient.class, "http://localhost:" + stubServer.getAddress().getPort());
+        circuitBreaker = CircuitBreaker.of("test", CircuitBreakerConfig.custom()
+                .slidingWindowSize(MAX_ATTEMPTS)
+                .minimumNumberOfCalls(MAX_ATTEMPTS)
+                .failureRateThreshold(50)
+                .waitDurationInOpenState(Duration.ofMinutes(1))
+                .build());
+        Retry retry = Retry.of("test", RetryConfig.custom()
+                .maxAttempts(MAX_ATTEMPTS)
+                .waitDuration(Duration.ofMillis(10))
+                .retryExceptions(RetryableException.class, ResilientEmployeeClient.ServerErrorResponseException.class)
+                .ignoreExceptions(CallNotPermittedException.class)
+                .build());
+        sut = new ResilientEmployeeClient(feignClient, circuitBreaker, retry, Executors.newFixedThreadPool(2));
+        requestBody = new HashMap<>();
+        requestBody.put("oldDepartmentID", 1L);
+        requestBody.put("newDepartmentID", 2L);
+    }
+
+    @After
+    public void tearDown() {
+        sut.close();
+        stubServer.stop(0);
+    }
+
+    @Test
+    public void replaceDepartmentId_ServiceRespondsOk_OkResponse() {
+        try (Response response = sut.replaceDepartmentId(requestBody)) {
+            assertEquals(200, response.status());
+        }
+        assertEquals(1, requestCount.get());
+    }
+
+    @Test
+    public void replaceDepartmentId_ServiceFailsOnceThenRespondsOk_RetriedAndOkResponse() {
+        stubStatuses = new int[]{503, 200};
+        try (Response response = sut.replaceDepartmentId(requestBody)) {
+            assertEquals(200, response.status());
+        }
+        assertEquals(2, requestCount.get());
+    }
+
+    @Test
+    public void replaceDepartmentId_ServiceFailsOnceThenRespondsOk_EachCallMetered() {
+        stubStatuses = new int[]{503, 200};
+        sut.replaceDepartmentId(requestBody).close();
+        assertEquals(1, meterRegistry.get(MeteredClient.REQUESTS_METRIC).tag("status", "503").timer().count());
+        assertEquals(1, meterRegistry.get(MeteredClient.REQUESTS_METRIC)
+                .tags("status", "200", "uri", REPLACE_DEPARTMENT_PATH, "method", "POST").timer().count());
+        assertEquals(2, meterRegistry.get(MeteredClient.REQUEST_SIZE_METRIC).summary().count());
+        assertEquals("2 employees are affected".length(),
+                meterRegistry.get(MeteredClient.RESPONSE_SIZE_METRIC).summary().max(), 0);
+    }
+
+    @Test
+    public void replaceDepartmentId_ServiceSlowerThanReadTimeout_IoErrorsMetered() {
+        stubDelayMillis = 1000;
+        try {
+            sut.replaceDepartmentId(requestBody);
+            fail("Expected EmployeeServiceUnavailableException");
+        } catch (EmployeeServiceUnavailableException e) {
+            assertEquals(MAX_ATTEMPTS, meterRegistry.get(MeteredClient.REQUESTS_METRIC).tag("status", "IO_ERROR").timer().count());
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void replaceDepartmentId_ServiceAlwaysFails_LastErrorResponseAfterAllAttempts() {
+        stubStatuses = new int[]{500};
+        try (Response response = sut.replaceDepartmentId(requestBody)) {
+            assertEquals(500, response.status());
+            assertEquals("Error", feign.Util.toString(response.body().asReader()));
+        }
+        assertEquals(MAX_ATTEMPTS, requestCount.get());
+    }
+
+    @Test(expected = EmployeeServiceUnavailableException.class)
+    public void replaceDepartmentId_ServiceSlowerThanReadTimeout_ServiceUnavailableException() {
+        stubDelayMillis = 1000;
+        sut.replaceDepartmentId(requestBody);
+    }
+
+    @Test
+    public void replaceDepartmentId_CircuitBreakerOpen_ServiceUnavailableExceptionWithoutCall() {
+        stubStatuses = new int[]{500};
+        sut.replaceDepartmentId(requestBody).close();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        int requestsBeforeOpen = requestCount.get();
+        try {
+            sut.replaceDepartmentId(requestBody);
+            fail("Expected EmployeeServiceUnavailableException");
+        } catch (EmployeeServiceUnavailableException e) {
+            assertTrue(e.getCause() instanceof CallNotPermittedException);
+        }
+        assertEquals(requestsBeforeOpen, requestCount.get());
+    }
+
+    @Test
+    @SneakyThrows
+    public void replaceDepartmentIdAsync_ServiceRespondsOk_FutureWithOkResponse() {
+        try (Response response = sut.replaceDepartmentIdAsync(requestBody).get(5, TimeUnit.SECONDS)) {
+            assertEquals(200, response.status());
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void replaceDepartmentIdAsync_ServiceSlowerThanReadTimeout_FutureFailedWithServiceUnavailableException() {
+        stubDelayMillis = 1000;
+        try {
+            sut.replaceDepartmentIdAsync(requestBody).get(10, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof EmployeeServiceUnavailableException);
+        }
+    }
+}
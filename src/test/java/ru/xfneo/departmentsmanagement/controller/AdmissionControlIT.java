@@ -0,0 +1,126 @@
+package ru.xfneo.departmentsmanagement.controller;
+
+import feign.Request;
+import feign.Response;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Answers;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+import ru.xfneo.departmentsmanagement.admission.AdmissionControlFilter;
+import ru.xfneo.departmentsmanagement.client.EmployeeClient;
+import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.domain.DepartmentChangeHead;
+import ru.xfneo.departmentsmanagement.repository.DepartmentChangeHeadRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentChangeRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Saturation of the delete group: employee-management-ws responds after a second, the delete limit is 2
+ * without a queue, so concurrent deletes over the limit are rejected at once while reads are still served.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:admission;DB_CLOSE_DELAY=-1",
+        "departments.admission.delete.initial-limit=2",
+        "departments.admission.delete.min-limit=1",
+        "departments.admission.delete.max-limit=2",
+        "departments.admission.queue-size=0",
+        "departments.admission.retry-after=3"
+})
+public class AdmissionControlIT {
+    private static final int CONCURRENT_DELETES = 8;
+    private static final String DEPARTMENTS_ID_URI = "/api/departments/{id}";
+    @MockBean(answer = Answers.CALLS_REAL_METHODS)
+    private EmployeeClient employeeClient;
+    @Autowired
+    private TestRestTemplate restTemplate;
+    @Autowired
+    private DepartmentRepository departmentRepository;
+    @Autowired
+    private DepartmentChangeRepository departmentChangeRepository;
+    @Autowired
+    private DepartmentChangeHeadRepository departmentChangeHeadRepository;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    private final ExecutorService clients = Executors.newFixedThreadPool(CONCURRENT_DELETES);
+
+    @Before
+    public void setUp() {
+        // created by migration in the database of the application
+        departmentChangeHeadRepository.save(new DepartmentChangeHead(DepartmentChangeHead.ID, 0, 0));
+        when(employeeClient.replaceDepartmentId(anyMap())).thenAnswer(invocation -> {
+            Thread.sleep(1000);
+            return Response.builder()
+                    .status(200)
+                    .body("1 employee is affected", StandardCharsets.UTF_8)
+                    .request(mock(Request.class))
+                    .build();
+        });
+    }
+
+    @After
+    public void resetDb() {
+        clients.shutdownNow();
+        departmentRepository.deleteAll();
+        departmentChangeRepository.deleteAll();
+        departmentChangeHeadRepository.deleteAll();
+    }
+
+    @Test
+    public void deleteDepartmentsOverLimitAndRejectedWithRetryAfterWhileReadsServed() throws Exception {
+        Department replacement = departmentRepository.save(new Department(0, "Replacement Department"));
+        List<CompletableFuture<ResponseEntity<String>>> deletes = new ArrayList<>();
+        for (int i = 0; i < CONCURRENT_DELETES; i++) {
+            Department department = departmentRepository.save(new Department(0, "Department " + i));
+            deletes.add(CompletableFuture.supplyAsync(() -> restTemplate.exchange(
+                    DEPARTMENTS_ID_URI + "?departmentForReplacement={replacementId}", HttpMethod.DELETE, null, String.class,
+                    department.getId(), replacement.getId()), clients));
+        }
+        // the delete limit is taken by slow deletes, reads have their own limit
+        assertThat(restTemplate.getForEntity(DEPARTMENTS_ID_URI, String.class, replacement.getId()).getStatusCodeValue(), is(200));
+
+        int deleted = 0;
+        int rejected = 0;
+        for (CompletableFuture<ResponseEntity<String>> delete : deletes) {
+            ResponseEntity<String> response = delete.get();
+            if (response.getStatusCodeValue() == 503) {
+                assertThat(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER), is("3"));
+                rejected++;
+            } else {
+                assertThat(response.getStatusCodeValue(), is(200));
+                deleted++;
+            }
+        }
+        assertThat(rejected, greaterThan(0));
+        assertThat(deleted, greaterThan(0));
+        assertThat(deleted + rejected, is(CONCURRENT_DELETES));
+        assertThat(departmentRepository.count(), is((long) CONCURRENT_DELETES - deleted + 1));
+        assertThat(meterRegistry.get(AdmissionControlFilter.REJECTED_METRIC).tag("group", "delete").counter().count(), is((double) rejected));
+        assertThat(meterRegistry.get("departments.admission.in.flight").tag("group", "delete").gauge().value(), lessThanOrEqualTo(0.0));
+    }
+}
@@ -1,39 +1,72 @@
 package ru.xfneo.departmentsmanagement.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import feign.Request;
 import feign.Response;
+import lombok.SneakyThrows;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.runner.RunWith;
+import org.mockito.Answers;
 import org.mockito.Mock;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.cache.Cache;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.StreamUtils;
 import ru.xfneo.departmentsmanagement.client.EmployeeClient;
 import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.domain.DepartmentChange;
+import ru.xfneo.departmentsmanagement.domain.DepartmentChangeHead;
+import ru.xfneo.departmentsmanagement.domain.DepartmentDeletion;
+import ru.xfneo.departmentsmanagement.dto.BatchItemResult;
+import ru.xfneo.departmentsmanagement.dto.DepartmentChanges;
+import ru.xfneo.departmentsmanagement.dto.DepartmentPage;
+import ru.xfneo.departmentsmanagement.repository.DepartmentChangeHeadRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentChangeRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentDeletionRepository;
 import ru.xfneo.departmentsmanagement.repository.DepartmentRepository;
+import ru.xfneo.departmentsmanagement.service.DepartmentDeletionDispatcher;
 
+import javax.persistence.EntityManagerFactory;
 import javax.sql.DataSource;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.collection.IsCollectionWithSize.hasSize;
 import static org.junit.Assert.*;
@@ -44,34 +77,50 @@ import static org.mockito.Mockito.when;
 @RunWith(SpringRunner.class)
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 public class DepartmentsControllerIT {
-    @MockBean
+    // default methods (e.g. replaceDepartmentIdAsync) delegate to the stubbed blocking method
+    @MockBean(answer = Answers.CALLS_REAL_METHODS)
     private EmployeeClient employeeClient;
     @Autowired
     private TestRestTemplate restTemplate;
     @Autowired
     private DepartmentRepository departmentRepository;
     @Autowired
+    private DepartmentDeletionRepository departmentDeletionRepository;
+    @Autowired
+    private DepartmentChangeRepository departmentChangeRepository;
+    @Autowired
+    private DepartmentChangeHeadRepository departmentChangeHeadRepository;
+    @Autowired
+    private DepartmentDeletionDispatcher departmentDeletionDispatcher;
+    @Autowired
     private DataSource dataSource;
+    @Autowired
+    private Cache departmentCache;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
     private Department department1;
     private Department department2;
     private Department department3;
     private static final String DEPARTMENTS_URI = "/api/departments";
     private static final String DEPARTMENTS_ID_URI = "/api/departments/{id}";
+    private static final String DEPARTMENTS_BATCH_URI = "/api/departments/batch";
 
     @Before
     public void setUp() {
-        department1 = new Department(1, "IT Department");
-        department2 = new Department(2,"QA Department");
-        department3 = new Department(3,"Development Department");
-        departmentRepository.save(department1);
-        departmentRepository.save(department2);
-        departmentRepository.save(department3);
+        // created by migration in the database of the application
+        departmentChangeHeadRepository.save(new DepartmentChangeHead(DepartmentChangeHead.ID, 0, 0));
+        department1 = departmentRepository.save(new Department(0, "IT Department"));
+        department2 = departmentRepository.save(new Department(0,"QA Department"));
+        department3 = departmentRepository.save(new Department(0,"Development Department"));
     }
 
     @After
     public void resetDb() {
+        departmentDeletionRepository.deleteAll();
         departmentRepository.deleteAll();
-        new JdbcTemplate(dataSource).update("ALTER SEQUENCE hibernate_sequence RESTART WITH 1");
+        departmentChangeRepository.deleteAll();
+        departmentChangeHeadRepository.deleteAll();
+        departmentCache.clear();
     }
 
     @Test
@@ -84,6 +133,51 @@ public class DepartmentsControllerIT {
         assertThat(departments.get(0).getName(), is("IT Department"));
     }
 
+    @Test
+    @SneakyThrows
+    public void getListOfDepartmentsGzippedAndListUpdatedAfterCreate() {
+        assertThat(getListOfDepartmentsGzipped(), not(containsString("\"name\":\"Sales Department\"")));
+        restTemplate.postForObject(DEPARTMENTS_URI, new Department(0, "Sales Department"), Department.class);
+        assertThat(getListOfDepartmentsGzipped(), containsString("\"name\":\"Sales Department\""));
+    }
+
+    @Test
+    public void getListOfDepartmentsAsNdjsonAndOneDepartmentPerLine() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(Collections.singletonList(MediaType.parseMediaType(DepartmentsController.APPLICATION_NDJSON_VALUE)));
+        ResponseEntity<String> response = restTemplate.exchange(DEPARTMENTS_URI, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        assertThat(response.getHeaders().getContentType().toString(), is(DepartmentsController.APPLICATION_NDJSON_VALUE));
+        String[] lines = response.getBody().split("\n");
+        assertThat(lines.length, is(3));
+        assertThat(lines[0], is("{\"id\":" + department1.getId() + ",\"name\":\"IT Department\",\"version\":0}"));
+        assertThat(response.getHeaders().getETag(), not(restTemplate.getForEntity(DEPARTMENTS_URI, String.class).getHeaders().getETag()));
+    }
+
+    @Test
+    public void getPagesOfDepartmentsAndAllDepartmentsAcrossPages() {
+        DepartmentPage firstPage = restTemplate.getForObject(DEPARTMENTS_URI + "?limit=2", DepartmentPage.class);
+        assertThat(firstPage.getItems(), hasSize(2));
+        assertThat(firstPage.getNextCursor(), is(department2.getId()));
+        DepartmentPage lastPage = restTemplate.getForObject(DEPARTMENTS_URI + "?after={after}&limit=2", DepartmentPage.class, firstPage.getNextCursor());
+        assertThat(lastPage.getItems(), hasSize(1));
+        assertThat(lastPage.getItems().get(0), is(department3));
+        assertNull(lastPage.getNextCursor());
+    }
+
+    @Test
+    public void searchDepartmentsAndFoundDepartmentsAcrossPagesUntilRenamed() {
+        String searchUri = DEPARTMENTS_URI + "/search?q={q}&match={match}&limit=2";
+        DepartmentPage firstPage = restTemplate.getForObject(searchUri, DepartmentPage.class, "DEPARTMENT", "substring");
+        assertEquals(Arrays.asList(department1, department2), firstPage.getItems());
+        DepartmentPage lastPage = restTemplate.getForObject(searchUri + "&after={after}", DepartmentPage.class,
+                "DEPARTMENT", "substring", firstPage.getNextCursor());
+        assertEquals(Arrays.asList(department3), lastPage.getItems());
+        assertNull(lastPage.getNextCursor());
+        assertEquals(Arrays.asList(department3), restTemplate.getForObject(searchUri, DepartmentPage.class, "dev", "prefix").getItems());
+        putWithCurrentETag(department3.getId(), new Department(0, "Renamed Department"));
+        assertThat(restTemplate.getForObject(searchUri, DepartmentPage.class, "dev", "prefix").getItems(), hasSize(0));
+    }
+
     @Test
     public void getDepartmentAndNotNullDepartment() {
         long id = department2.getId();
@@ -91,6 +185,40 @@ public class DepartmentsControllerIT {
         assertEquals(department2, actualDepartment);
     }
 
+    @Test
+    @SneakyThrows
+    public void getLargePageAsCborAndCompressedButSmallDepartmentNotCompressed() {
+        // a page larger than min-response-size (2048 bytes)
+        char[] longName = new char[250];
+        Arrays.fill(longName, 'D');
+        for (int i = 0; i < 10; i++) {
+            departmentRepository.save(new Department(0, new String(longName) + i));
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(restTemplate.getRootUri() + DEPARTMENTS_URI + "?limit=1000").openConnection();
+        connection.setRequestProperty(HttpHeaders.ACCEPT, DepartmentsController.APPLICATION_CBOR_VALUE);
+        connection.setRequestProperty(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        try (InputStream body = connection.getInputStream()) {
+            assertThat(connection.getResponseCode(), is(200));
+            assertThat(connection.getContentType(), is(DepartmentsController.APPLICATION_CBOR_VALUE));
+            assertThat(connection.getHeaderField(HttpHeaders.CONTENT_ENCODING), is("gzip"));
+            DepartmentPage page = new ObjectMapper(new CBORFactory()).readValue(new GZIPInputStream(body), DepartmentPage.class);
+            assertThat(page.getItems(), hasSize(13));
+        } finally {
+            connection.disconnect();
+        }
+
+        connection = (HttpURLConnection) new URL(restTemplate.getRootUri() + "/api/departments/" + department1.getId()).openConnection();
+        connection.setRequestProperty(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        try (InputStream body = connection.getInputStream()) {
+            assertThat(connection.getResponseCode(), is(200));
+            assertNull("smaller than min-response-size", connection.getHeaderField(HttpHeaders.CONTENT_ENCODING));
+            assertEquals(department1, new ObjectMapper().readValue(body, Department.class));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
     @Test
     public void createDepartmentAndSavedDepartmentInRepository() {
         Department expectedDepartment = new Department(4, "Accounting Department");
@@ -98,14 +226,23 @@ public class DepartmentsControllerIT {
         assertThat(response.getStatusCode(), is(HttpStatus.CREATED));
         assertThat(response.getBody().getId(), notNullValue());
         assertThat(response.getBody().getName(), is(expectedDepartment.getName()));
-        Department actualDepartment = restTemplate.getForObject(DEPARTMENTS_ID_URI, Department.class, expectedDepartment.getId());
-        assertEquals(expectedDepartment, actualDepartment);
+        Department actualDepartment = restTemplate.getForObject(DEPARTMENTS_ID_URI, Department.class, response.getBody().getId());
+        assertEquals(response.getBody(), actualDepartment);
+        assertThat(actualDepartment.getName(), is(expectedDepartment.getName()));
     }
 
     @Test
     public void updateDepartmentAndUpdatedDepartmentInRepository() {
         Department expectedDepartment = new Department(999, "Platform Development Department");
-        HttpEntity<Department> entity = new HttpEntity<>(expectedDepartment);
+        ResponseEntity<String> withoutIfMatchResponse = restTemplate.exchange(DEPARTMENTS_ID_URI, HttpMethod.PUT,
+                new HttpEntity<>(expectedDepartment), String.class, department3.getId());
+        assertThat("version 0 from the body is expected", withoutIfMatchResponse.getStatusCode(), is(HttpStatus.OK));
+        ResponseEntity<String> staleVersionResponse = restTemplate.exchange(DEPARTMENTS_ID_URI, HttpMethod.PUT,
+                new HttpEntity<>(expectedDepartment), String.class, department3.getId());
+        assertThat(staleVersionResponse.getStatusCode(), is(HttpStatus.CONFLICT));
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfMatch("\"1\"");
+        HttpEntity<Department> entity = new HttpEntity<>(expectedDepartment, headers);
         ResponseEntity<Department> response =
                 restTemplate.exchange(DEPARTMENTS_ID_URI, HttpMethod.PUT, entity, Department.class, department3.getId());
         assertThat(response.getStatusCode(), is(HttpStatus.OK));
@@ -115,6 +252,30 @@ public class DepartmentsControllerIT {
         assertEquals(actualDepartment.getName(), expectedDepartment.getName());
     }
 
+    @Test
+    public void updateDepartmentWithStaleVersionConflictsAndPatchWithCurrentVersionApplied() {
+        String eTag = restTemplate.getForEntity(DEPARTMENTS_ID_URI, Department.class, department3.getId()).getHeaders().getETag();
+        putWithCurrentETag(department3.getId(), new Department(0, "Renamed Department"));
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfMatch(eTag);
+        ResponseEntity<String> conflictResponse = restTemplate.exchange(DEPARTMENTS_ID_URI, HttpMethod.PUT,
+                new HttpEntity<>(new Department(0, "Lost Update"), headers), String.class, department3.getId());
+        assertThat(conflictResponse.getStatusCode(), is(HttpStatus.CONFLICT));
+        String currentETag = restTemplate.getForEntity(DEPARTMENTS_ID_URI, Department.class, department3.getId()).getHeaders().getETag();
+        headers.setIfMatch(currentETag);
+        Map<String, Object> changes = new HashMap<>();
+        changes.put("name", "Patched Department");
+        ResponseEntity<String> patchResponse = restTemplate.exchange(DEPARTMENTS_ID_URI, HttpMethod.PATCH,
+                new HttpEntity<>(changes, headers), String.class, department3.getId());
+        assertThat(patchResponse.getStatusCode(), is(HttpStatus.NO_CONTENT));
+        ResponseEntity<Department> actualResponse = restTemplate.getForEntity(DEPARTMENTS_ID_URI, Department.class, department3.getId());
+        assertThat(actualResponse.getBody().getName(), is("Patched Department"));
+        assertThat(actualResponse.getHeaders().getETag(), is(patchResponse.getHeaders().getETag()));
+        ResponseEntity<String> notFoundResponse = restTemplate.exchange(DEPARTMENTS_ID_URI, HttpMethod.PATCH,
+                new HttpEntity<>(changes, headers), String.class, Long.MAX_VALUE);
+        assertThat(notFoundResponse.getStatusCode(), is(HttpStatus.NOT_FOUND));
+    }
+
     @Test
     public void deleteDepartmentAndDeletedDepartmentFromRepository() {
         Request mockRequest = mock(Request.class);
@@ -126,11 +287,335 @@ public class DepartmentsControllerIT {
         when(employeeClient.replaceDepartmentId(anyMap())).thenReturn(responseFromEmployeesService);
         long id = department1.getId();
         ResponseEntity<String> deleteResponse =
-                restTemplate.exchange(DEPARTMENTS_ID_URI + "?departmentForReplacement=3", HttpMethod.DELETE, null, String.class, id);
+                restTemplate.exchange(DEPARTMENTS_ID_URI + "?departmentForReplacement={replacementId}", HttpMethod.DELETE, null, String.class, id, department3.getId());
         assertThat(deleteResponse.getStatusCodeValue(), is(200));
         assertThat(deleteResponse.getBody(), is(responseFromEmployeesService.body().toString()));
         ResponseEntity<Void> getDeletedDepartmentResponse =
                 restTemplate.exchange(DEPARTMENTS_ID_URI, HttpMethod.GET, null, Void.class, id);
         assertThat(getDeletedDepartmentResponse.getStatusCode(), is(HttpStatus.NOT_FOUND));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void deleteDepartmentWithOneExistenceQueryOneDeleteStatementAndChangeRecord() {
+        Response responseFromEmployeesService = Response.builder()
+                .status(200)
+                .body("2 employees are affected", StandardCharsets.UTF_8)
+                .request(mock(Request.class))
+                .build();
+        when(employeeClient.replaceDepartmentId(anyMap())).thenReturn(responseFromEmployeesService);
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        ResponseEntity<String> deleteResponse = restTemplate.exchange(DEPARTMENTS_ID_URI + "?departmentForReplacement={replacementId}",
+                HttpMethod.DELETE, null, String.class, department1.getId(), department3.getId());
+        assertThat(deleteResponse.getStatusCodeValue(), is(200));
+        // existence query, subdepartments query, delete, lock and update of the change feed head, insert of the change
+        assertThat(statistics.getPrepareStatementCount(), is(6L));
+        assertThat(statistics.getEntityLoadCount(), is(1L));
+        // read-only transaction of the existence query, transaction of the delete
+        assertThat(statistics.getTransactionCount(), is(2L));
+        assertThat(departmentRepository.existsById(department1.getId()), is(false));
+    }
+
+    @Test
+    public void moveDepartmentsAndSubtreeAndAncestorsFromHierarchy() {
+        Department root = restTemplate.postForObject(DEPARTMENTS_URI, new Department(0, "Head Office"), Department.class);
+        Department child = restTemplate.postForObject(DEPARTMENTS_URI, new Department(0, "Sales Department", 0, root.getId()), Department.class);
+        Department grandchild = restTemplate.postForObject(DEPARTMENTS_URI, new Department(0, "Retail Sales", 0, child.getId()), Department.class);
+        Department other = restTemplate.postForObject(DEPARTMENTS_URI, new Department(0, "Branch Office"), Department.class);
+        ResponseEntity<List<Department>> subtreeResponse = restTemplate.exchange(DEPARTMENTS_ID_URI + "/subtree", HttpMethod.GET, null,
+                new ParameterizedTypeReference<List<Department>>() {
+                }, root.getId());
+        assertThat(subtreeResponse.getBody(), is(Arrays.asList(root, child, grandchild)));
+        // the department can't become a subdepartment of its own subdepartment
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfMatch("\"0\"");
+        ResponseEntity<String> cycleResponse = restTemplate.exchange(DEPARTMENTS_ID_URI, HttpMethod.PUT,
+                new HttpEntity<>(new Department(0, root.getName(), 0, grandchild.getId()), headers), String.class, root.getId());
+        assertThat(cycleResponse.getStatusCodeValue(), is(409));
+        ResponseEntity<String> moveResponse = restTemplate.exchange(DEPARTMENTS_ID_URI, HttpMethod.PUT,
+                new HttpEntity<>(new Department(0, child.getName(), 0, other.getId()), headers), String.class, child.getId());
+        assertThat(moveResponse.getStatusCodeValue(), is(200));
+        ResponseEntity<List<Department>> ancestorsResponse = restTemplate.exchange(DEPARTMENTS_ID_URI + "/ancestors", HttpMethod.GET, null,
+                new ParameterizedTypeReference<List<Department>>() {
+                }, grandchild.getId());
+        assertThat(ancestorsResponse.getBody(), is(Arrays.asList(other, child)));
+        ResponseEntity<List<Department>> directSubtreeResponse = restTemplate.exchange(DEPARTMENTS_ID_URI + "/subtree?maxDepth=0",
+                HttpMethod.GET, null, new ParameterizedTypeReference<List<Department>>() {
+                }, root.getId());
+        assertThat(directSubtreeResponse.getBody(), is(Collections.singletonList(root)));
+        ResponseEntity<String> deleteResponse = restTemplate.exchange(DEPARTMENTS_ID_URI + "?departmentForReplacement={replacementId}",
+                HttpMethod.DELETE, null, String.class, other.getId(), department1.getId());
+        assertThat(deleteResponse.getStatusCodeValue(), is(409));
+    }
+
+    @Test
+    public void changeDepartmentsAndChangesInCommitOrder() {
+        long start = restTemplate.getForObject(DEPARTMENTS_URI + "/changes", DepartmentChanges.class).getLastSeq();
+        Department created = restTemplate.postForObject(DEPARTMENTS_URI, new Department(0, "Sales Department"), Department.class);
+        putWithCurrentETag(department1.getId(), new Department(0, "Renamed Department"));
+        when(employeeClient.replaceDepartmentId(anyMap())).thenReturn(Response.builder()
+                .status(200)
+                .body("0 employees are affected", StandardCharsets.UTF_8)
+                .request(mock(Request.class))
+                .build());
+        restTemplate.delete(DEPARTMENTS_ID_URI + "?departmentForReplacement={replacementId}", department2.getId(), department3.getId());
+
+        DepartmentChanges changes = restTemplate.getForObject(DEPARTMENTS_URI + "/changes?since={since}", DepartmentChanges.class, start);
+        assertThat(changes.getItems(), hasSize(3));
+        assertThat(changes.getItems().get(0).getType(), is(DepartmentChange.Type.CREATED));
+        assertThat(changes.getItems().get(0).getDepartmentId(), is(created.getId()));
+        assertThat(changes.getItems().get(1).getType(), is(DepartmentChange.Type.UPDATED));
+        assertThat(changes.getItems().get(1).getName(), is("Renamed Department"));
+        assertThat(changes.getItems().get(1).getVersion(), is(1L));
+        assertThat(changes.getItems().get(2).getType(), is(DepartmentChange.Type.DELETED));
+        assertThat(changes.getItems().get(2).getDepartmentId(), is(department2.getId()));
+        assertThat(changes.getLastSeq(), is(start + 3));
+    }
+
+    @Test
+    public void patchOnlyParentAndChangeWithNameAndParent() {
+        long start = restTemplate.getForObject(DEPARTMENTS_URI + "/changes", DepartmentChanges.class).getLastSeq();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfMatch("\"0\"");
+        ResponseEntity<String> patchResponse = restTemplate.exchange(DEPARTMENTS_ID_URI, HttpMethod.PATCH,
+                new HttpEntity<>(Collections.singletonMap("parentId", department2.getId()), headers), String.class, department1.getId());
+        assertThat(patchResponse.getStatusCode(), is(HttpStatus.NO_CONTENT));
+
+        DepartmentChanges changes = restTemplate.getForObject(DEPARTMENTS_URI + "/changes?since={since}", DepartmentChanges.class, start);
+        assertThat(changes.getItems(), hasSize(1));
+        DepartmentChange change = changes.getItems().get(0);
+        assertThat(change.getType(), is(DepartmentChange.Type.UPDATED));
+        assertThat(change.getName(), is(department1.getName()));
+        assertThat(change.getVersion(), is(1L));
+        assertThat(change.getParentId(), is(department2.getId()));
+    }
+
+    @Test
+    @SneakyThrows
+    public void waitForChangesAndRespondedAfterDepartmentCreated() {
+        CompletableFuture<DepartmentChanges> changes = CompletableFuture.supplyAsync(() -> restTemplate.getForObject(
+                DEPARTMENTS_URI + "/changes?since={since}&wait=10", DepartmentChanges.class, 0));
+        Thread.sleep(300);
+        assertThat(changes.isDone(), is(false));
+        restTemplate.postForObject(DEPARTMENTS_URI, new Department(0, "Sales Department"), Department.class);
+        DepartmentChanges delivered = changes.get(5, TimeUnit.SECONDS);
+        assertThat(delivered.getItems(), hasSize(1));
+        assertThat(delivered.getItems().get(0).getName(), is("Sales Department"));
+    }
+
+    @Test
+    @SneakyThrows
+    public void streamChangesAndServerSentEventOfEachChange() {
+        restTemplate.postForObject(DEPARTMENTS_URI, new Department(0, "Sales Department"), Department.class);
+        URL url = new URL(restTemplate.getRootUri() + DEPARTMENTS_URI + "/changes?since=0");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty(HttpHeaders.ACCEPT, MediaType.TEXT_EVENT_STREAM_VALUE);
+        connection.setReadTimeout(5000);
+        try (BufferedReader events = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            assertThat(events.readLine(), is("id:1"));
+            assertThat(events.readLine(), is("event:CREATED"));
+            assertThat(events.readLine(), containsString("\"name\":\"Sales Department\""));
+            assertThat(events.readLine(), is(""));
+            putWithCurrentETag(department1.getId(), new Department(0, "Renamed Department"));
+            assertThat(events.readLine(), is("id:2"));
+            assertThat(events.readLine(), is("event:UPDATED"));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void createDepartmentsInBatchAndSavedDepartmentsInRepository() {
+        List<Department> departments = Arrays.asList(new Department(0, "Accounting Department"), null, new Department(0, "Sales Department"));
+        ResponseEntity<List<BatchItemResult>> response = restTemplate.exchange(DEPARTMENTS_BATCH_URI, HttpMethod.POST,
+                new HttpEntity<>(departments), new ParameterizedTypeReference<List<BatchItemResult>>() {
+                });
+        List<BatchItemResult> results = response.getBody();
+        assertThat(results, hasSize(3));
+        assertThat(results.get(0).getStatus(), is(201));
+        assertThat(results.get(1).getStatus(), is(400));
+        assertThat(results.get(2).getStatus(), is(201));
+        Department actualDepartment = restTemplate.getForObject(DEPARTMENTS_ID_URI, Department.class, results.get(2).getDepartment().getId());
+        assertThat(actualDepartment.getName(), is("Sales Department"));
+        assertThat(departmentRepository.count(), is(5L));
+    }
+
+    @Test
+    @SneakyThrows
+    public void exportDepartmentsAndImportRestoresDepartmentsAndMovesSequence() {
+        ResponseEntity<byte[]> export = restTemplate.getForEntity(DEPARTMENTS_URI + "/export", byte[].class);
+        assertThat(export.getHeaders().getContentType().toString(), is(DepartmentsController.APPLICATION_GZIP_VALUE));
+        String snapshot = StreamUtils.copyToString(new GZIPInputStream(new ByteArrayInputStream(export.getBody())), StandardCharsets.UTF_8);
+        assertThat(snapshot.split("\n").length, is(3));
+
+        departmentRepository.deleteById(department3.getId());
+        putWithCurrentETag(department1.getId(), new Department(0, "Renamed Department"));
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(DepartmentsController.APPLICATION_GZIP_VALUE));
+        ResponseEntity<String> response = restTemplate.exchange(DEPARTMENTS_URI + "/import", HttpMethod.POST,
+                new HttpEntity<>(export.getBody(), headers), String.class);
+        assertThat(response.getStatusCode(), is(HttpStatus.OK));
+        assertThat(response.getBody(), is("3 departments are imported"));
+        assertThat(restTemplate.getForObject(DEPARTMENTS_ID_URI, Department.class, department1.getId()).getName(), is("IT Department"));
+        assertThat(departmentRepository.findById(department3.getId()).get().getName(), is("Development Department"));
+
+        headers.setContentType(MediaType.parseMediaType(DepartmentsController.APPLICATION_NDJSON_VALUE));
+        response = restTemplate.exchange(DEPARTMENTS_URI + "/import", HttpMethod.POST,
+                new HttpEntity<>("{\"id\":1000,\"name\":\"Imported Department\",\"version\":7}\n", headers), String.class);
+        assertThat(response.getBody(), is("1 departments are imported"));
+        assertThat(departmentRepository.findById(1000L).get().getVersion(), is(7L));
+        Long nextId = new JdbcTemplate(dataSource).queryForObject("select next value for hibernate_sequence", Long.class);
+        assertTrue(nextId > 1000);
+    }
+
+    @Test
+    public void importChangedDepartmentWithSameVersionAndETagsChanged() {
+        ResponseEntity<Department> departmentResponse = restTemplate.getForEntity(DEPARTMENTS_ID_URI, Department.class, department1.getId());
+        String listETag = restTemplate.getForEntity(DEPARTMENTS_URI, String.class).getHeaders().getETag();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(DepartmentsController.APPLICATION_NDJSON_VALUE));
+        ResponseEntity<String> response = restTemplate.exchange(DEPARTMENTS_URI + "/import", HttpMethod.POST,
+                new HttpEntity<>("{\"id\":" + department1.getId() + ",\"name\":\"Replaced Department\",\"version\":" +
+                        departmentResponse.getBody().getVersion() + "}\n", headers), String.class);
+        assertThat(response.getBody(), is("1 departments are imported"));
+
+        ResponseEntity<Department> importedResponse = restTemplate.getForEntity(DEPARTMENTS_ID_URI, Department.class, department1.getId());
+        assertThat(importedResponse.getBody().getName(), is("Replaced Department"));
+        assertThat(importedResponse.getHeaders().getETag(), not(departmentResponse.getHeaders().getETag()));
+        HttpHeaders ifNoneMatch = new HttpHeaders();
+        ifNoneMatch.setIfNoneMatch(listETag);
+        ResponseEntity<String> listResponse = restTemplate.exchange(DEPARTMENTS_URI, HttpMethod.GET, new HttpEntity<>(ifNoneMatch), String.class);
+        assertThat(listResponse.getStatusCode(), is(HttpStatus.OK));
+        assertThat(listResponse.getBody(), containsString("Replaced Department"));
+    }
+
+    @Test
+    public void importInvalidDepartmentAndNothingImported() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(DepartmentsController.APPLICATION_NDJSON_VALUE));
+        ResponseEntity<String> response = restTemplate.exchange(DEPARTMENTS_URI + "/import", HttpMethod.POST,
+                new HttpEntity<>("{\"id\":1000,\"name\":\"Imported Department\"}\n{\"name\":\"Without Id\"}\n", headers), String.class);
+        assertThat(response.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(response.getBody(), is("Department 2 of the snapshot is not valid"));
+        assertThat(departmentRepository.existsById(1000L), is(false));
+    }
+
+    @Test
+    public void importDepartmentsWithParentsAndHierarchyRebuilt() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(DepartmentsController.APPLICATION_NDJSON_VALUE));
+        ResponseEntity<String> cycleResponse = restTemplate.exchange(DEPARTMENTS_URI + "/import", HttpMethod.POST,
+                new HttpEntity<>("{\"id\":1000,\"name\":\"A\",\"parentId\":1001}\n{\"id\":1001,\"name\":\"B\",\"parentId\":1000}\n", headers),
+                String.class);
+        assertThat(cycleResponse.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(departmentRepository.existsById(1000L), is(false));
+        // a subdepartment may precede its parent in the snapshot
+        ResponseEntity<String> response = restTemplate.exchange(DEPARTMENTS_URI + "/import", HttpMethod.POST,
+                new HttpEntity<>("{\"id\":1001,\"name\":\"B\",\"parentId\":1000}\n{\"id\":1000,\"name\":\"A\",\"parentId\":" +
+                        department1.getId() + "}\n", headers), String.class);
+        assertThat(response.getBody(), is("2 departments are imported"));
+        ResponseEntity<List<Department>> ancestorsResponse = restTemplate.exchange(DEPARTMENTS_ID_URI + "/ancestors", HttpMethod.GET, null,
+                new ParameterizedTypeReference<List<Department>>() {
+                }, 1001L);
+        assertThat(ancestorsResponse.getBody(), is(Arrays.asList(department1, new Department(1000, "A"))));
+    }
+
+    @Test
+    public void updateDepartmentsInBatchAndUpdatedDepartmentsInRepository() {
+        List<Department> departments = Arrays.asList(new Department(department1.getId(), "Platform Department"), new Department(-1, "Unknown Department"));
+        ResponseEntity<List<BatchItemResult>> response = restTemplate.exchange(DEPARTMENTS_BATCH_URI, HttpMethod.PUT,
+                new HttpEntity<>(departments), new ParameterizedTypeReference<List<BatchItemResult>>() {
+                });
+        List<BatchItemResult> results = response.getBody();
+        assertThat(results, hasSize(2));
+        assertThat(results.get(0).getStatus(), is(200));
+        assertThat(results.get(1).getStatus(), is(404));
+        Department actualDepartment = restTemplate.getForObject(DEPARTMENTS_ID_URI, Department.class, department1.getId());
+        assertThat(actualDepartment.getName(), is("Platform Department"));
+    }
+
+    @Test
+    public void deleteDepartmentAsyncAndDeletedDepartmentFromRepositoryAfterDispatch() {
+        Response responseFromEmployeesService = Response.builder()
+                .status(200)
+                .body("2 employees are affected", StandardCharsets.UTF_8)
+                .request(mock(Request.class))
+                .build();
+        when(employeeClient.replaceDepartmentId(anyMap())).thenReturn(responseFromEmployeesService);
+        long id = department1.getId();
+        ResponseEntity<DepartmentDeletion> deleteResponse = restTemplate.exchange(
+                DEPARTMENTS_ID_URI + "?departmentForReplacement={replacementId}&async=true", HttpMethod.DELETE, null,
+                DepartmentDeletion.class, id, department3.getId());
+        assertThat(deleteResponse.getStatusCode(), is(HttpStatus.ACCEPTED));
+        assertThat(deleteResponse.getBody().getStatus(), is(DepartmentDeletion.Status.PENDING));
+        assertThat(restTemplate.getForEntity(DEPARTMENTS_ID_URI, Department.class, id).getStatusCode(), is(HttpStatus.OK));
+
+        departmentDeletionDispatcher.dispatch();
+
+        DepartmentDeletion departmentDeletion =
+                restTemplate.getForObject(deleteResponse.getHeaders().getLocation().toString(), DepartmentDeletion.class);
+        assertThat(departmentDeletion.getStatus(), is(DepartmentDeletion.Status.DONE));
+        assertThat(departmentDeletion.getResponseStatus(), is(200));
+        assertThat(restTemplate.getForEntity(DEPARTMENTS_ID_URI, Void.class, id).getStatusCode(), is(HttpStatus.NOT_FOUND));
+    }
+
+    @Test
+    public void getPrometheusMetricsAndTimersOfApiServiceAndRepository() {
+        restTemplate.getForObject(DEPARTMENTS_URI + "?limit=2", DepartmentPage.class);
+        String metrics = restTemplate.getForObject("/actuator/prometheus", String.class);
+        assertThat(metrics, containsString("http_server_requests_seconds_bucket{"));
+        assertThat(metrics, containsString("departments_service_seconds_count{class=\"ru.xfneo.departmentsmanagement.service.DepartmentService\",exception=\"none\",method=\"findPage\""));
+        assertThat(metrics, containsString("departments_repository_seconds_count{exception=\"none\",method=\"findByIdGreaterThanOrderByIdAsc\",repository=\"DepartmentRepository\""));
+        assertThat(metrics, containsString("hikaricp_connections_active"));
+    }
+
+    @Test
+    public void getDepartmentWithETagAndNotModifiedUntilDepartmentUpdated() {
+        ResponseEntity<Department> response = restTemplate.getForEntity(DEPARTMENTS_ID_URI, Department.class, department2.getId());
+        String eTag = response.getHeaders().getETag();
+        assertThat(eTag, notNullValue());
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(eTag);
+        assertThat(restTemplate.exchange(DEPARTMENTS_ID_URI, HttpMethod.GET, new HttpEntity<>(headers), Department.class, department2.getId())
+                .getStatusCode(), is(HttpStatus.NOT_MODIFIED));
+        putWithCurrentETag(department2.getId(), new Department(0, "Renamed Department"));
+        ResponseEntity<Department> modifiedResponse =
+                restTemplate.exchange(DEPARTMENTS_ID_URI, HttpMethod.GET, new HttpEntity<>(headers), Department.class, department2.getId());
+        assertThat(modifiedResponse.getStatusCode(), is(HttpStatus.OK));
+        assertThat(modifiedResponse.getBody().getName(), is("Renamed Department"));
+    }
+
+    @Test
+    public void getListOfDepartmentsWithETagAndNotModifiedUntilDepartmentUpdated() {
+        ResponseEntity<String> response = restTemplate.getForEntity(DEPARTMENTS_URI, String.class);
+        String eTag = response.getHeaders().getETag();
+        assertThat(eTag, notNullValue());
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(eTag);
+        assertThat(restTemplate.exchange(DEPARTMENTS_URI, HttpMethod.GET, new HttpEntity<>(headers), String.class)
+                .getStatusCode(), is(HttpStatus.NOT_MODIFIED));
+        putWithCurrentETag(department2.getId(), new Department(0, "Renamed Department"));
+        assertThat(restTemplate.exchange(DEPARTMENTS_URI, HttpMethod.GET, new HttpEntity<>(headers), String.class)
+                .getStatusCode(), is(HttpStatus.OK));
+    }
+
+    private void putWithCurrentETag(long id, Department department) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfMatch(restTemplate.getForEntity(DEPARTMENTS_ID_URI, Department.class, id).getHeaders().getETag());
+        ResponseEntity<String> response = restTemplate.exchange(DEPARTMENTS_ID_URI, HttpMethod.PUT,
+                new HttpEntity<>(department, headers), String.class, id);
+        assertThat(response.getStatusCode(), is(HttpStatus.OK));
+    }
+
+    private String getListOfDepartmentsGzipped() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(restTemplate.getRootUri() + DEPARTMENTS_URI).openConnection();
+        connection.setRequestProperty(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        try (InputStream body = connection.getInputStream()) {
+            assertThat(connection.getResponseCode(), is(200));
+            assertThat(connection.getHeaderField(HttpHeaders.CONTENT_ENCODING), is("gzip"));
+            return StreamUtils.copyToString(new GZIPInputStream(body), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
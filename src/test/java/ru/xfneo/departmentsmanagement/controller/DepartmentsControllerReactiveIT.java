@@ -0,0 +1,11 @@
+package ru.xfneo.departmentsmanagement.controller;
+
+import org.springframework.test.context.ActiveProfiles;
+
+/**
+ * Scenarios of {@link DepartmentsControllerIT} against the "reactive" profile
+ * (async execution mode and non-blocking employee client).
+ */
+@ActiveProfiles("reactive")
+public class DepartmentsControllerReactiveIT extends DepartmentsControllerIT {
+}
@@ -1,25 +1,45 @@
 package ru.xfneo.departmentsmanagement.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import lombok.SneakyThrows;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.dto.BatchItemResult;
+import ru.xfneo.departmentsmanagement.dto.DepartmentPage;
+import ru.xfneo.departmentsmanagement.service.DepartmentListCache;
 import ru.xfneo.departmentsmanagement.service.DepartmentService;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
@@ -30,6 +50,8 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 public class DepartmentsControllerTest {
     @Mock
     private DepartmentService departmentService;
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
 
     @InjectMocks
     private DepartmentsController sut;
@@ -40,9 +62,15 @@ public class DepartmentsControllerTest {
     private Department department1UpdatedName;
 
     private static final String GET_ALL_DEPARTMENTS_URI = "/api/departments";
+    private static final String GET_PAGE_OF_DEPARTMENTS_URI = "/api/departments?after=0&limit=2";
+    private static final String SEARCH_DEPARTMENTS_URI = "/api/departments/search?q=dep&match=prefix";
     private static final String POST_DEPARTMENT_URI = "/api/departments";
     private static final String GET_PUT_DEPARTMENT_URI = "/api/departments/1";
     private static final String DELETE_DEPARTMENT_URI = "/api/departments/1?departmentForReplacement=2";
+    private static final String DELETE_DEPARTMENT_ASYNC_URI = "/api/departments/1?departmentForReplacement=2&async=true";
+    private static final String BATCH_DEPARTMENTS_URI = "/api/departments/batch";
+    private static final String CREATE_DEPARTMENTS_JSON =
+            "[{\"name\":\"New Department\"},null]";
     private static final String CREATE_DEPARTMENT1_JSON =
             "{\"name\":\"New Department\"}";
     private static final String UPDATE_DEPARTMENT1_JSON =
@@ -55,17 +83,32 @@ public class DepartmentsControllerTest {
         department2 = new Department(2, "Development Department");
         department1UpdatedName = new Department(1, "Updated Department");
         List<Department> findAllList = Arrays.asList(department1, department2);
-        doReturn(findAllList).when(departmentService).findAll();
+        doAnswer(invocation -> {
+            Consumer<Department> action = invocation.getArgument(0);
+            findAllList.forEach(action);
+            return null;
+        }).when(departmentService).forEach(any());
+        doReturn("\"2-2-0\"").when(departmentService).findAllETag();
+        doReturn(ResponseEntity.ok(new DepartmentPage(findAllList, null))).when(departmentService).findPage(0L, 2);
+        doReturn(ResponseEntity.ok(new DepartmentPage(Arrays.asList(department2), null))).when(departmentService).search("dep", "prefix", null, null);
         doReturn(ResponseEntity.ok(department1)).when(departmentService).find(department1.getId());
         doReturn(ResponseEntity.ok(department1)).when(departmentService).create(any(Department.class));
-        doReturn(ResponseEntity.ok(department1UpdatedName)).when(departmentService).update(eq(department1.getId()), any(Department.class));
+        doReturn(ResponseEntity.ok(department1UpdatedName)).when(departmentService).update(eq(department1.getId()), any(Department.class), isNull());
+        doReturn(ResponseEntity.noContent().eTag("\"1\"").build()).when(departmentService).patch(eq(department1.getId()), anyMap(), eq("\"0\""));
+        doReturn(ResponseEntity.ok(Arrays.asList(BatchItemResult.of(201, department1), BatchItemResult.of(400, "Department data is not valid!"))))
+                .when(departmentService).createAll(anyList());
         doReturn(ResponseEntity.ok().build()).when(departmentService).delete(department1.getId(), String.valueOf(department2.getId()));
+        doReturn(ResponseEntity.accepted().build()).when(departmentService).requestDelete(department1.getId(), String.valueOf(department2.getId()));
     }
 
     @Test
     @SneakyThrows
     public void getListOfDepartments_GetAllDepartments_OkResponseWithTwoDepartments() {
-        mockMvc.perform(get(GET_ALL_DEPARTMENTS_URI))
+        MvcResult mvcResult = mockMvc.perform(get(GET_ALL_DEPARTMENTS_URI))
+                .andExpect(request().asyncStarted())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"2-2-0\""))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
                 .andDo(print())
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
@@ -73,7 +116,143 @@ public class DepartmentsControllerTest {
                 .andExpect(jsonPath("$[0].name", is(department1.getName())))
                 .andExpect(jsonPath("$[1].id", is((int) department2.getId())))
                 .andExpect(jsonPath("$[1].name", is(department2.getName())));
-        verify(departmentService).findAll();
+        verify(departmentService).forEach(any());
+    }
+
+    @Test
+    @SneakyThrows
+    public void getListOfDepartments_AcceptNdjson_OkResponseWithDepartmentPerLine() {
+        MvcResult mvcResult = mockMvc.perform(get(GET_ALL_DEPARTMENTS_URI).accept(DepartmentsController.APPLICATION_NDJSON_VALUE))
+                .andExpect(request().asyncStarted())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"2-2-0-ndjson\""))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(DepartmentsController.APPLICATION_NDJSON_VALUE))
+                .andExpect(content().string(
+                        "{\"id\":" + department1.getId() + ",\"name\":\"" + department1.getName() + "\",\"version\":0}\n" +
+                        "{\"id\":" + department2.getId() + ",\"name\":\"" + department2.getName() + "\",\"version\":0}\n"));
+    }
+
+    @Test
+    @SneakyThrows
+    public void getListOfDepartments_SerializedListAcceptGzip_OkResponseWithGzipBytes() {
+        byte[] gzip = {31, -117, 8, 0};
+        doReturn(new DepartmentListCache.SerializedList("\"2-2-0\"", "[]".getBytes(), gzip))
+                .when(departmentService).findAllSerialized("\"2-2-0\"");
+        MvcResult mvcResult = mockMvc.perform(get(GET_ALL_DEPARTMENTS_URI).header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+                .andExpect(request().asyncStarted())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"2-2-0-gzip\""))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING))
+                .andExpect(content().bytes(gzip));
+        verify(departmentService, never()).forEach(any());
+    }
+
+    @Test
+    @SneakyThrows
+    public void getListOfDepartments_AcceptSmile_OkResponseWithSmileArray() {
+        MvcResult mvcResult = mockMvc.perform(get(GET_ALL_DEPARTMENTS_URI).accept(DepartmentsController.APPLICATION_SMILE_VALUE))
+                .andExpect(request().asyncStarted())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"2-2-0-smile\""))
+                .andReturn();
+        byte[] body = mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(DepartmentsController.APPLICATION_SMILE_VALUE))
+                .andReturn().getResponse().getContentAsByteArray();
+        Department[] departments = new ObjectMapper(new SmileFactory()).readValue(body, Department[].class);
+        assertArrayEquals(new Department[]{department1, department2}, departments);
+    }
+
+    @Test
+    @SneakyThrows
+    public void getListOfDepartments_SerializedListAcceptCbor_OkResponseTranscodedFromJson() {
+        byte[] json = objectMapper.writeValueAsBytes(Arrays.asList(department1, department2));
+        doReturn(new DepartmentListCache.SerializedList("\"2-2-0\"", json, new byte[0]))
+                .when(departmentService).findAllSerialized("\"2-2-0\"");
+        MvcResult mvcResult = mockMvc.perform(get(GET_ALL_DEPARTMENTS_URI).accept(DepartmentsController.APPLICATION_CBOR_VALUE))
+                .andExpect(request().asyncStarted())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"2-2-0-cbor\""))
+                .andReturn();
+        byte[] body = mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(DepartmentsController.APPLICATION_CBOR_VALUE))
+                .andReturn().getResponse().getContentAsByteArray();
+        Department[] departments = new ObjectMapper(new CBORFactory()).readValue(body, Department[].class);
+        assertArrayEquals(new Department[]{department1, department2}, departments);
+        verify(departmentService, never()).forEach(any());
+    }
+
+    @Test
+    public void binaryMediaTypeAccepted_AcceptHeaders_SmileOrCborOnlyIfPreferredOverJson() {
+        assertThat(DepartmentsController.binaryMediaTypeAccepted(null), nullValue());
+        assertThat(DepartmentsController.binaryMediaTypeAccepted("*/*"), nullValue());
+        assertThat(DepartmentsController.binaryMediaTypeAccepted("application/json, application/cbor"), nullValue());
+        assertThat(DepartmentsController.binaryMediaTypeAccepted("application/x-ndjson, application/cbor;q=0.5"), nullValue());
+        assertThat(DepartmentsController.binaryMediaTypeAccepted("application/x-jackson-smile"),
+                is(MediaType.parseMediaType(DepartmentsController.APPLICATION_SMILE_VALUE)));
+        assertThat(DepartmentsController.binaryMediaTypeAccepted("application/cbor, application/json;q=0.5"),
+                is(MediaType.parseMediaType(DepartmentsController.APPLICATION_CBOR_VALUE)));
+    }
+
+    @Test
+    public void isGzipAccepted_AcceptEncodingHeaders_GzipOnlyIfNotRejected() {
+        assertFalse(DepartmentsController.isGzipAccepted(null));
+        assertFalse(DepartmentsController.isGzipAccepted("identity"));
+        assertFalse(DepartmentsController.isGzipAccepted("gzip;q=0, *"));
+        assertTrue(DepartmentsController.isGzipAccepted("gzip, deflate, br"));
+        assertTrue(DepartmentsController.isGzipAccepted("deflate;q=1.0, GZIP;q=0.5"));
+        assertTrue(DepartmentsController.isGzipAccepted("*"));
+    }
+
+    @Test
+    public void isNdjsonAccepted_AcceptHeaders_NdjsonOnlyIfPreferredOverJson() {
+        assertFalse(DepartmentsController.isNdjsonAccepted(null));
+        assertFalse(DepartmentsController.isNdjsonAccepted("*/*"));
+        assertFalse(DepartmentsController.isNdjsonAccepted("application/json, application/x-ndjson"));
+        assertTrue(DepartmentsController.isNdjsonAccepted("application/x-ndjson"));
+        assertTrue(DepartmentsController.isNdjsonAccepted("application/stream+json"));
+        assertTrue(DepartmentsController.isNdjsonAccepted("application/x-ndjson, application/json;q=0.5"));
+    }
+
+    @Test
+    @SneakyThrows
+    public void getListOfDepartments_GetAllDepartmentsWithCurrentETag_NotModifiedResponse() {
+        mockMvc.perform(get(GET_ALL_DEPARTMENTS_URI).header(HttpHeaders.IF_NONE_MATCH, "\"2-2-0\""))
+                .andDo(print())
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"2-2-0\""))
+                .andExpect(content().string(""));
+        verify(departmentService, never()).forEach(any());
+    }
+
+    @Test
+    @SneakyThrows
+    public void getPageOfDepartments_GetFirstPage_OkResponseWithTwoDepartmentsAndNoCursor() {
+        mockMvc.perform(get(GET_PAGE_OF_DEPARTMENTS_URI))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                .andExpect(jsonPath("$.items[0].id", is((int) department1.getId())))
+                .andExpect(jsonPath("$.items[1].id", is((int) department2.getId())))
+                .andExpect(jsonPath("$.nextCursor", nullValue()));
+        verify(departmentService).findPage(0L, 2);
+    }
+
+    @Test
+    @SneakyThrows
+    public void searchDepartments_SearchByPrefix_OkResponseWithFoundDepartment() {
+        mockMvc.perform(get(SEARCH_DEPARTMENTS_URI))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items[0].id", is((int) department2.getId())))
+                .andExpect(jsonPath("$.nextCursor", nullValue()));
+        verify(departmentService).search("dep", "prefix", null, null);
     }
 
     @Test
@@ -88,6 +267,16 @@ public class DepartmentsControllerTest {
         verify(departmentService).find(department1.getId());
     }
 
+    @Test
+    @SneakyThrows
+    public void getDepartment_AcceptCbor_OkResponseWithCborDepartment() {
+        byte[] body = mockMvc.perform(get(GET_PUT_DEPARTMENT_URI).accept(DepartmentsController.APPLICATION_CBOR_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(DepartmentsController.APPLICATION_CBOR_VALUE))
+                .andReturn().getResponse().getContentAsByteArray();
+        assertThat(new ObjectMapper(new CBORFactory()).readValue(body, Department.class), is(department1));
+    }
+
     @Test
     @SneakyThrows
     public void createDepartment_CreateDepartment_OkResponseWithCreatedDepartment() {
@@ -102,6 +291,21 @@ public class DepartmentsControllerTest {
         verify(departmentService).create(any(Department.class));
     }
 
+    @Test
+    @SneakyThrows
+    public void createDepartments_CreateDepartmentsBatch_OkResponseWithItemResults() {
+        mockMvc.perform(post(BATCH_DEPARTMENTS_URI)
+                .contentType(MediaType.APPLICATION_JSON_UTF8_VALUE)
+                .content(CREATE_DEPARTMENTS_JSON))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                .andExpect(jsonPath("$[0].status", is(201)))
+                .andExpect(jsonPath("$[0].department.id", is((int) department1.getId())))
+                .andExpect(jsonPath("$[1].status", is(400)));
+        verify(departmentService).createAll(anyList());
+    }
+
     @Test
     @SneakyThrows
     public void updateDepartment_UpdateDepartment_OkResponseWithUpdatedDepartment() {
@@ -113,7 +317,20 @@ public class DepartmentsControllerTest {
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
                 .andExpect(jsonPath("$.id", is((int) department1UpdatedName.getId())))
                 .andExpect(jsonPath("$.name", is( department1UpdatedName.getName())));
-        verify(departmentService).update(eq(department1.getId()), any(Department.class));
+        verify(departmentService).update(eq(department1.getId()), any(Department.class), isNull());
+    }
+
+    @Test
+    @SneakyThrows
+    public void patchDepartment_PatchDepartmentWithIfMatch_NoContentResponseWithETag() {
+        mockMvc.perform(patch(GET_PUT_DEPARTMENT_URI)
+                .contentType(DepartmentsController.MERGE_PATCH_JSON_VALUE)
+                .header(HttpHeaders.IF_MATCH, "\"0\"")
+                .content(UPDATE_DEPARTMENT1_JSON))
+                .andDo(print())
+                .andExpect(status().isNoContent())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1\""));
+        verify(departmentService).patch(eq(department1.getId()), eq(Collections.singletonMap("name", "Updated Department")), eq("\"0\""));
     }
 
     @Test
@@ -124,4 +341,30 @@ public class DepartmentsControllerTest {
                 .andExpect(status().isOk());
         verify(departmentService).delete(department1.getId(), String.valueOf(department2.getId()));
     }
-}
\ No newline at end of file
+
+    @Test
+    @SneakyThrows
+    public void deleteDepartment_DeleteDepartmentInAsyncExecutionMode_OkResponseCompletedByEmployeeClient() {
+        ReflectionTestUtils.setField(sut, "executionMode", DepartmentsController.ExecutionMode.ASYNC);
+        CompletableFuture<ResponseEntity<?>> responseFuture = new CompletableFuture<>();
+        doReturn(responseFuture).when(departmentService).deleteAsync(department1.getId(), String.valueOf(department2.getId()));
+        MvcResult mvcResult = mockMvc.perform(delete(DELETE_DEPARTMENT_URI))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        responseFuture.complete(ResponseEntity.ok("2 employees are affected"));
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(content().string("2 employees are affected"));
+        verify(departmentService, never()).delete(anyLong(), anyString());
+    }
+
+    @Test
+    @SneakyThrows
+    public void deleteDepartment_DeleteDepartmentAsync_AcceptedResponse() {
+        mockMvc.perform(delete(DELETE_DEPARTMENT_ASYNC_URI))
+                .andDo(print())
+                .andExpect(status().isAccepted());
+        verify(departmentService).requestDelete(department1.getId(), String.valueOf(department2.getId()));
+    }
+}
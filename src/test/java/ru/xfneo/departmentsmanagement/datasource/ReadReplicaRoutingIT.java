@@ -0,0 +1,121 @@
+package ru.xfneo.departmentsmanagement.datasource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.junit4.SpringRunner;
+import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.domain.DepartmentChangeHead;
+import ru.xfneo.departmentsmanagement.dto.DepartmentPage;
+import ru.xfneo.departmentsmanagement.repository.DepartmentChangeHeadRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentChangeRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentRepository;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Two in-memory H2 databases: primary of the application and its replica. The replica gets the schema of the primary
+ * but not its data, so a department found only in one of them shows where a read went.
+ * The application doesn't create the replica database (IFEXISTS), so the replica is down after its shutdown.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=" + ReadReplicaRoutingIT.PRIMARY_URL,
+        "departments.datasource.replicas=" + ReadReplicaRoutingIT.REPLICA_URL + ";IFEXISTS=TRUE",
+        "departments.datasource.read-your-writes-window=60000",
+        "departments.datasource.replica-health-check-interval=3600000",
+        "spring.cache.type=none"
+})
+public class ReadReplicaRoutingIT {
+    static final String PRIMARY_URL = "jdbc:h2:mem:primary;DB_CLOSE_DELAY=-1";
+    static final String REPLICA_URL = "jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1";
+    private static final long REPLICA_DEPARTMENT_ID = 1_000_000;
+    private static final String DEPARTMENTS_URI = "/api/departments";
+    private static final String DEPARTMENTS_ID_URI = "/api/departments/{id}";
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+    @Autowired
+    private DepartmentRepository departmentRepository;
+    @Autowired
+    private DepartmentChangeRepository departmentChangeRepository;
+    @Autowired
+    private DepartmentChangeHeadRepository departmentChangeHeadRepository;
+    @Autowired
+    private ReplicaRoutingDataSource replicaRoutingDataSource;
+    private JdbcTemplate replica;
+
+    @Before
+    public void setUp() {
+        departmentChangeHeadRepository.save(new DepartmentChangeHead(DepartmentChangeHead.ID, 0, 0));
+        JdbcTemplate primary = new JdbcTemplate(new DriverManagerDataSource(PRIMARY_URL, "sa", ""));
+        replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+        replica.execute("DROP ALL OBJECTS");
+        List<String> schema = primary.queryForList("SCRIPT NODATA", String.class);
+        schema.stream()
+                .filter(statement -> !statement.startsWith("--") && !statement.startsWith("CREATE USER"))
+                .forEach(replica::execute);
+        replica.update("insert into department (id, name, version) values (?, ?, 0)", REPLICA_DEPARTMENT_ID, "Replica Department");
+        replicaRoutingDataSource.checkHealth();
+    }
+
+    @After
+    public void tearDown() {
+        departmentRepository.deleteAll();
+        departmentChangeRepository.deleteAll();
+        departmentChangeHeadRepository.deleteAll();
+    }
+
+    @Test
+    public void getDepartmentAndPage_ReadFromReplica() {
+        ResponseEntity<Department> response = restTemplate.getForEntity(DEPARTMENTS_ID_URI, Department.class, REPLICA_DEPARTMENT_ID);
+        DepartmentPage page = restTemplate.getForObject(DEPARTMENTS_URI + "?limit=10", DepartmentPage.class);
+
+        assertThat(response.getStatusCodeValue(), is(200));
+        assertThat(response.getBody().getName(), is("Replica Department"));
+        assertThat(page.getItems().size(), is(1));
+        assertThat(departmentRepository.existsById(REPLICA_DEPARTMENT_ID), is(false));
+    }
+
+    @Test
+    public void createDepartment_SameClientReadsFromPrimary_OtherClientsFromReplica() {
+        ResponseEntity<Department> created = restTemplate.postForEntity(DEPARTMENTS_URI, new Department(0, "Sales Department"), Department.class);
+        String cookie = created.getHeaders().getFirst(HttpHeaders.SET_COOKIE);
+        assertThat(cookie, startsWith(ReadYourWritesFilter.COOKIE_NAME + "="));
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HttpHeaders.COOKIE, cookie.substring(0, cookie.indexOf(';')));
+
+        ResponseEntity<String> sameClientResponse = restTemplate.exchange(DEPARTMENTS_ID_URI, HttpMethod.GET,
+                new HttpEntity<>(headers), String.class, created.getBody().getId());
+        ResponseEntity<String> otherClientResponse = restTemplate.getForEntity(DEPARTMENTS_ID_URI, String.class, created.getBody().getId());
+
+        assertThat(sameClientResponse.getStatusCodeValue(), is(200));
+        assertThat(otherClientResponse.getStatusCodeValue(), is(404));
+    }
+
+    @Test
+    public void getDepartment_ReplicaDown_ReadFromPrimary() {
+        Department department = departmentRepository.save(new Department(0, "IT Department"));
+        replica.execute("SHUTDOWN");
+        replicaRoutingDataSource.checkHealth();
+
+        ResponseEntity<String> response = restTemplate.getForEntity(DEPARTMENTS_ID_URI, String.class, department.getId());
+
+        assertThat(replicaRoutingDataSource.getHealthyReplicaCount(), is(0));
+        assertThat(response.getStatusCodeValue(), is(200));
+    }
+}
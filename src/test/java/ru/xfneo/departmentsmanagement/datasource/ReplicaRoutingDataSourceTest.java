@@ -0,0 +1,131 @@
+package ru.xfneo.departmentsmanagement.datasource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReplicaRoutingDataSourceTest {
+    @Mock
+    private DataSource primary;
+    @Mock
+    private DataSource replica1;
+    @Mock
+    private DataSource replica2;
+    private final Connection primaryConnection = mock(Connection.class);
+    private final Connection replica1Connection = mock(Connection.class);
+    private final Connection replica2Connection = mock(Connection.class);
+    private ReplicaRoutingDataSource sut;
+
+    @Before
+    public void setUp() throws SQLException {
+        lenient().when(primary.getConnection()).thenReturn(primaryConnection);
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        replicas.put("replica-1", replica1);
+        replicas.put("replica-2", replica2);
+        sut = new ReplicaRoutingDataSource(primary, replicas, 1);
+    }
+
+    @After
+    public void tearDown() {
+        sut.close();
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        ReplicaRoutingContext.setReplicaAllowed(false);
+        ReplicaRoutingContext.setPrimaryRequired(false);
+    }
+
+    @Test
+    public void getConnection_ReplicaAllowedReadOnlyTransaction_ReplicasRoundRobin() throws SQLException {
+        when(replica1.getConnection()).thenReturn(replica1Connection);
+        when(replica2.getConnection()).thenReturn(replica2Connection);
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        ReplicaRoutingContext.setReplicaAllowed(true);
+
+        assertSame(replica1Connection, sut.getConnection());
+        assertSame(replica2Connection, sut.getConnection());
+        assertSame(replica1Connection, sut.getConnection());
+    }
+
+    @Test
+    public void getConnection_ReplicaAllowedReadWriteTransaction_Primary() throws SQLException {
+        ReplicaRoutingContext.setReplicaAllowed(true);
+
+        assertSame(primaryConnection, sut.getConnection());
+    }
+
+    @Test
+    public void getConnection_ReadOnlyTransactionReplicaNotAllowed_Primary() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        assertSame(primaryConnection, sut.getConnection());
+    }
+
+    @Test
+    public void getConnection_ReadYourWritesWindow_Primary() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        ReplicaRoutingContext.setReplicaAllowed(true);
+        ReplicaRoutingContext.setPrimaryRequired(true);
+
+        assertSame(primaryConnection, sut.getConnection());
+    }
+
+    @Test
+    public void getConnection_Credentials_PrimaryWithCredentials() throws SQLException {
+        Connection primaryUserConnection = mock(Connection.class);
+        when(primary.getConnection("user", "password")).thenReturn(primaryUserConnection);
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        ReplicaRoutingContext.setReplicaAllowed(true);
+
+        assertSame(primaryUserConnection, sut.getConnection("user", "password"));
+    }
+
+    @Test
+    public void getConnection_ReplicaConnectionFails_PrimaryAndReplicaSkippedUntilHealthCheck() throws SQLException {
+        when(replica1.getConnection()).thenThrow(new SQLException("Connection refused")).thenReturn(replica1Connection);
+        when(replica1Connection.isValid(anyInt())).thenReturn(true);
+        when(replica2.getConnection()).thenReturn(replica2Connection);
+        when(replica2Connection.isValid(anyInt())).thenReturn(true);
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        ReplicaRoutingContext.setReplicaAllowed(true);
+
+        assertSame(primaryConnection, sut.getConnection());
+        assertEquals(1, sut.getHealthyReplicaCount());
+        assertSame(replica2Connection, sut.getConnection());
+        assertSame(replica2Connection, sut.getConnection());
+
+        sut.checkHealth();
+
+        assertEquals(2, sut.getHealthyReplicaCount());
+    }
+
+    @Test
+    public void checkHealth_NoValidReplica_Primary() throws SQLException {
+        when(replica1.getConnection()).thenThrow(new SQLException("Connection refused"));
+        when(replica2.getConnection()).thenReturn(replica2Connection);
+        when(replica2Connection.isValid(anyInt())).thenReturn(false);
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        ReplicaRoutingContext.setReplicaAllowed(true);
+
+        sut.checkHealth();
+
+        assertEquals(0, sut.getHealthyReplicaCount());
+        assertSame(primaryConnection, sut.getConnection());
+    }
+}
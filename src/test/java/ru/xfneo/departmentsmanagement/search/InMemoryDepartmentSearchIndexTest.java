@@ -0,0 +1,73 @@
+package ru.xfneo.departmentsmanagement.search;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.data.domain.Sort;
+import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.dto.DepartmentsFingerprint;
+import ru.xfneo.departmentsmanagement.repository.DepartmentRepository;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class InMemoryDepartmentSearchIndexTest {
+    @Mock
+    private DepartmentRepository departmentRepository;
+    @InjectMocks
+    private InMemoryDepartmentSearchIndex sut;
+    private Department department1, department2, department3;
+
+    @Before
+    public void setUp() {
+        department1 = new Department(1, "IT Department");
+        department2 = new Department(2, "Development Department");
+        department3 = new Department(3, "Quality Assurance");
+        when(departmentRepository.findFingerprint()).thenReturn(new DepartmentsFingerprint(3, 3, 0));
+        when(departmentRepository.findAll(Sort.by("id"))).thenReturn(Arrays.asList(department1, department2, department3));
+    }
+
+    @Test
+    public void search_SearchSubstring_DepartmentsContainingQueryIgnoringCase() {
+        List<Department> actualList = sut.search("DEPART", DepartmentSearchIndex.Match.SUBSTRING, Long.MIN_VALUE, 10);
+        assertEquals(Arrays.asList(department1, department2), actualList);
+    }
+
+    @Test
+    public void search_SearchPrefix_DepartmentsStartingWithQuery() {
+        List<Department> actualList = sut.search("dev", DepartmentSearchIndex.Match.PREFIX, Long.MIN_VALUE, 10);
+        assertEquals(Collections.singletonList(department2), actualList);
+    }
+
+    @Test
+    public void search_SearchShortQueryAfterCursorWithLimit_NextMatchingDepartment() {
+        List<Department> actualList = sut.search("t", DepartmentSearchIndex.Match.SUBSTRING, department1.getId(), 1);
+        assertEquals(Collections.singletonList(department2), actualList);
+    }
+
+    @Test
+    public void search_SearchTwiceWithSameFingerprint_IndexBuiltOnce() {
+        sut.search("ment", DepartmentSearchIndex.Match.SUBSTRING, Long.MIN_VALUE, 10);
+        sut.search("ance", DepartmentSearchIndex.Match.SUBSTRING, Long.MIN_VALUE, 10);
+        verify(departmentRepository, times(2)).findFingerprint();
+        verify(departmentRepository).findAll(Sort.by("id"));
+    }
+
+    @Test
+    public void search_SearchAfterDepartmentRenamed_IndexRebuiltWithNewName() {
+        sut.search("ment", DepartmentSearchIndex.Match.SUBSTRING, Long.MIN_VALUE, 10);
+        Department renamedDepartment3 = new Department(3, "Quality Department", 1);
+        when(departmentRepository.findFingerprint()).thenReturn(new DepartmentsFingerprint(3, 3, 1));
+        when(departmentRepository.findAll(Sort.by("id"))).thenReturn(Arrays.asList(department1, department2, renamedDepartment3));
+        List<Department> actualList = sut.search("ment", DepartmentSearchIndex.Match.SUBSTRING, Long.MIN_VALUE, 10);
+        assertEquals(Arrays.asList(department1, department2, renamedDepartment3), actualList);
+    }
+}
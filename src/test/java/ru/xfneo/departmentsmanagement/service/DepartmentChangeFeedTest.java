@@ -0,0 +1,96 @@
+package ru.xfneo.departmentsmanagement.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import ru.xfneo.departmentsmanagement.domain.DepartmentChange;
+import ru.xfneo.departmentsmanagement.domain.DepartmentChangeHead;
+import ru.xfneo.departmentsmanagement.repository.DepartmentChangeHeadRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentChangeRepository;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DepartmentChangeFeedTest {
+    private static final long SLOW_SUBSCRIBER_TIMEOUT = 100;
+    @Mock
+    private DepartmentChangeRepository departmentChangeRepository;
+    @Mock
+    private DepartmentChangeHeadRepository departmentChangeHeadRepository;
+    private DepartmentChangeFeed sut;
+    private final CountDownLatch slowListenerReleased = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        sut = new DepartmentChangeFeed(departmentChangeRepository, departmentChangeHeadRepository, 2, 10, SLOW_SUBSCRIBER_TIMEOUT);
+        when(departmentChangeRepository.findBySeqGreaterThanOrderBySeqAsc(eq(0L), any()))
+                .thenReturn(Collections.singletonList(new DepartmentChange(1, DepartmentChange.Type.CREATED, 1, "IT Department", 0)));
+    }
+
+    @After
+    public void tearDown() {
+        slowListenerReleased.countDown();
+        sut.close();
+    }
+
+    @Test
+    public void publish_SlowSubscriber_OtherSubscriberDeliveredAndSlowSubscriberDropped() throws InterruptedException {
+        when(departmentChangeHeadRepository.findById(DepartmentChangeHead.ID))
+                .thenReturn(Optional.of(new DepartmentChangeHead(DepartmentChangeHead.ID, 1, 0)));
+        CountDownLatch slowListenerCalled = new CountDownLatch(1);
+        CountDownLatch dropped = new CountDownLatch(1);
+        sut.subscribe(0, 10, changes -> {
+            slowListenerCalled.countDown();
+            awaitUninterruptibly(slowListenerReleased);
+            return true;
+        }, dropped::countDown);
+        assertTrue(slowListenerCalled.await(1, TimeUnit.SECONDS));
+        CountDownLatch delivered = new CountDownLatch(1);
+        sut.subscribe(0, 10, changes -> {
+            delivered.countDown();
+            return true;
+        }, () -> {
+        });
+        assertTrue("the slow subscriber doesn't delay the others", delivered.await(1, TimeUnit.SECONDS));
+
+        Thread.sleep(SLOW_SUBSCRIBER_TIMEOUT * 2);
+        sut.publish();
+        slowListenerReleased.countDown();
+        assertTrue("the slow subscriber is notified after its listener returns", dropped.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void awaitChanges_NoChangesWhileDeliveryThreadsBusy_CompletedEmptyAfterWait() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            sut.subscribe(0, 10, changes -> {
+                awaitUninterruptibly(slowListenerReleased);
+                return true;
+            }, () -> {
+            });
+        }
+        CompletableFuture<List<DepartmentChange>> changes = sut.awaitChanges(1, 10, 50);
+        assertEquals(Collections.emptyList(), changes.get(1, TimeUnit.SECONDS));
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
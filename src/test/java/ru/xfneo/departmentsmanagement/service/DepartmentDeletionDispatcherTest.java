@@ -0,0 +1,166 @@
+package ru.xfneo.departmentsmanagement.service;
+
+import feign.Request;
+import feign.Response;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import ru.xfneo.departmentsmanagement.client.EmployeeClient;
+import ru.xfneo.departmentsmanagement.client.EmployeeServiceUnavailableException;
+import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.domain.DepartmentChange;
+import ru.xfneo.departmentsmanagement.domain.DepartmentDeletion;
+import ru.xfneo.departmentsmanagement.repository.DepartmentClosureRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentDeletionRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DepartmentDeletionDispatcherTest {
+    @Mock
+    private DepartmentDeletionRepository departmentDeletionRepository;
+    @Mock
+    private DepartmentRepository departmentRepository;
+    @Mock
+    private EmployeeClient employeeClient;
+    @Mock
+    private DepartmentChangeFeed departmentChangeFeed;
+    @Mock
+    private DepartmentListCache departmentListCache;
+    @Mock
+    private DepartmentClosureRepository departmentClosureRepository;
+    @Mock
+    private LocalDepartmentSnapshot localDepartmentSnapshot;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+    private DepartmentDeletionDispatcher sut;
+    private Department department1;
+    private DepartmentDeletion departmentDeletion1, departmentDeletion2;
+
+    @Before
+    public void setUp() {
+        sut = new DepartmentDeletionDispatcher(departmentDeletionRepository, departmentRepository, employeeClient,
+                new ConcurrentMapCache("departments"), departmentChangeFeed, departmentListCache, departmentClosureRepository, localDepartmentSnapshot, transactionManager);
+        department1 = new Department(1, "IT Department");
+        departmentDeletion1 = new DepartmentDeletion(1, 3);
+        departmentDeletion2 = new DepartmentDeletion(2, 3);
+        when(departmentDeletionRepository.findClaimable(any(), any()))
+                .thenReturn(Arrays.asList(departmentDeletion1, departmentDeletion2));
+    }
+
+    @Test
+    public void dispatch_EmployeeServiceRespondsOk_DepartmentsDeletedAndDeletionsDone() {
+        when(employeeClient.replaceDepartmentId(anyMap())).thenAnswer(invocation -> response(200));
+        when(departmentRepository.deleteByIdReturningCount(anyLong())).thenReturn(1);
+        sut.dispatch();
+        assertEquals(DepartmentDeletion.Status.DONE, departmentDeletion1.getStatus());
+        assertEquals(DepartmentDeletion.Status.DONE, departmentDeletion2.getStatus());
+        assertEquals(Integer.valueOf(200), departmentDeletion1.getResponseStatus());
+        verify(departmentRepository).deleteByIdReturningCount(department1.getId());
+        verify(departmentChangeFeed).record(DepartmentChange.Type.DELETED, department1.getId(), null, 0, null);
+        verify(departmentListCache, times(2)).invalidateAfterCommit();
+        verify(employeeClient, times(2)).replaceDepartmentId(anyMap());
+    }
+
+    @Test
+    public void dispatch_EmployeeServiceRespondsOk_EmployeeServiceCalledOutsideOfTransactions() {
+        AtomicInteger openTransactions = new AtomicInteger();
+        List<Integer> openTransactionsOnCall = new ArrayList<>();
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> {
+            openTransactions.incrementAndGet();
+            return mock(TransactionStatus.class);
+        });
+        doAnswer(invocation -> openTransactions.decrementAndGet()).when(transactionManager).commit(any());
+        when(employeeClient.replaceDepartmentId(anyMap())).thenAnswer(invocation -> {
+            openTransactionsOnCall.add(openTransactions.get());
+            return response(200);
+        });
+        when(departmentRepository.deleteByIdReturningCount(anyLong())).thenReturn(1);
+        sut.dispatch();
+        assertEquals(Arrays.asList(0, 0), openTransactionsOnCall);
+        // claim of the batch and completion of each deletion
+        verify(transactionManager, times(3)).commit(any());
+        verify(departmentDeletionRepository, times(2)).save(any(DepartmentDeletion.class));
+    }
+
+    @Test
+    public void dispatch_DepartmentGotSubdepartmentsBeforeDispatch_DeletionFailedAndEmployeesNotTransferred() {
+        when(departmentRepository.existsByParentId(department1.getId())).thenReturn(true);
+        when(employeeClient.replaceDepartmentId(anyMap())).thenAnswer(invocation -> response(200));
+        when(departmentRepository.deleteByIdReturningCount(2L)).thenReturn(1);
+        sut.dispatch();
+        assertEquals(DepartmentDeletion.Status.FAILED, departmentDeletion1.getStatus());
+        assertEquals("Department Has Subdepartments", departmentDeletion1.getMessage());
+        assertEquals(DepartmentDeletion.Status.DONE, departmentDeletion2.getStatus());
+        verify(employeeClient, times(1)).replaceDepartmentId(anyMap());
+        verify(departmentRepository, never()).deleteByIdReturningCount(department1.getId());
+    }
+
+    @Test
+    public void dispatch_DepartmentGotSubdepartmentsDuringTransfer_DeletionFailedWithMessageAndNotRecorded() {
+        when(employeeClient.replaceDepartmentId(anyMap())).thenAnswer(invocation -> response(200));
+        when(departmentRepository.deleteByIdReturningCount(department1.getId())).thenReturn(0);
+        when(departmentRepository.deleteByIdReturningCount(2L)).thenReturn(1);
+        sut.dispatch();
+        assertEquals(DepartmentDeletion.Status.FAILED, departmentDeletion1.getStatus());
+        assertTrue(departmentDeletion1.getMessage().startsWith("Department is not deleted"));
+        assertTrue(departmentDeletion1.getMessage().endsWith("2 employees are affected"));
+        assertEquals(DepartmentDeletion.Status.DONE, departmentDeletion2.getStatus());
+        verify(departmentChangeFeed, never()).record(DepartmentChange.Type.DELETED, department1.getId(), null, 0, null);
+        verify(departmentChangeFeed).record(DepartmentChange.Type.DELETED, 2L, null, 0, null);
+        verify(departmentListCache, times(1)).invalidateAfterCommit();
+    }
+
+    @Test
+    public void dispatch_EmployeeServiceRespondsServerError_DeletionsStayPendingWithAttempt() {
+        when(employeeClient.replaceDepartmentId(anyMap())).thenAnswer(invocation -> response(500));
+        sut.dispatch();
+        assertEquals(DepartmentDeletion.Status.PENDING, departmentDeletion1.getStatus());
+        assertEquals(1, departmentDeletion1.getAttempts());
+        verify(departmentRepository, never()).delete(any(Department.class));
+    }
+
+    @Test
+    public void dispatch_EmployeeServiceRespondsClientError_DeletionsFailed() {
+        when(employeeClient.replaceDepartmentId(anyMap())).thenAnswer(invocation -> response(400));
+        sut.dispatch();
+        assertEquals(DepartmentDeletion.Status.FAILED, departmentDeletion1.getStatus());
+        assertEquals(DepartmentDeletion.Status.FAILED, departmentDeletion2.getStatus());
+    }
+
+    @Test
+    public void dispatch_EmployeeServiceUnavailable_BatchStoppedAfterFirstDeletion() {
+        when(employeeClient.replaceDepartmentId(anyMap())).thenThrow(new EmployeeServiceUnavailableException("Employee service is not reachable", null));
+        sut.dispatch();
+        assertEquals(DepartmentDeletion.Status.PENDING, departmentDeletion1.getStatus());
+        assertEquals(1, departmentDeletion1.getAttempts());
+        assertEquals(0, departmentDeletion2.getAttempts());
+        assertEquals("claimed deletion which was not dispatched is released", DepartmentDeletion.Status.PENDING, departmentDeletion2.getStatus());
+        verify(departmentDeletionRepository).saveAll(Arrays.asList(departmentDeletion1, departmentDeletion2));
+        verify(employeeClient, times(1)).replaceDepartmentId(anyMap());
+    }
+
+    private static Response response(int status) {
+        return Response.builder()
+                .status(status)
+                .body("2 employees are affected", StandardCharsets.UTF_8)
+                .request(mock(Request.class))
+                .build();
+    }
+}
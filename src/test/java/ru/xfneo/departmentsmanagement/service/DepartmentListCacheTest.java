@@ -0,0 +1,101 @@
+package ru.xfneo.departmentsmanagement.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+import ru.xfneo.departmentsmanagement.domain.Department;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class DepartmentListCacheTest {
+    private static final String ETAG = "\"2-2-0\"";
+    private static final String JSON = "[{\"id\":1,\"name\":\"IT Department\",\"version\":0}," +
+            "{\"id\":2,\"name\":\"Development Department\",\"version\":0}]";
+    private final List<Department> departments = Arrays.asList(new Department(1, "IT Department"), new Department(2, "Development Department"));
+    private final AtomicInteger loads = new AtomicInteger();
+    private Function<Consumer<Department>, String> loader;
+
+    @Before
+    public void setUp() {
+        loader = action -> {
+            loads.incrementAndGet();
+            departments.forEach(action);
+            return ETAG;
+        };
+    }
+
+    @Test
+    public void get_GetListTwice_SerializedOnceAsJsonAndGzip() throws IOException {
+        DepartmentListCache sut = new DepartmentListCache(new ObjectMapper(), 1024);
+        sut.get(ETAG, loader);
+        DepartmentListCache.SerializedList list = sut.get(ETAG, loader);
+        assertEquals(ETAG, list.getETag());
+        assertEquals(JSON, new String(list.getJson(), StandardCharsets.UTF_8));
+        assertEquals(JSON, StreamUtils.copyToString(new GZIPInputStream(new ByteArrayInputStream(list.getGzip())), StandardCharsets.UTF_8));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void getEncoded_SmileTwice_TranscodedOnceFromJson() throws IOException {
+        DepartmentListCache sut = new DepartmentListCache(new ObjectMapper(), 1024);
+        DepartmentListCache.SerializedList list = sut.get(ETAG, loader);
+        SmileFactory smileFactory = new SmileFactory();
+        byte[] smile = list.getEncoded(smileFactory, false);
+        assertSame(smile, list.getEncoded(smileFactory, false));
+        ObjectMapper smileMapper = new ObjectMapper(smileFactory);
+        assertEquals(new ObjectMapper().readTree(JSON), smileMapper.readTree(smile));
+        JsonNode gunzipped = smileMapper.readTree(new GZIPInputStream(new ByteArrayInputStream(list.getEncoded(smileFactory, true))));
+        assertEquals(new ObjectMapper().readTree(JSON), gunzipped);
+    }
+
+    @Test
+    public void get_ListChangedAfterETag_NullAndListOfNewETagCached() {
+        DepartmentListCache sut = new DepartmentListCache(new ObjectMapper(), 1024);
+        assertNull(sut.get("\"1-1-0\"", loader));
+        assertNotNull(sut.get(ETAG, loader));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void get_ListLargerThanMaxSize_NullAndNotRebuiltUntilInvalidated() {
+        DepartmentListCache sut = new DepartmentListCache(new ObjectMapper(), 10);
+        assertNull(sut.get(ETAG, loader));
+        assertNull(sut.get(ETAG, loader));
+        assertEquals(1, loads.get());
+        sut.invalidate();
+        assertNull(sut.get(ETAG, loader));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void invalidate_WhileListIsBuilt_NotBlockedAndBuiltListNotKept() {
+        DepartmentListCache sut = new DepartmentListCache(new ObjectMapper(), 1024);
+        Function<Consumer<Department>, String> invalidatingLoader = action -> {
+            Thread invalidator = new Thread(sut::invalidate);
+            invalidator.start();
+            try {
+                invalidator.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            assertFalse("invalidate() doesn't wait for the rebuild", invalidator.isAlive());
+            return loader.apply(action);
+        };
+        assertNotNull(sut.get(ETAG, invalidatingLoader));
+        assertNotNull(sut.get(ETAG, loader));
+        assertEquals(2, loads.get());
+    }
+}
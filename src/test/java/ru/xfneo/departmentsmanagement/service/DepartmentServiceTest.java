@@ -1,5 +1,6 @@
 package ru.xfneo.departmentsmanagement.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import feign.Request;
 import feign.Response;
 import org.junit.Before;
@@ -7,17 +8,43 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import ru.xfneo.departmentsmanagement.client.EmployeeClient;
+import ru.xfneo.departmentsmanagement.client.EmployeeServiceUnavailableException;
 import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.domain.DepartmentChange;
+import ru.xfneo.departmentsmanagement.domain.DepartmentDeletion;
+import ru.xfneo.departmentsmanagement.dto.BatchItemResult;
+import ru.xfneo.departmentsmanagement.dto.DepartmentChanges;
+import ru.xfneo.departmentsmanagement.dto.DepartmentPage;
+import ru.xfneo.departmentsmanagement.repository.DepartmentClosureRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentDeletionRepository;
 import ru.xfneo.departmentsmanagement.repository.DepartmentRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentSnapshotLoader;
+import ru.xfneo.departmentsmanagement.search.DepartmentSearchIndex;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -27,9 +54,27 @@ public class DepartmentServiceTest {
     @Mock
     private DepartmentRepository departmentRepository;
     @Mock
+    private DepartmentDeletionRepository departmentDeletionRepository;
+    @Mock
     private EmployeeClient employeeClient;
     @Mock
     Response mockResponse;
+    @Mock
+    private DepartmentSearchIndex departmentSearchIndex;
+    @Mock
+    private DepartmentSnapshotLoader departmentSnapshotLoader;
+    @Mock
+    private DepartmentChangeFeed departmentChangeFeed;
+    @Mock
+    private DepartmentClosureRepository departmentClosureRepository;
+    @Mock
+    private LocalDepartmentSnapshot localDepartmentSnapshot;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+    @Spy
+    private Cache departmentCache = new ConcurrentMapCache("departments");
+    @Spy
+    private DepartmentListCache departmentListCache = new DepartmentListCache(new ObjectMapper(), 1024 * 1024);
     @InjectMocks
     private DepartmentService sut;
     private Department department1, department2;
@@ -50,15 +95,122 @@ public class DepartmentServiceTest {
         verifyNoMoreInteractions(departmentRepository);
     }
 
+    @Test
+    public void findPage_GetPageWithMoreDepartmentsAvailable_OkResponseWithNextCursor() {
+        when(departmentRepository.findByIdGreaterThanOrderByIdAsc(0L, PageRequest.of(0, 2)))
+                .thenReturn(Arrays.asList(department1, department2));
+        ResponseEntity<?> expectedResponse = ResponseEntity.ok(new DepartmentPage(Arrays.asList(department1), department1.getId()));
+        ResponseEntity<?> actualResponse = sut.findPage(0L, 1);
+        assertEquals(expectedResponse, actualResponse);
+    }
+
+    @Test
+    public void findPage_GetLastPage_OkResponseWithoutNextCursor() {
+        when(departmentRepository.findByIdGreaterThanOrderByIdAsc(Long.MIN_VALUE, PageRequest.of(0, DepartmentService.DEFAULT_PAGE_LIMIT + 1)))
+                .thenReturn(Arrays.asList(department1, department2));
+        ResponseEntity<?> expectedResponse = ResponseEntity.ok(new DepartmentPage(Arrays.asList(department1, department2), null));
+        ResponseEntity<?> actualResponse = sut.findPage(null, null);
+        assertEquals(expectedResponse, actualResponse);
+    }
+
+    @Test
+    public void findPage_GetPageWithWrongLimit_BadRequestResponse() {
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(400).body("Parameter limit must be between 1 and 1000");
+        ResponseEntity<?> actualResponse = sut.findPage(null, 0);
+        assertEquals(expectedResponse, actualResponse);
+        verifyZeroInteractions(departmentRepository);
+    }
+
+    @Test
+    public void search_SearchByPrefixWithMoreDepartmentsAvailable_OkResponseWithNextCursor() {
+        when(departmentSearchIndex.search("De", DepartmentSearchIndex.Match.PREFIX, department1.getId(), 2))
+                .thenReturn(Arrays.asList(department2, new Department(5, "Design Department")));
+        ResponseEntity<?> expectedResponse = ResponseEntity.ok(new DepartmentPage(Arrays.asList(department2), department2.getId()));
+        ResponseEntity<?> actualResponse = sut.search("De", "prefix", department1.getId(), 1);
+        assertEquals(expectedResponse, actualResponse);
+    }
+
+    @Test
+    public void search_SearchWithWrongMatch_BadRequestResponse() {
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(400).body("Parameter match must be prefix or substring");
+        ResponseEntity<?> actualResponse = sut.search("De", "suffix", null, null);
+        assertEquals(expectedResponse, actualResponse);
+        verifyZeroInteractions(departmentSearchIndex);
+    }
+
+    @Test
+    public void forEach_StreamAllDepartments_ActionCalledForEachDepartment() {
+        when(departmentRepository.streamAll()).thenReturn(Stream.of(department1, department2));
+        List<Department> actualList = new ArrayList<>();
+        sut.forEach(actualList::add);
+        assertEquals(Arrays.asList(department1, department2), actualList);
+    }
+
     @Test
     public void find_GetDepartment_OkResponseWithDepartment() {
         when(departmentRepository.findById(department1.getId())).thenReturn(Optional.of(department1));
-        ResponseEntity<?> expectedResponse = ResponseEntity.ok(department1);
+        ResponseEntity<?> expectedResponse = ResponseEntity.ok().eTag("\"0\"").body(department1);
         ResponseEntity<?> actualResponse = sut.find(department1.getId());
         assertEquals(expectedResponse, actualResponse);
         verify(departmentRepository).findById(department1.getId());
     }
 
+    @Test
+    public void find_GetDepartmentTwice_RepositoryCalledOnce() {
+        when(departmentRepository.findById(department1.getId())).thenReturn(Optional.of(department1));
+        sut.find(department1.getId());
+        ResponseEntity<?> actualResponse = sut.find(department1.getId());
+        assertEquals(ResponseEntity.ok().eTag("\"0\"").body(department1), actualResponse);
+        verify(departmentRepository).findById(department1.getId());
+    }
+
+    @Test
+    public void find_GetNonexistentDepartmentAfterCreate_OkResponseWithCreatedDepartment() {
+        when(departmentRepository.findById(department1.getId())).thenReturn(Optional.empty(), Optional.of(department1));
+        when(departmentRepository.save(department1)).thenReturn(department1);
+        assertEquals(ResponseEntity.status(404).body("Department Not Found"), sut.find(department1.getId()));
+        sut.create(department1);
+        assertEquals(ResponseEntity.ok().eTag("\"0\"").body(department1), sut.find(department1.getId()));
+        verify(departmentRepository, times(2)).findById(department1.getId());
+    }
+
+    @Test
+    public void find_GetNonexistentDepartmentCreatedElsewhere_NotFoundResponseNotCached() {
+        when(departmentRepository.findById(department1.getId())).thenReturn(Optional.empty(), Optional.of(department1));
+        assertEquals(ResponseEntity.status(404).body("Department Not Found"), sut.find(department1.getId()));
+        assertNull(departmentCache.get(department1.getId()));
+        assertEquals(ResponseEntity.ok().eTag("\"0\"").body(department1), sut.find(department1.getId()));
+        verify(departmentCache, never()).evict(any());
+    }
+
+    @Test
+    public void findAllETag_GetETag_ETagFromLastSeqOfChangeFeed() {
+        when(departmentChangeFeed.findLastSeq()).thenReturn(7L);
+        assertEquals("\"seq-7\"", sut.findAllETag());
+    }
+
+    @Test
+    public void findAllSerialized_GetListTwiceAndAfterCreate_ListSerializedOncePerChange() {
+        when(departmentChangeFeed.findLastSeq()).thenReturn(1L, 2L);
+        when(departmentRepository.streamAll()).thenReturn(Stream.of(department1), Stream.of(department1, department2));
+        when(departmentRepository.save(department2)).thenReturn(department2);
+        String expectedJson = "[{\"id\":1,\"name\":\"IT Department\",\"version\":0}]";
+        assertEquals(expectedJson, new String(sut.findAllSerialized("\"seq-1\"").getJson(), StandardCharsets.UTF_8));
+        assertEquals(expectedJson, new String(sut.findAllSerialized("\"seq-1\"").getJson(), StandardCharsets.UTF_8));
+        sut.create(department2);
+        assertEquals("\"seq-2\"", sut.findAllSerialized("\"seq-2\"").getETag());
+        verify(departmentRepository, times(2)).streamAll();
+        verify(departmentListCache).invalidateAfterCommit();
+    }
+
+    @Test
+    public void find_GetDepartmentWithCurrentLocalSnapshot_OkResponseWithoutRepository() {
+        when(localDepartmentSnapshot.isCurrent(department1.getId())).thenReturn(true);
+        when(localDepartmentSnapshot.find(department1.getId())).thenReturn(department1);
+        assertEquals(ResponseEntity.ok().eTag("\"0\"").body(department1), sut.find(department1.getId()));
+        verifyZeroInteractions(departmentRepository);
+    }
+
     @Test
     public void find_GetNullDepartment_NotFoundResponse() {
         ResponseEntity<?> expectedNotFoundResponse = ResponseEntity.status(404).body("Department Not Found");
@@ -73,29 +225,264 @@ public class DepartmentServiceTest {
         ResponseEntity<?> actualResponse = sut.create(department1);
         assertEquals(expectedResponse, actualResponse);
         verify(departmentRepository).save(department1);
+        verify(departmentChangeFeed).record(DepartmentChange.Type.CREATED, department1.getId(), department1.getName(), 0, null);
     }
 
     @Test
-    public void update_UpdateDepartment_OkResponseWithUpdatedDepartment() {
+    public void create_CreateDepartmentInTransaction_DepartmentEvictedAfterCompletion() {
         when(departmentRepository.save(department1)).thenReturn(department1);
-        when(departmentRepository.findById(department1.getId())).thenReturn(Optional.of(department1));
-        ResponseEntity<?> expectedResponse = ResponseEntity.ok(department1);
-        ResponseEntity<?> actualResponse = sut.update(department1.getId(), department2);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            sut.create(department1);
+            verify(departmentCache, never()).evict(any());
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        verify(departmentCache).evict(department1.getId());
+    }
+
+    @Test
+    public void createAll_CreateDepartmentsWithNullItem_OkResponseWithItemResults() {
+        List<Department> departments = Arrays.asList(department1, null);
+        ResponseEntity<?> expectedResponse = ResponseEntity.ok(Arrays.asList(
+                BatchItemResult.of(201, department1),
+                BatchItemResult.of(400, "Department data is not valid!")));
+        ResponseEntity<?> actualResponse = sut.createAll(departments);
         assertEquals(expectedResponse, actualResponse);
-        assertEquals(department1.getId(), ((Department) Objects.requireNonNull(actualResponse.getBody())).getId());
-        assertEquals(department2.getName(), ((Department) Objects.requireNonNull(actualResponse.getBody())).getName());
-        verify(departmentRepository).save(department1);
-        verify(departmentRepository).findById(department1.getId());
+        verify(departmentRepository).saveAll(Collections.singletonList(department1));
+    }
+
+    @Test
+    public void createAll_CreateEmptyBatch_BadRequestResponse() {
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(400).body("Batch size must be between 1 and 1000");
+        ResponseEntity<?> actualResponse = sut.createAll(Collections.emptyList());
+        assertEquals(expectedResponse, actualResponse);
+        verifyZeroInteractions(departmentRepository);
+    }
+
+    @Test
+    public void updateAll_UpdateExistingAndNonexistentDepartments_OkResponseWithItemResults() {
+        Department department3 = new Department(3, "Updated Department");
+        when(departmentRepository.findAllById(Arrays.asList(department1.getId(), department3.getId())))
+                .thenReturn(Collections.singletonList(department1));
+        ResponseEntity<?> expectedResponse = ResponseEntity.ok(Arrays.asList(
+                BatchItemResult.of(200, new Department(department1.getId(), "Changed Department")),
+                BatchItemResult.of(404, "Department Not Found")));
+        ResponseEntity<?> actualResponse = sut.updateAll(Arrays.asList(new Department(department1.getId(), "Changed Department"), department3));
+        assertEquals(expectedResponse, actualResponse);
+        assertEquals("Changed Department", department1.getName());
+        verify(departmentCache).evict(department1.getId());
+    }
+
+    @Test
+    public void updateAll_UpdateDepartmentsInTransaction_DepartmentsEvictedAfterCompletion() {
+        when(departmentRepository.findAllById(Arrays.asList(department1.getId(), department2.getId())))
+                .thenReturn(Arrays.asList(department1, department2));
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            sut.updateAll(Arrays.asList(new Department(department1.getId(), "Changed Department"), department2));
+            verify(departmentCache, never()).evict(any());
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        verify(departmentCache).evict(department1.getId());
+        verify(departmentCache).evict(department2.getId());
+    }
+
+    @Test
+    public void update_UpdateDepartment_OkResponseWithUpdatedDepartment() {
+        when(departmentRepository.updateAttributesIfParent(department1.getId(), 0L, null,
+                Collections.singletonMap("name", department2.getName()))).thenReturn(1);
+        Department expectedDepartment = new Department(department1.getId(), department2.getName(), 1L);
+        ResponseEntity<?> expectedResponse = ResponseEntity.ok().eTag("\"1\"").body(expectedDepartment);
+        ResponseEntity<?> actualResponse = sut.update(department1.getId(), department2, "\"0\"");
+        assertEquals(expectedResponse, actualResponse);
+        verify(departmentRepository, times(0)).findById(anyLong());
+        verify(departmentRepository, times(0)).save(any(Department.class));
+        verify(departmentRepository, times(0)).updateNameAndParent(anyLong(), anyLong(), any(), any());
+        verifyZeroInteractions(departmentClosureRepository);
+        verify(departmentCache).evict(department1.getId());
+    }
+
+    @Test
+    public void update_UpdateDepartmentWithIfMatch_VersionFromIfMatchExpected() {
+        when(departmentRepository.updateAttributesIfParent(department1.getId(), 5L, null,
+                Collections.singletonMap("name", department2.getName()))).thenReturn(1);
+        ResponseEntity<?> actualResponse = sut.update(department1.getId(), department2, "\"5\"");
+        assertEquals(200, actualResponse.getStatusCodeValue());
+        assertEquals("\"6\"", actualResponse.getHeaders().getETag());
+    }
+
+    @Test
+    public void update_UpdateDepartmentWithoutIfMatch_VersionFromBodyExpected() {
+        Department editedDepartment = new Department(department1.getId(), department2.getName(), 3L);
+        when(departmentRepository.updateAttributesIfParent(department1.getId(), 3L, null,
+                Collections.singletonMap("name", department2.getName()))).thenReturn(1);
+        ResponseEntity<?> actualResponse = sut.update(department1.getId(), editedDepartment, null);
+        assertEquals(200, actualResponse.getStatusCodeValue());
+        assertEquals("\"4\"", actualResponse.getHeaders().getETag());
+    }
+
+    @Test
+    public void update_UpdateDepartmentWithInvalidIfMatch_BadRequestResponse() {
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(400).body("Header If-Match is not valid");
+        ResponseEntity<?> actualResponse = sut.update(department1.getId(), department2, "W/\"5\"");
+        assertEquals(expectedResponse, actualResponse);
+        verifyZeroInteractions(departmentRepository);
+    }
+
+    @Test
+    public void update_UpdateDepartmentWithStaleVersion_ConflictResponse() {
+        when(departmentRepository.updateNameAndParent(department1.getId(), 0L, department2.getName(), null)).thenReturn(0);
+        when(departmentRepository.existsById(department1.getId())).thenReturn(true);
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(409).body("Department Version Conflict");
+        ResponseEntity<?> actualResponse = sut.update(department1.getId(), department2, "\"0\"");
+        assertEquals(expectedResponse, actualResponse);
+        verify(departmentCache, times(0)).evict(any());
+        verify(departmentClosureRepository, times(0)).detachSubtree(anyLong());
     }
 
     @Test
     public void update_UpdateNonexistentDepartment_NotFoundResponse() {
-        when(departmentRepository.findById(department1.getId())).thenReturn(Optional.empty());
+        when(departmentRepository.updateNameAndParent(department1.getId(), 0L, department2.getName(), null)).thenReturn(0);
+        when(departmentRepository.existsById(department1.getId())).thenReturn(false);
         ResponseEntity<?> expectedResponse = ResponseEntity.status(404).body("Department Not Found");
-        ResponseEntity<?> actualResponse = sut.update(department1.getId(), department2);
+        ResponseEntity<?> actualResponse = sut.update(department1.getId(), department2, "\"0\"");
         assertEquals(expectedResponse, actualResponse);
         verify(departmentRepository, times(0)).save(any(Department.class));
-        verify(departmentRepository).findById(department1.getId());
+    }
+
+    @Test
+    public void update_MoveDepartmentUnderParent_SubtreeMovedInHierarchy() {
+        Department editedDepartment = new Department(department1.getId(), department1.getName(), 0L, department2.getId());
+        when(departmentRepository.existsById(department2.getId())).thenReturn(true);
+        when(departmentRepository.updateNameAndParent(department1.getId(), 0L, department1.getName(), department2.getId())).thenReturn(1);
+        ResponseEntity<?> actualResponse = sut.update(department1.getId(), editedDepartment, "\"0\"");
+        assertEquals(new Department(department1.getId(), department1.getName(), 1L, department2.getId()), actualResponse.getBody());
+        verify(departmentRepository).updateAttributesIfParent(department1.getId(), 0L, department2.getId(),
+                Collections.singletonMap("name", department1.getName()));
+        verify(departmentClosureRepository).lockForWrite();
+        verify(departmentClosureRepository).detachSubtree(department1.getId());
+        verify(departmentClosureRepository).attachSubtree(department1.getId(), department2.getId());
+    }
+
+    @Test
+    public void update_MoveDepartmentIntoItsSubtree_ConflictResponse() {
+        Department editedDepartment = new Department(department1.getId(), department1.getName(), 0L, department2.getId());
+        when(departmentRepository.existsById(department2.getId())).thenReturn(true);
+        when(departmentClosureRepository.existsByAncestorIdAndDescendantId(department1.getId(), department2.getId())).thenReturn(true);
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(409).body("Department Can't Be Moved Into Its Own Subtree");
+        ResponseEntity<?> actualResponse = sut.update(department1.getId(), editedDepartment, "\"0\"");
+        assertEquals(expectedResponse, actualResponse);
+        verify(departmentRepository, times(0)).updateNameAndParent(anyLong(), anyLong(), any(), any());
+        verify(departmentClosureRepository, times(0)).detachSubtree(anyLong());
+    }
+
+    @Test
+    public void update_MoveDepartmentUnderNonexistentParent_BadRequestResponse() {
+        Department editedDepartment = new Department(department1.getId(), department1.getName(), 0L, 7L);
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(400).body("Parent Department Not Found");
+        ResponseEntity<?> actualResponse = sut.update(department1.getId(), editedDepartment, "\"0\"");
+        assertEquals(expectedResponse, actualResponse);
+        verify(departmentRepository, times(0)).updateNameAndParent(anyLong(), anyLong(), any(), any());
+    }
+
+    @Test
+    public void findAncestors_GetAncestorsOfDepartment_OkResponseWithoutDepartmentItself() {
+        Department child = new Department(3, "QA Department", 0L, department2.getId());
+        when(departmentRepository.findAncestorsAndSelf(child.getId())).thenReturn(Arrays.asList(department2, child));
+        ResponseEntity<?> expectedResponse = ResponseEntity.ok(Collections.singletonList(department2));
+        ResponseEntity<?> actualResponse = sut.findAncestors(child.getId());
+        assertEquals(expectedResponse, actualResponse);
+    }
+
+    @Test
+    public void findSubtree_GetSubtreeOfNonexistentDepartment_NotFoundResponse() {
+        when(departmentRepository.findSubtree(department1.getId(), 1)).thenReturn(Collections.emptyList());
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(404).body("Department Not Found");
+        ResponseEntity<?> actualResponse = sut.findSubtree(department1.getId(), 1);
+        assertEquals(expectedResponse, actualResponse);
+    }
+
+    @Test
+    public void patch_PatchDepartmentParent_SubtreeMovedToRoot() {
+        Map<String, Object> changes = new HashMap<>();
+        changes.put("parentId", null);
+        changes.put("version", 3);
+        when(departmentRepository.updateAttributes(department1.getId(), 3L, Collections.singletonMap("parentId", null)))
+                .thenReturn(1);
+        when(departmentRepository.findById(department1.getId())).thenReturn(Optional.of(new Department(department1.getId(), department1.getName(), 4L)));
+        ResponseEntity<?> expectedResponse = ResponseEntity.noContent().eTag("\"4\"").build();
+        ResponseEntity<?> actualResponse = sut.patch(department1.getId(), changes, null);
+        assertEquals(expectedResponse, actualResponse);
+        verify(departmentRepository).updateAttributesIfParent(department1.getId(), 3L, null, Collections.singletonMap("parentId", null));
+        verify(departmentClosureRepository).detachSubtree(department1.getId());
+        verify(departmentClosureRepository, times(0)).attachSubtree(anyLong(), anyLong());
+    }
+
+    @Test
+    public void patch_PatchOnlyDepartmentParent_ChangeWithNameAndNewParentRecorded() {
+        Map<String, Object> changes = Collections.singletonMap("parentId", department2.getId());
+        when(departmentRepository.existsById(department2.getId())).thenReturn(true);
+        when(departmentRepository.updateAttributes(department1.getId(), 3L, changes)).thenReturn(1);
+        when(departmentRepository.findById(department1.getId()))
+                .thenReturn(Optional.of(new Department(department1.getId(), department1.getName(), 4L, department2.getId())));
+        sut.patch(department1.getId(), changes, "\"3\"");
+        verify(departmentChangeFeed).record(DepartmentChange.Type.UPDATED, department1.getId(), department1.getName(), 4L, department2.getId());
+        verify(departmentClosureRepository).attachSubtree(department1.getId(), department2.getId());
+    }
+
+    @Test
+    public void patch_PatchDepartmentWithSameParent_SubtreeNotMoved() {
+        Map<String, Object> changes = new HashMap<>();
+        changes.put("name", "Patched Department");
+        changes.put("parentId", department2.getId());
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("name", "Patched Department");
+        attributes.put("parentId", department2.getId());
+        when(departmentRepository.updateAttributesIfParent(department1.getId(), 3L, department2.getId(), attributes))
+                .thenReturn(1);
+        when(departmentRepository.findById(department1.getId()))
+                .thenReturn(Optional.of(new Department(department1.getId(), "Patched Department", 4L, department2.getId())));
+        ResponseEntity<?> expectedResponse = ResponseEntity.noContent().eTag("\"4\"").build();
+        ResponseEntity<?> actualResponse = sut.patch(department1.getId(), changes, "\"3\"");
+        assertEquals(expectedResponse, actualResponse);
+        verify(departmentRepository, times(0)).updateAttributes(anyLong(), anyLong(), anyMap());
+        verifyZeroInteractions(departmentClosureRepository);
+    }
+
+    @Test
+    public void patch_PatchDepartmentName_NoContentResponseWithNewETag() {
+        Map<String, Object> changes = new HashMap<>();
+        changes.put("name", "Patched Department");
+        changes.put("version", 3);
+        when(departmentRepository.updateAttributes(department1.getId(), 3L, Collections.singletonMap("name", "Patched Department")))
+                .thenReturn(1);
+        when(departmentRepository.findById(department1.getId())).thenReturn(Optional.of(new Department(department1.getId(), "Patched Department", 4L)));
+        ResponseEntity<?> expectedResponse = ResponseEntity.noContent().eTag("\"4\"").build();
+        ResponseEntity<?> actualResponse = sut.patch(department1.getId(), changes, null);
+        assertEquals(expectedResponse, actualResponse);
+        verify(departmentCache).evict(department1.getId());
+    }
+
+    @Test
+    public void patch_PatchDepartmentWithoutVersion_BadRequestResponse() {
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(400).body("Department version is required");
+        ResponseEntity<?> actualResponse = sut.patch(department1.getId(), Collections.singletonMap("name", "Patched Department"), null);
+        assertEquals(expectedResponse, actualResponse);
+        verifyZeroInteractions(departmentRepository);
+    }
+
+    @Test
+    public void patch_PatchDepartmentId_BadRequestResponse() {
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(400).body("Department data is not valid!");
+        ResponseEntity<?> actualResponse = sut.patch(department1.getId(), Collections.singletonMap("id", 7), "\"0\"");
+        assertEquals(expectedResponse, actualResponse);
+        verifyZeroInteractions(departmentRepository);
     }
 
     @Test
@@ -107,12 +494,92 @@ public class DepartmentServiceTest {
                 .request(mockRequest)
                 .build();
         when(employeeClient.replaceDepartmentId(anyMap())).thenReturn(responseFromEmployeesService);
-        when(departmentRepository.findById(department1.getId())).thenReturn(Optional.of(department1));
-        when(departmentRepository.findById(department2.getId())).thenReturn(Optional.of(department2));
+        when(departmentRepository.findExistingIds(Arrays.asList(department1.getId(), department2.getId())))
+                .thenReturn(Arrays.asList(department1.getId(), department2.getId()));
+        when(departmentRepository.deleteByIdReturningCount(department1.getId())).thenReturn(1);
         ResponseEntity<?> expectedResponse = ResponseEntity.status(200).body("2 employees are affected");
         ResponseEntity<?> actualResponse = sut.delete(department1.getId(), String.valueOf(department2.getId()));
         assertEquals(expectedResponse, actualResponse);
-        verify(departmentRepository).deleteById(department1.getId());
+        verify(departmentRepository).deleteByIdReturningCount(department1.getId());
+        verify(departmentChangeFeed).record(DepartmentChange.Type.DELETED, department1.getId(), null, 0, null);
+        verify(transactionManager).commit(any());
+        verify(departmentRepository, times(0)).findById(anyLong());
+        verify(departmentCache).evict(department1.getId());
+    }
+
+    @Test
+    public void delete_DeleteDepartmentWithEmployeeServiceUnavailable_ServiceUnavailableResponse() {
+        when(employeeClient.replaceDepartmentId(anyMap())).thenThrow(new EmployeeServiceUnavailableException("Employee service is not reachable", null));
+        when(departmentRepository.findExistingIds(Arrays.asList(department1.getId(), department2.getId())))
+                .thenReturn(Arrays.asList(department1.getId(), department2.getId()));
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(503).body("Employee Service Unavailable");
+        ResponseEntity<?> actualResponse = sut.delete(department1.getId(), String.valueOf(department2.getId()));
+        assertEquals(expectedResponse, actualResponse);
+        verify(departmentRepository, times(0)).deleteByIdReturningCount(anyLong());
+    }
+
+    @Test
+    public void delete_DeleteDepartmentWithNonexistentSwapDepartment_NotFoundResponse() {
+        when(departmentRepository.findExistingIds(Arrays.asList(department1.getId(), department2.getId())))
+                .thenReturn(Collections.singletonList(department1.getId()));
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(404).body("Department Not Found");
+        ResponseEntity<?> actualResponse = sut.delete(department1.getId(), String.valueOf(department2.getId()));
+        assertEquals(expectedResponse, actualResponse);
+        verifyZeroInteractions(employeeClient);
+    }
+
+    @Test
+    public void delete_DeleteDepartmentWithSubdepartments_ConflictResponse() {
+        when(departmentRepository.findExistingIds(Arrays.asList(department1.getId(), department2.getId())))
+                .thenReturn(Arrays.asList(department1.getId(), department2.getId()));
+        when(departmentRepository.existsByParentId(department1.getId())).thenReturn(true);
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(409).body("Department Has Subdepartments");
+        ResponseEntity<?> actualResponse = sut.delete(department1.getId(), String.valueOf(department2.getId()));
+        assertEquals(expectedResponse, actualResponse);
+        verifyZeroInteractions(employeeClient);
+    }
+
+    @Test
+    public void deleteAsync_DeleteDepartment_OkResponseCompletedAfterEmployeeServiceResponds() {
+        Response responseFromEmployeesService = Response.builder()
+                .status(200)
+                .body("2 employees are affected", StandardCharsets.UTF_8)
+                .request(mock(Request.class))
+                .build();
+        CompletableFuture<Response> responseFuture = new CompletableFuture<>();
+        when(employeeClient.replaceDepartmentIdAsync(anyMap())).thenReturn(responseFuture);
+        when(departmentRepository.findExistingIds(Arrays.asList(department1.getId(), department2.getId())))
+                .thenReturn(Arrays.asList(department1.getId(), department2.getId()));
+        CompletableFuture<ResponseEntity<?>> actualResponse = sut.deleteAsync(department1.getId(), String.valueOf(department2.getId()));
+        assertFalse(actualResponse.isDone());
+        verify(departmentRepository, times(0)).deleteByIdReturningCount(anyLong());
+        responseFuture.complete(responseFromEmployeesService);
+        assertEquals(ResponseEntity.status(200).body("2 employees are affected"), actualResponse.join());
+        verify(departmentRepository).deleteByIdReturningCount(department1.getId());
+        verify(departmentCache).evict(department1.getId());
+        verify(employeeClient, times(0)).replaceDepartmentId(anyMap());
+    }
+
+    @Test
+    public void deleteAsync_DeleteDepartmentWithEmployeeServiceUnavailable_ServiceUnavailableResponse() {
+        CompletableFuture<Response> responseFuture = new CompletableFuture<>();
+        responseFuture.completeExceptionally(new EmployeeServiceUnavailableException("Too many calls of employee service in progress", null));
+        when(employeeClient.replaceDepartmentIdAsync(anyMap())).thenReturn(responseFuture);
+        when(departmentRepository.findExistingIds(Arrays.asList(department1.getId(), department2.getId())))
+                .thenReturn(Arrays.asList(department1.getId(), department2.getId()));
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(503).body("Employee Service Unavailable");
+        assertEquals(expectedResponse, sut.deleteAsync(department1.getId(), String.valueOf(department2.getId())).join());
+        verify(departmentRepository, times(0)).deleteByIdReturningCount(anyLong());
+    }
+
+    @Test
+    public void deleteAllAsync_DeleteDepartmentsWithWrongSwapDepartmentIdParam_OkResponseWithBadRequestItems() {
+        ResponseEntity<?> expectedResponse = ResponseEntity.ok(Arrays.asList(
+                BatchItemResult.of(400, "Parameter departmentIdForReplacement must be a number"),
+                BatchItemResult.of(400, "Parameter departmentIdForReplacement must be a number")));
+        ResponseEntity<?> actualResponse = sut.deleteAllAsync(Arrays.asList(department1.getId(), department2.getId()), "WrongParam").join();
+        assertEquals(expectedResponse, actualResponse);
+        verifyZeroInteractions(employeeClient);
     }
 
     @Test
@@ -130,4 +597,118 @@ public class DepartmentServiceTest {
         assertEquals(expectedResponse, actualResponse);
         verify(departmentRepository, times(0)).delete(any(Department.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void deleteAll_DeleteDepartmentsWithWrongSwapDepartmentIdParam_OkResponseWithBadRequestItems() {
+        ResponseEntity<?> expectedResponse = ResponseEntity.ok(Arrays.asList(
+                BatchItemResult.of(400, "Parameter departmentIdForReplacement must be a number"),
+                BatchItemResult.of(400, "Parameter departmentIdForReplacement must be a number")));
+        ResponseEntity<?> actualResponse = sut.deleteAll(Arrays.asList(department1.getId(), department2.getId()), "WrongParam");
+        assertEquals(expectedResponse, actualResponse);
+        verifyZeroInteractions(employeeClient);
+    }
+
+    @Test
+    public void requestDelete_RequestDeleteDepartment_AcceptedResponseWithStatusLocation() {
+        when(departmentRepository.findExistingIds(Arrays.asList(department1.getId(), department2.getId())))
+                .thenReturn(Arrays.asList(department1.getId(), department2.getId()));
+        when(departmentDeletionRepository.save(any(DepartmentDeletion.class))).thenAnswer(invocation -> {
+            DepartmentDeletion departmentDeletion = invocation.getArgument(0);
+            departmentDeletion.setId(7);
+            return departmentDeletion;
+        });
+        ResponseEntity<?> actualResponse = sut.requestDelete(department1.getId(), String.valueOf(department2.getId()));
+        assertEquals(202, actualResponse.getStatusCodeValue());
+        assertEquals("/api/departments/deletions/7", actualResponse.getHeaders().getLocation().toString());
+        DepartmentDeletion departmentDeletion = (DepartmentDeletion) actualResponse.getBody();
+        assertEquals(DepartmentDeletion.Status.PENDING, departmentDeletion.getStatus());
+        assertEquals(department1.getId(), departmentDeletion.getDepartmentId());
+        assertEquals(department2.getId(), departmentDeletion.getReplacementDepartmentId());
+        verifyZeroInteractions(employeeClient);
+        verify(departmentRepository, times(0)).deleteByIdReturningCount(anyLong());
+    }
+
+    @Test
+    public void requestDelete_RequestDeleteDepartmentAlreadyBeingDeleted_ConflictResponse() {
+        when(departmentRepository.findExistingIds(Arrays.asList(department1.getId(), department2.getId())))
+                .thenReturn(Arrays.asList(department1.getId(), department2.getId()));
+        when(departmentDeletionRepository.existsByDepartmentIdInAndStatusIn(
+                Arrays.asList(department1.getId(), department2.getId()),
+                EnumSet.of(DepartmentDeletion.Status.PENDING, DepartmentDeletion.Status.IN_PROGRESS))).thenReturn(true);
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(409).body("Department Deletion In Progress");
+        ResponseEntity<?> actualResponse = sut.requestDelete(department1.getId(), String.valueOf(department2.getId()));
+        assertEquals(expectedResponse, actualResponse);
+        verify(departmentDeletionRepository, times(0)).save(any(DepartmentDeletion.class));
+    }
+
+    @Test
+    public void findDeletion_GetNonexistentDeletion_NotFoundResponse() {
+        when(departmentDeletionRepository.findById(7L)).thenReturn(Optional.empty());
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(404).body("Department Deletion Not Found");
+        ResponseEntity<?> actualResponse = sut.findDeletion(7L);
+        assertEquals(expectedResponse, actualResponse);
+    }
+
+    @Test
+    public void importSnapshot_ImportDepartments_OkResponseAndCacheCleared() throws IOException {
+        InputStream snapshot = new ByteArrayInputStream("{\"id\":1,\"name\":\"IT Department\"}\n".getBytes(StandardCharsets.UTF_8));
+        departmentCache.put(department1.getId(), department1);
+        when(departmentSnapshotLoader.load(snapshot)).thenReturn(1L);
+        ResponseEntity<?> expectedResponse = ResponseEntity.ok("1 departments are imported");
+        ResponseEntity<?> actualResponse = sut.importSnapshot(snapshot, false);
+        assertEquals(expectedResponse, actualResponse);
+        assertNull(departmentCache.get(department1.getId()));
+    }
+
+    @Test
+    public void importSnapshot_ImportNotGzippedSnapshotAsGzipped_BadRequestResponse() {
+        InputStream snapshot = new ByteArrayInputStream("{\"id\":1,\"name\":\"IT Department\"}\n".getBytes(StandardCharsets.UTF_8));
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(400).body("Department snapshot is not valid NDJSON");
+        ResponseEntity<?> actualResponse = sut.importSnapshot(snapshot, true);
+        assertEquals(expectedResponse, actualResponse);
+        verifyZeroInteractions(departmentSnapshotLoader);
+    }
+
+    @Test
+    public void importSnapshot_ImportInvalidDepartment_BadRequestResponse() throws IOException {
+        InputStream snapshot = new ByteArrayInputStream("{\"name\":\"IT Department\"}\n".getBytes(StandardCharsets.UTF_8));
+        when(departmentSnapshotLoader.load(snapshot)).thenThrow(new IllegalArgumentException("Department 1 of the snapshot is not valid"));
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(400).body("Department 1 of the snapshot is not valid");
+        ResponseEntity<?> actualResponse = sut.importSnapshot(snapshot, false);
+        assertEquals(expectedResponse, actualResponse);
+    }
+
+    @Test
+    public void findChanges_FindChangesWithoutSince_OkResponseWithLastSeqOnly() {
+        when(departmentChangeFeed.findLastSeq()).thenReturn(42L);
+        ResponseEntity<?> expectedResponse = ResponseEntity.ok(new DepartmentChanges(Collections.emptyList(), 42));
+        ResponseEntity<?> actualResponse = sut.findChanges(null, null, null).join();
+        assertEquals(expectedResponse, actualResponse);
+        verify(departmentChangeFeed, never()).awaitChanges(anyLong(), anyInt(), anyLong());
+    }
+
+    @Test
+    public void findChanges_FindChangesSinceSeq_OkResponseWithChangesAndLastSeq() {
+        DepartmentChange change = new DepartmentChange(8, DepartmentChange.Type.UPDATED, department1.getId(), department1.getName(), 1);
+        when(departmentChangeFeed.awaitChanges(7L, 100, 10_000L))
+                .thenReturn(CompletableFuture.completedFuture(Collections.singletonList(change)));
+        ResponseEntity<?> expectedResponse = ResponseEntity.ok(new DepartmentChanges(Collections.singletonList(change), 8));
+        ResponseEntity<?> actualResponse = sut.findChanges(7L, null, 10).join();
+        assertEquals(expectedResponse, actualResponse);
+    }
+
+    @Test
+    public void findChanges_FindChangesNoLongerRetained_GoneResponse() {
+        when(departmentChangeFeed.findPurgedSeq()).thenReturn(10L);
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(410).body("Changes since 7 are no longer retained, reload all departments");
+        ResponseEntity<?> actualResponse = sut.findChanges(7L, null, null).join();
+        assertEquals(expectedResponse, actualResponse);
+    }
+
+    @Test
+    public void findChanges_FindChangesWithTooLongWait_BadRequestResponse() {
+        ResponseEntity<?> expectedResponse = ResponseEntity.status(400).body("Parameter wait must be between 0 and 25");
+        ResponseEntity<?> actualResponse = sut.findChanges(7L, null, 60).join();
+        assertEquals(expectedResponse, actualResponse);
+    }
+}
@@ -0,0 +1,111 @@
+package ru.xfneo.departmentsmanagement.service;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+import ru.xfneo.departmentsmanagement.domain.Department;
+import ru.xfneo.departmentsmanagement.domain.DepartmentChangeHead;
+import ru.xfneo.departmentsmanagement.repository.DepartmentChangeHeadRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentChangeRepository;
+import ru.xfneo.departmentsmanagement.repository.DepartmentRepository;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.*;
+
+/**
+ * read-mode=snapshot: after changes made through the API are applied to the local snapshot, department reads
+ * are served from the mapped file without any statement. The poll interval is long, so only changes of this
+ * instance refresh the snapshot and no statement of a poll is counted.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:local-snapshot;DB_CLOSE_DELAY=-1",
+        "departments.read-mode=snapshot",
+        "departments.local-snapshot.file=target/local-snapshot-it/departments.snapshot",
+        "departments.local-snapshot.poll-interval=3600000"
+})
+public class LocalDepartmentSnapshotIT {
+    private static final String DEPARTMENTS_URI = "/api/departments";
+    private static final String DEPARTMENTS_ID_URI = "/api/departments/{id}";
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+    @Autowired
+    private LocalDepartmentSnapshot localDepartmentSnapshot;
+    @Autowired
+    private DepartmentRepository departmentRepository;
+    @Autowired
+    private DepartmentChangeRepository departmentChangeRepository;
+    @Autowired
+    private DepartmentChangeHeadRepository departmentChangeHeadRepository;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Before
+    public void setUp() {
+        // created by migration in the database of the application
+        departmentChangeHeadRepository.save(new DepartmentChangeHead(DepartmentChangeHead.ID, 0, 0));
+    }
+
+    @After
+    public void resetDb() {
+        departmentRepository.deleteAll();
+        departmentChangeRepository.deleteAll();
+        departmentChangeHeadRepository.deleteAll();
+    }
+
+    @Test
+    public void changeDepartmentsAndReadThemFromSnapshotWithoutStatements() throws InterruptedException {
+        Department created = restTemplate.postForObject(DEPARTMENTS_URI, new Department(0, "IT Department"), Department.class);
+        restTemplate.postForObject(DEPARTMENTS_URI, new Department(0, "QA Department"), Department.class);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfMatch("\"" + created.getVersion() + "\"");
+        restTemplate.exchange(DEPARTMENTS_ID_URI, HttpMethod.PUT, new HttpEntity<>(new Department(0, "Platform Department"), headers),
+                Department.class, created.getId());
+        // read your writes: the renamed department is read from the database until the snapshot has the change
+        assertThat(restTemplate.getForObject(DEPARTMENTS_ID_URI, Department.class, created.getId()).getName(), is("Platform Department"));
+        await(localDepartmentSnapshot::isCurrent);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        Department department = restTemplate.getForObject(DEPARTMENTS_ID_URI, Department.class, created.getId());
+        ResponseEntity<List<Department>> listResponse = restTemplate.exchange(DEPARTMENTS_URI, HttpMethod.GET, null,
+                new ParameterizedTypeReference<List<Department>>() {
+                });
+        ResponseEntity<String> notFoundResponse = restTemplate.getForEntity(DEPARTMENTS_ID_URI, String.class, Long.MAX_VALUE);
+        assertThat(statistics.getPrepareStatementCount(), is(0L));
+        assertThat(statistics.getTransactionCount(), is(0L));
+
+        assertEquals(new Department(created.getId(), "Platform Department", 1), department);
+        assertThat(listResponse.getBody().size(), is(2));
+        assertEquals(department, listResponse.getBody().get(0));
+        // the same ETag as computed by the database (with a suffix of the gzip-compressed representation)
+        String eTag = DepartmentService.listETag(departmentChangeHeadRepository.findById(DepartmentChangeHead.ID).get().getLastSeq());
+        assertThat(listResponse.getHeaders().getETag(), startsWith(eTag.substring(0, eTag.length() - 1)));
+        assertThat(notFoundResponse.getStatusCodeValue(), is(404));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int attempt = 0; attempt < 100 && !condition.getAsBoolean(); attempt++) {
+            Thread.sleep(50);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
@@ -0,0 +1,102 @@
+package ru.xfneo.departmentsmanagement.snapshot;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.xfneo.departmentsmanagement.domain.Department;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class MappedDepartmentStoreTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = temporaryFolder.getRoot().toPath().resolve("departments.snapshot");
+    }
+
+    @Test
+    public void open_NewFile_EmptyStoreWithoutSeq() throws IOException {
+        try (MappedDepartmentStore sut = MappedDepartmentStore.open(file)) {
+            assertEquals(MappedDepartmentStore.NO_SEQ, sut.getLastSeq());
+            assertEquals(0, sut.size());
+        }
+    }
+
+    @Test
+    public void put_PutReplaceAndRemove_LatestDepartments() throws IOException {
+        try (MappedDepartmentStore sut = MappedDepartmentStore.open(file)) {
+            sut.put(new Department(1, "IT Department"));
+            sut.put(new Department(2, "Development Department", 0, 1L));
+            sut.put(new Department(3, null));
+            sut.put(new Department(1, "IT", 1));
+            sut.remove(3);
+            assertEquals(new Department(1, "IT", 1), sut.get(1));
+            assertEquals(new Department(2, "Development Department", 0, 1L), sut.get(2));
+            assertNull(sut.get(3));
+            assertArrayEquals(new long[]{1, 2}, sut.ids());
+        }
+    }
+
+    @Test
+    public void open_ReopenStore_DepartmentsAndSeqRestoredFromFile() throws IOException {
+        try (MappedDepartmentStore sut = MappedDepartmentStore.open(file)) {
+            sut.put(new Department(1, "IT Department"));
+            sut.put(new Department(2, "Отдел разработки", 3));
+            sut.remove(1);
+            sut.setLastSeq(5);
+        }
+        try (MappedDepartmentStore sut = MappedDepartmentStore.open(file)) {
+            assertEquals(5, sut.getLastSeq());
+            assertNull(sut.get(1));
+            assertEquals(new Department(2, "Отдел разработки", 3), sut.get(2));
+        }
+    }
+
+    @Test
+    public void open_FileIsNotStore_EmptyStoreWithoutSeq() throws IOException {
+        Files.write(file, "not a department store".getBytes());
+        try (MappedDepartmentStore sut = MappedDepartmentStore.open(file)) {
+            assertEquals(MappedDepartmentStore.NO_SEQ, sut.getLastSeq());
+            assertEquals(0, sut.size());
+        }
+    }
+
+    @Test
+    public void put_UpdateUntilFileIsFull_ReplacedRecordsCompactedAndSeqKept() throws IOException {
+        try (MappedDepartmentStore sut = MappedDepartmentStore.open(file)) {
+            sut.setLastSeq(7);
+            for (int version = 0; version < 10000; version++) {
+                sut.put(new Department(1, "IT Department", version));
+                sut.put(new Department(2, "Development Department", version));
+            }
+            assertEquals(MappedDepartmentStore.MIN_CAPACITY, Files.size(file));
+            assertTrue(sut.usedBytes() < MappedDepartmentStore.MIN_CAPACITY);
+            assertEquals(7, sut.getLastSeq());
+            assertEquals(new Department(2, "Development Department", 9999), sut.get(2));
+        }
+        try (MappedDepartmentStore sut = MappedDepartmentStore.open(file)) {
+            assertEquals(2, sut.size());
+            assertEquals(new Department(1, "IT Department", 9999), sut.get(1));
+        }
+    }
+
+    @Test
+    public void put_MoreDepartmentsThanFileFits_FileGrows() throws IOException {
+        try (MappedDepartmentStore sut = MappedDepartmentStore.open(file)) {
+            for (int id = 1; id <= 5000; id++) {
+                sut.put(new Department(id, "Department " + id));
+            }
+            assertTrue(Files.size(file) > MappedDepartmentStore.MIN_CAPACITY);
+            assertEquals(5000, sut.size());
+            assertEquals(new Department(4321, "Department 4321"), sut.get(4321));
+        }
+    }
+}